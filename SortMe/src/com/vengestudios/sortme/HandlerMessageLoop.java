@@ -0,0 +1,68 @@
+package com.vengestudios.sortme;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * A MessageLoop that posts to an Android Handler
+ *
+ * It either runs on the thread it was created on, such as the UI thread,
+ * or on a HandlerThread started for it, which quit() stops.
+ */
+public class HandlerMessageLoop implements MessageLoop {
+
+    private final Handler       handler;
+
+    // The thread started for the loop, null if the loop runs on an existing thread
+    private final HandlerThread handlerThread;
+
+    /**
+     * Constructor
+     *
+     * Creates a HandlerMessageLoop that runs on the current thread,
+     * which must have a Looper, such as the UI thread
+     */
+    public HandlerMessageLoop() {
+        handler       = new Handler();
+        handlerThread = null;
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates a HandlerMessageLoop that runs on a new thread, and starts the thread
+     *
+     * @param threadName The name of the thread
+     */
+    public HandlerMessageLoop(String threadName) {
+        handlerThread = new HandlerThread(threadName);
+        handlerThread.start();
+        handler       = new Handler(handlerThread.getLooper());
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delay) {
+        handler.postDelayed(runnable, delay);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        handler.removeCallbacks(runnable);
+    }
+
+    @Override
+    public void removeAllCallbacks() {
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    @Override
+    public void quit() {
+        if (handlerThread!=null)
+            handlerThread.quit();
+    }
+}
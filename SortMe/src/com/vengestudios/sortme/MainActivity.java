@@ -2,14 +2,12 @@ package com.vengestudios.sortme;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.KeyEvent;
 import android.view.WindowManager;
 import android.widget.RelativeLayout;
@@ -28,7 +26,11 @@ import com.google.android.gms.games.multiplayer.realtime.RoomConfig;
 import com.google.android.gms.games.multiplayer.realtime.RoomStatusUpdateListener;
 import com.google.android.gms.games.multiplayer.realtime.RoomUpdateListener;
 import com.google.example.games.basegameutils.BaseGameActivity;
+import com.vengestudios.sortme.game.GameMessagePriorityClassifier;
 import com.vengestudios.sortme.game.GameScreen;
+import com.vengestudios.sortme.network.BatchingMessageLayer;
+import com.vengestudios.sortme.network.InboundMessagePipeline;
+import com.vengestudios.sortme.network.OutboundMessagePipeline;
 import com.vengestudios.sortme.security.SecurityMessageLayer;
 import com.vengestudios.sortme.security.SecurityProtocolChooser;
 import com.vengestudios.sortme.security.SecurityProtocolType;
@@ -48,6 +50,9 @@ import com.vengestudios.sortme.security.SecurityProtocolType;
  *    and injecting it as a layer between the Google Game Services API
  *    and the Game Logic (handled by GameScreen)
  *
+ *  - Setting up the BatchingMessageLayer to coalesce outgoing messages
+ *    and injecting it as the layer directly above the Google Game Services API
+ *
  *  - Setting up, hiding and showing the different screens
  *
  *  - Registering high scores to the leader board
@@ -70,12 +75,6 @@ public class MainActivity extends BaseGameActivity
         OnInvitationReceivedListener,
         MessageSender {
 
-    // Used to schedule garbage collection before/after a memory intensive game
-    // or other memory intensive tasks
-    private static final Handler  GARBAGE_COLLECT_HANDLER = new Handler();
-    private static final Runnable GARBAGE_COLLECT_RUNNABLE =
-            new Runnable() { @Override public void run() { System.gc(); } };
-
     // An enum to determine the return results for intents to launch
     // the Google Play Services Activities
     private enum ActivityResult{
@@ -89,14 +88,28 @@ public class MainActivity extends BaseGameActivity
     // Some booleans to quickly enable/disable features that might be removed upon final release
     private static final boolean SHOULD_HIDE_PARTICIPANTS_IDENTITIES = false;
     private static final boolean SECURITY_ENABLED                    = true;
+    private static final boolean BATCHING_ENABLED                    = true;
+    private static final boolean INBOUND_PIPELINE_ENABLED            = true;
+    private static final boolean OUTBOUND_PIPELINE_ENABLED           = true;
     private static final boolean ABLE_TO_SET_SECURITY_PROTOCOL       = true;
     private static final boolean SET_NO_SECURITY_PROTOCOL            = true;
 
-    // Fields to hold the information of the room received from Google Game Services
-    private String                 roomId         = null;
+    // Fields to hold the information of the room received from Google Game Services.
+    // The room ID is also read by the network thread of the OutboundMessagePipeline
+    private volatile String        roomId         = null;
     private ArrayList<Participant> participants   = null;
     private String                 ownId          = null;
 
+    // The ID of the room being left, set while the outgoing messages
+    // are sent out on the network thread before leaving it
+    private String                 leavingRoomId  = null;
+
+    // Gives each participant in the room a slot, which the message paths route by,
+    // and the bitmask of the slots of the other participants who have joined.
+    // Also read by the network thread of the OutboundMessagePipeline
+    private volatile ParticipantRegistry participantRegistry = null;
+    private volatile long                joinedSlots         = 0;
+
     // An enum to denote the different types of error that can be displayed
     // in a popup dialog
     private enum RoomErrorType{
@@ -131,6 +144,15 @@ public class MainActivity extends BaseGameActivity
     // Objects responsible to the encryption protocols
     private SecurityMessageLayer    securityMessageLayer;
 
+    // Coalesces outgoing messages into one message per participant
+    private BatchingMessageLayer    batchingMessageLayer;
+
+    // Processes incoming messages on a worker thread instead of the UI thread
+    private InboundMessagePipeline  inboundMessagePipeline;
+
+    // Sends outgoing messages on a network thread instead of the UI thread
+    private OutboundMessagePipeline outboundMessagePipeline;
+
     // A enum variable to denote the current screen being shown
     private ScreenType   currentScreenType;
 
@@ -163,11 +185,31 @@ public class MainActivity extends BaseGameActivity
         screenMap.put(ScreenType.SIGN_IN_SCREEN, signInScreen);
         screenMap.put(ScreenType.TRANSIT_SCREEN, transitScreen);
 
+        // The MessageSender directly above the Google Game Services API,
+        // and the one directly below the GameScreen
+        MessageSender lowestMessageSender = this;
+        MessageSender highestMessageSender;
+        if (BATCHING_ENABLED) {
+            batchingMessageLayer = new BatchingMessageLayer(this, new HandlerMessageLoop());
+            lowestMessageSender  = batchingMessageLayer;
+        }
+
         if (SECURITY_ENABLED) {
             try {
-                securityMessageLayer = new SecurityMessageLayer(this, gameScreen);
-                gameScreen.registerMessageSender(securityMessageLayer);
-                messageReceiver = securityMessageLayer;
+                securityMessageLayer = new SecurityMessageLayer(lowestMessageSender, gameScreen);
+                securityMessageLayer.registerMessagePriorityClassifier(new GameMessagePriorityClassifier());
+
+                // Hold back the start of a game until every participant who has joined
+                // has completed the mutual authentication with the user
+                gameScreen.registerReadinessBarrier(new ReadinessBarrier() {
+                    @Override
+                    public boolean isReady() {
+                        long slots = joinedSlots;
+                        return (securityMessageLayer.getReadySlots() & slots) == slots;
+                    }
+                });
+                highestMessageSender = securityMessageLayer;
+                messageReceiver      = securityMessageLayer;
 
                 if (ABLE_TO_SET_SECURITY_PROTOCOL)
                     new SecurityProtocolChooser(
@@ -181,10 +223,33 @@ public class MainActivity extends BaseGameActivity
 
             } catch (Exception e) {
                 e.printStackTrace();
+                highestMessageSender = lowestMessageSender;
             }
         } else {
-            messageReceiver = gameScreen;
-            gameScreen.registerMessageSender(this);
+            messageReceiver      = gameScreen;
+            highestMessageSender = lowestMessageSender;
+        }
+
+        if (OUTBOUND_PIPELINE_ENABLED) {
+            outboundMessagePipeline = new OutboundMessagePipeline(highestMessageSender,
+                    new HandlerMessageLoop("OutboundMessagePipeline"));
+            highestMessageSender    = outboundMessagePipeline;
+
+            // Flush the batches on the network thread too
+            if (BATCHING_ENABLED)
+                batchingMessageLayer.registerFlushLoop(outboundMessagePipeline.getMessageLoop());
+        }
+        gameScreen.registerMessageSender(highestMessageSender);
+
+        if (BATCHING_ENABLED) {
+            batchingMessageLayer.registerMessageReceiver(messageReceiver);
+            messageReceiver = batchingMessageLayer;
+        }
+
+        if (INBOUND_PIPELINE_ENABLED) {
+            inboundMessagePipeline = new InboundMessagePipeline(messageReceiver,
+                    new HandlerMessageLoop("InboundMessagePipeline"));
+            messageReceiver        = inboundMessagePipeline;
         }
     }
 
@@ -459,10 +524,30 @@ public class MainActivity extends BaseGameActivity
 
         switchToScreen(ScreenType.WAIT_SCREEN);
 
-        postGarbageCollect(0);
         super.onStop();
     }
 
+    /**
+     * Activity is being destroyed. Stops the threads processing incoming
+     * and outgoing messages, and pregenerating key material and puzzles.
+     */
+    @Override
+    public void onDestroy() {
+        // Leave a room still being left without waiting for the network thread
+        finishLeavingRoom();
+        if (SECURITY_ENABLED) {
+            securityMessageLayer.quit();
+        }
+        if (INBOUND_PIPELINE_ENABLED) {
+            inboundMessagePipeline.quit();
+        }
+        if (OUTBOUND_PIPELINE_ENABLED) {
+            outboundMessagePipeline.quit();
+        }
+        gameScreen.quit();
+        super.onDestroy();
+    }
+
     /**
      * Activity just got to the foreground. We switch to the wait screen because we will now
      * go through the sign-in flow (remember that, yes, every time the Activity comes back to the
@@ -489,21 +574,80 @@ public class MainActivity extends BaseGameActivity
 
     /**
      * Leaves the current game room the user is in.
+     *
+     * The latest score, and the messages still on their way out, are first
+     * sent out on the network thread while the room can still be sent to.
+     * The room is then left back on the UI thread by finishLeavingRoom().
      */
     public void leaveRoom() {
         stopKeepingScreenOn();
-        if (roomId != null) {
-            Games.RealTimeMultiplayer.leave(getApiClient(), this, roomId);
-            roomId = null;
-            switchToScreen(ScreenType.TRANSIT_SCREEN);
-            postGarbageCollect(2000);
-        } else {
+        if (leavingRoomId != null)
+            return;
+
+        if (roomId == null) {
             switchToMainScreen();
-            postGarbageCollect(2000);
+            releaseRoom();
+            return;
+        }
+
+        leavingRoomId = roomId;
+        switchToScreen(ScreenType.TRANSIT_SCREEN);
+        gameScreen.flushScoreStream();
+        if (OUTBOUND_PIPELINE_ENABLED) {
+            outboundMessagePipeline.runAfterSent(new Runnable() {
+                @Override
+                public void run() {
+                    if (BATCHING_ENABLED)
+                        batchingMessageLayer.flush();
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            finishLeavingRoom();
+                        }
+                    });
+                }
+            });
+        } else {
+            if (BATCHING_ENABLED)
+                batchingMessageLayer.flush();
+            finishLeavingRoom();
+        }
+    }
+
+    /**
+     * Leaves the room that leaveRoom() has sent out the messages to,
+     * if it has not been left yet
+     */
+    private void finishLeavingRoom() {
+        if (leavingRoomId == null)
+            return;
+        Games.RealTimeMultiplayer.leave(getApiClient(), this, leavingRoomId);
+        leavingRoomId = null;
+        roomId        = null;
+        releaseRoom();
+    }
+
+    /**
+     * Forgets the participants of the room the user was in and drops the sessions
+     * of the message "layers" with them, so the next room starts with a new
+     * ParticipantRegistry and new sessions
+     */
+    private void releaseRoom() {
+        participantRegistry = null;
+        joinedSlots         = 0;
+        ownId               = null;
+        if (INBOUND_PIPELINE_ENABLED) {
+            inboundMessagePipeline.prepareForNextSession();
+        }
+        if (OUTBOUND_PIPELINE_ENABLED) {
+            outboundMessagePipeline.prepareForNextSession();
         }
         if (SECURITY_ENABLED) {
             securityMessageLayer.prepareForNextSession();
         }
+        if (BATCHING_ENABLED) {
+            batchingMessageLayer.prepareForNextSession();
+        }
     }
 
     /**
@@ -546,10 +690,10 @@ public class MainActivity extends BaseGameActivity
      */
     @Override
     public void onConnectedToRoom(Room room) {
-        // get room ID, participants and my ID:
+        // get room ID. The participants and my ID are taken by updateParticipants,
+        // which keeps the registry of participant slots if an earlier update started it
         roomId       = room.getRoomId();
-        participants = room.getParticipants();
-        ownId        = room.getParticipantId(Games.Players.getCurrentPlayerId(getApiClient()));
+        updateParticipants(room);
     }
 
     /**
@@ -568,6 +712,7 @@ public class MainActivity extends BaseGameActivity
     @Override
     public void onDisconnectedFromRoom(Room room) {
         roomId = null;
+        releaseRoom();
         showGameError(RoomErrorType.ROOM_DISCONNECTED_ERROR);
     }
 
@@ -675,7 +820,9 @@ public class MainActivity extends BaseGameActivity
     @Override
     public void onPeerLeft(Room room, List<String> peersWhoLeft) {
         updateParticipants(room);
-        gameScreen.registerDisconnectedParticipants(peersWhoLeft);
+        ParticipantRegistry registry = participantRegistry;
+        if (registry != null)
+            gameScreen.registerDisconnectedParticipants(registry.getSlots(peersWhoLeft));
     }
 
     /**
@@ -710,47 +857,84 @@ public class MainActivity extends BaseGameActivity
     @Override
     public void onPeersDisconnected(Room room, List<String> peers) {
         updateParticipants(room);
-        gameScreen.registerDisconnectedParticipants(peers);
+        ParticipantRegistry registry = participantRegistry;
+        if (registry != null)
+            gameScreen.registerDisconnectedParticipants(registry.getSlots(peers));
     }
 
     /**
-     * Update the list of participants in the current room
+     * Update the list of participants in the current room,
+     * registering new participants in the ParticipantRegistry
+     * and recomputing the slots of those who have joined.
+     *
+     * Sessions with the participants who have newly joined are started right away,
+     * so that the mutual authentication runs while the waiting room is still showing.
+     *
+     * The ParticipantRegistry is started once per room, as soon as the user's own ID
+     * is known, so that the slots never change while the sessions are running.
+     * Updates that come before the own ID is known are left to the next one.
      * @param room The current room
      */
     void updateParticipants(Room room) {
         if (room != null) {
             participants = room.getParticipants();
+
+            if (participantRegistry == null) {
+                if (ownId == null)
+                    ownId = room.getParticipantId(Games.Players.getCurrentPlayerId(getApiClient()));
+                if (ownId == null)
+                    return;
+
+                // start a new registry of participant slots for the room
+                ParticipantRegistry registry = new ParticipantRegistry();
+                registry.registerOwnId(ownId);
+                participantRegistry = registry;
+            }
+
+            long newJoinedSlots = 0;
+            for (Participant p : participants) {
+                int slot = participantRegistry.register(p.getParticipantId());
+                if (slot == ParticipantRegistry.NO_SLOT)
+                    continue;
+                if (p.getParticipantId().equals(ownId))
+                    continue;
+                if (p.getStatus() == Participant.STATUS_JOINED)
+                    newJoinedSlots |= ParticipantRegistry.getMask(slot);
+            }
+            long newlyJoinedSlots = newJoinedSlots & ~joinedSlots;
+            joinedSlots = newJoinedSlots;
+            registerSlotsForNewSession(newlyJoinedSlots);
         }
     }
 
     /**
-     * Schedule a garbage collection
-     * @param delay The number of milliseconds to the garbage collection
+     * Sets up the sessions of the message "layers" with the participants of the given slots.
+     * Sessions that have already been set up are carried over as they are.
+     * @param slots The bitmask of the slots of the participants, excluding the user's own
      */
-    public void postGarbageCollect(long delay) {
-        GARBAGE_COLLECT_HANDLER.removeCallbacks(GARBAGE_COLLECT_RUNNABLE);
-        if (delay==0)
-            System.gc();
-        else
-            GARBAGE_COLLECT_HANDLER.postDelayed(GARBAGE_COLLECT_RUNNABLE, delay);
+    private void registerSlotsForNewSession(long slots) {
+        if (slots == 0)
+            return;
+
+        if (SECURITY_ENABLED) {
+            securityMessageLayer.registerSlotsForNewSession(slots);
+        }
+
+        if (BATCHING_ENABLED) {
+            batchingMessageLayer.registerSlotsForNewSession(slots);
+        }
     }
 
     /**
      * Start the game-play phase of the game.
      */
     public void startGame() {
-        postGarbageCollect(0);
-
-        gameScreen.registerGameInfo(participants, ownId,
+        gameScreen.registerGameInfo(roomId, participants, participantRegistry,
                 SHOULD_HIDE_PARTICIPANTS_IDENTITIES);
 
-        ArrayList<String> participantIds = new ArrayList<String>();
-        for (Participant p:participants)
-            participantIds.add(p.getParticipantId());
-
-        if (SECURITY_ENABLED) {
-            securityMessageLayer.registerIdsForNewSession(participantIds);
-        }
+        // Most sessions have already been started in the waiting room,
+        // this only sets up those of the participants yet to be seen joining
+        registerSlotsForNewSession(participantRegistry.getOtherSlots());
 
         switchToScreen(ScreenType.GAME_SCREEN);
     }
@@ -758,12 +942,27 @@ public class MainActivity extends BaseGameActivity
     /**
      * Invoked upon receiving a real time message from a participant in the current room
      * from the Google Game Services API.
+     * The participant ID is converted to its slot in the ParticipantRegistry here,
+     * and messages received outside of a room, or from participants who have
+     * not been registered from the updates of the room, are dropped.
+     * The rest of the processing happens on the worker thread of the InboundMessagePipeline.
      */
     @Override
     public void onRealTimeMessageReceived(RealTimeMessage rtm) {
+        ParticipantRegistry registry = participantRegistry;
+        if (registry == null)
+            return;
+        int fromParticipantSlot = registry.getSlot(rtm.getSenderParticipantId());
+        if (fromParticipantSlot == ParticipantRegistry.NO_SLOT ||
+                fromParticipantSlot == registry.getOwnSlot())
+            return;
         byte[] message = rtm.getMessageData();
-        String fromParticipantId = rtm.getSenderParticipantId();
-        messageReceiver.registerMessage(fromParticipantId, message);
+
+        // A participant who sends a message has joined, even if the room update
+        // saying so has yet to arrive. Replies to the participant, such as those
+        // of the mutual authentication, would otherwise be dropped
+        joinedSlots |= ParticipantRegistry.getMask(fromParticipantSlot);
+        messageReceiver.registerMessage(fromParticipantSlot, message);
     }
 
     /**
@@ -773,8 +972,8 @@ public class MainActivity extends BaseGameActivity
      * successful delivery
      */
     @Override
-    public void broadcastReliableMessageToId(byte[] message, String participantId) {
-        broadcastMessageToId(message, participantId, true);
+    public void broadcastReliableMessageToSlot(byte[] message, int participantSlot) {
+        broadcastMessageToSlot(message, participantSlot, true);
     }
 
     /**
@@ -784,30 +983,19 @@ public class MainActivity extends BaseGameActivity
      * mechanisms implemented to guarantee the success of their delivery.
      */
     @Override
-    public void broadcastUnreliableMessageToId(byte[] message, String participantId) {
-        broadcastMessageToId(message, participantId, false);
+    public void broadcastUnreliableMessageToSlot(byte[] message, int participantSlot) {
+        broadcastMessageToSlot(message, participantSlot, false);
     }
 
     /**
      * Broadcasts a message to a certain participant in the current room
      * via the Google Game Services API.
+     * Messages to the user or to participants who have not joined are dropped.
      */
     @Override
-    public void broadcastMessageToId(byte[] message, String participantId, boolean reliable) {
-        for (Participant p : participants) {
-            if (p.getParticipantId().equals(ownId))
-                continue;
-            if (p.getStatus() != Participant.STATUS_JOINED)
-                continue;
-            if (p.getParticipantId().equals(participantId)) {
-                if (reliable)
-                    Games.RealTimeMultiplayer.sendReliableMessage(getApiClient(), null, message,
-                            roomId, p.getParticipantId());
-                else
-                    Games.RealTimeMultiplayer.sendUnreliableMessage(getApiClient(), message, roomId,
-                            p.getParticipantId());
-            }
-        }
+    public void broadcastMessageToSlot(byte[] message, int participantSlot, boolean reliable) {
+        if (ParticipantRegistry.contains(joinedSlots, participantSlot))
+            sendMessageToSlot(message, participantSlot, reliable);
     }
 
     /**
@@ -818,8 +1006,8 @@ public class MainActivity extends BaseGameActivity
      */
     @Override
     public void broadcastReliableMessageToAll(byte[] message,
-            HashSet<String> excludedParticipantsIds) {
-        broadcastMessageToAll(message, excludedParticipantsIds, true);
+            long excludedParticipantSlots) {
+        broadcastMessageToAll(message, excludedParticipantSlots, true);
     }
 
     /**
@@ -830,8 +1018,8 @@ public class MainActivity extends BaseGameActivity
      */
     @Override
     public void broadcastUnreliableMessageToAll(byte[] message,
-            HashSet<String> excludedParticipantsIds) {
-        broadcastMessageToAll(message, excludedParticipantsIds, false);
+            long excludedParticipantSlots) {
+        broadcastMessageToAll(message, excludedParticipantSlots, false);
     }
 
     /**
@@ -840,24 +1028,30 @@ public class MainActivity extends BaseGameActivity
      */
     @Override
     public void broadcastMessageToAll(byte[] message,
-            HashSet<String> excludedParticipantsIds, boolean reliable) {
-        for (Participant p : participants) {
-            String participantId = p.getParticipantId();
-            if (excludedParticipantsIds!=null)
-                if (excludedParticipantsIds.contains(participantId))
-                    continue;
-            if (participantId.equals(ownId))
-                continue;
-            if (p.getStatus() != Participant.STATUS_JOINED)
-                continue;
-            if (reliable)
-                Games.RealTimeMultiplayer.sendReliableMessage(getApiClient(), null, message,
-                        roomId, participantId);
-            else
-                // it's an interim score notification, so we can use unreliable
-                Games.RealTimeMultiplayer.sendUnreliableMessage(getApiClient(), message, roomId,
-                        participantId);
-        }
+            long excludedParticipantSlots, boolean reliable) {
+        for (long remaining=joinedSlots&~excludedParticipantSlots; remaining!=0; remaining&=remaining-1)
+            sendMessageToSlot(message, Long.numberOfTrailingZeros(remaining), reliable);
+    }
+
+    /**
+     * Sends a message to a participant via the Google Game Services API
+     * @param message         The message
+     * @param participantSlot The slot of the participant
+     * @param reliable        Whether the message needs to be reliably sent
+     */
+    private void sendMessageToSlot(byte[] message, int participantSlot, boolean reliable) {
+
+        // Messages sent from the network thread can outlive the room
+        ParticipantRegistry registry = participantRegistry;
+        if (registry == null)
+            return;
+        String participantId = registry.getId(participantSlot);
+        if (reliable)
+            Games.RealTimeMultiplayer.sendReliableMessage(getApiClient(), null, message,
+                    roomId, participantId);
+        else
+            Games.RealTimeMultiplayer.sendUnreliableMessage(getApiClient(), message, roomId,
+                    participantId);
     }
 
     /**
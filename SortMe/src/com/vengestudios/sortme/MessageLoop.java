@@ -0,0 +1,42 @@
+package com.vengestudios.sortme;
+
+/**
+ * An interface that defines the methods used to run work on a single thread,
+ * one Runnable at a time, in the order it is due.
+ *
+ * Used by the message "layers" to schedule work on the threads they run on,
+ * without depending on the Android Handler, so the layers can also be run
+ * on a plain JVM. On a device each MessageLoop is a HandlerMessageLoop.
+ */
+public interface MessageLoop {
+
+    /**
+     * Runs the Runnable on the thread of the loop
+     * @param runnable The Runnable
+     */
+    public void post(Runnable runnable);
+
+    /**
+     * Runs the Runnable on the thread of the loop after a delay
+     * @param runnable The Runnable
+     * @param delay    The milliseconds to wait before running it
+     */
+    public void postDelayed(Runnable runnable, long delay);
+
+    /**
+     * Removes the pending posts of the Runnable
+     * @param runnable The Runnable
+     */
+    public void removeCallbacks(Runnable runnable);
+
+    /**
+     * Removes every pending post
+     */
+    public void removeAllCallbacks();
+
+    /**
+     * Stops the thread of the loop once it has finished the Runnable it is running,
+     * if the thread was started for the loop. Nothing is run after this.
+     */
+    public void quit();
+}
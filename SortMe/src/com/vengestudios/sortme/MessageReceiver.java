@@ -12,8 +12,8 @@ public interface MessageReceiver {
     /**
      * Takes in a message received from another participant in the current room
      *
-     * @param fromId  The ID of the participant
-     * @param message The received message
+     * @param fromSlot The slot of the participant in the ParticipantRegistry
+     * @param message  The received message
      */
-    public void registerMessage(String fromId, byte[] message);
+    public void registerMessage(int fromSlot, byte[] message);
 }
@@ -1,13 +1,14 @@
 package com.vengestudios.sortme;
 
-import java.util.HashSet;
-
 /**
  * An interface that defines the common methods used to broadcast outgoing
  * messages.
  *
  * Used to standardize the creation of message sending "layers" for the
  * application, where each layer implements the MessageSender interface.
+ *
+ * Participants are addressed by their slot in the ParticipantRegistry of
+ * the current room, and sets of participants by bitmasks of slots.
  */
 public interface MessageSender {
 
@@ -18,9 +19,9 @@ public interface MessageSender {
      * However, it has higher data overheads than an unreliable message.
      *
      * @param message     The message needed to be broadcasted
-     * @param excludedIds The participant IDs to exclude from this broadcast
+     * @param toSlot      The slot of the participant
      */
-    public void broadcastReliableMessageToId(byte[] message, String toId);
+    public void broadcastReliableMessageToSlot(byte[] message, int toSlot);
 
     /**
      * Broadcasts an unreliable message to a participant in the current room.
@@ -28,18 +29,18 @@ public interface MessageSender {
      * mechanism to ensure that it will be delivered successfully
      *
      * @param message     The message needed to be broadcasted
-     * @param excludedIds The participant IDs to exclude from this broadcast
+     * @param toSlot      The slot of the participant
      */
-    public void broadcastUnreliableMessageToId(byte[] message, String toId);
+    public void broadcastUnreliableMessageToSlot(byte[] message, int toSlot);
 
     /**
      * Broadcast a message to a participant in the current room
      *
      * @param message     The message needed to be broadcasted
-     * @param excludedIds The participant IDs to exclude from this broadcast
+     * @param toSlot      The slot of the participant
      * @param reliable    Whether the message needs to be reliably broadcasted
      */
-    public void broadcastMessageToId(byte[] message, String toId, boolean reliable);
+    public void broadcastMessageToSlot(byte[] message, int toSlot, boolean reliable);
 
     /**
      * Broadcasts a reliable message to all the participants in the current room.
@@ -47,30 +48,30 @@ public interface MessageSender {
      * to ensure that the reliable message will be delivered to all participants.
      * However, it has higher data overheads than an unreliable message.
      *
-     * @param message     The message needed to be broadcasted
-     * @param excludedIds The participant IDs to exclude from this broadcast
+     * @param message       The message needed to be broadcasted
+     * @param excludedSlots The bitmask of the slots to exclude from this broadcast
      */
     public void broadcastReliableMessageToAll(byte[] message,
-            HashSet<String> excludedIds);
+            long excludedSlots);
 
     /**
      * Broadcasts an unreliable message to all the participants in the current room.
      * An unreliable message has lower data overheads, but there is no checking
      * mechanism to ensure that it will be delivered successfully
      *
-     * @param message     The message needed to be broadcasted
-     * @param excludedIds The participant IDs to exclude from this broadcast
+     * @param message       The message needed to be broadcasted
+     * @param excludedSlots The bitmask of the slots to exclude from this broadcast
      */
     public void broadcastUnreliableMessageToAll(byte[] message,
-            HashSet<String> excludedIds);
+            long excludedSlots);
 
     /**
      * Broadcast a message to all participants in the current room
      *
-     * @param message     The message needed to be broadcasted
-     * @param excludedIds The participant IDs to exclude from this broadcast
-     * @param reliable    Whether the message needs to be reliably broadcasted
+     * @param message       The message needed to be broadcasted
+     * @param excludedSlots The bitmask of the slots to exclude from this broadcast
+     * @param reliable      Whether the message needs to be reliably broadcasted
      */
     public void broadcastMessageToAll(byte[] message,
-            HashSet<String> excludedIds, boolean reliable);
+            long excludedSlots, boolean reliable);
 }
@@ -0,0 +1,154 @@
+package com.vengestudios.sortme;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A registry of the participants in the current room, giving each
+ * participant a small int slot.
+ *
+ * Slots are given out in the order the participants are registered,
+ * starting from 0, and never change or get reused for the lifetime of
+ * the registry. A new registry is created for every room.
+ *
+ * The message paths route by slot, and sets of participants are held as
+ * long bitmasks with bit (1L << slot) set for each participant in the set.
+ * String participant IDs are only converted to slots at the edge where
+ * messages enter and leave the Google Game Services API.
+ *
+ * The methods are synchronized, as participants are registered on the
+ * UI thread while messages are sent from the network thread.
+ */
+public class ParticipantRegistry {
+
+    // The maximum number of participants a registry can hold,
+    // limited by the number of bits in a long
+    public static final int MAX_PARTICIPANTS = 64;
+
+    // Used to denote the absence of a slot
+    public static final int NO_SLOT = -1;
+
+    // The participant IDs indexed by slot, and the reverse lookup
+    private ArrayList<String>        ids;
+    private HashMap<String, Integer> slots;
+
+    // The slot of the user
+    private int ownSlot;
+
+    /**
+     * Constructor
+     * Creates an empty ParticipantRegistry
+     */
+    public ParticipantRegistry() {
+        ids     = new ArrayList<String>();
+        slots   = new HashMap<String, Integer>();
+        ownSlot = NO_SLOT;
+    }
+
+    /**
+     * Returns the slot of a participant, registering the participant
+     * in the next free slot if it has not been registered
+     * @param id The participant ID
+     * @return   The slot of the participant, NO_SLOT if the registry is full
+     */
+    public synchronized int register(String id) {
+        Integer slot = slots.get(id);
+        if (slot!=null)
+            return slot;
+        if (ids.size()>=MAX_PARTICIPANTS)
+            return NO_SLOT;
+        ids.add(id);
+        slots.put(id, ids.size()-1);
+        return ids.size()-1;
+    }
+
+    /**
+     * Registers the user's own participant ID
+     * @param ownId The participant ID of the user
+     */
+    public synchronized void registerOwnId(String ownId) {
+        ownSlot = register(ownId);
+    }
+
+    /**
+     * @param id The participant ID
+     * @return   The slot of the participant, NO_SLOT if the participant is not registered
+     */
+    public synchronized int getSlot(String id) {
+        Integer slot = slots.get(id);
+        return slot==null ? NO_SLOT : slot;
+    }
+
+    /**
+     * @param ids A List of participant IDs
+     * @return    The bitmask of the slots of the registered participants in the List
+     */
+    public synchronized long getSlots(List<String> ids) {
+        long slotMask = 0;
+        if (ids!=null)
+            for (String id:ids) {
+                int slot = getSlot(id);
+                if (slot!=NO_SLOT)
+                    slotMask |= getMask(slot);
+            }
+        return slotMask;
+    }
+
+    /**
+     * @param slot The slot of a participant
+     * @return     The participant ID
+     */
+    public synchronized String getId(int slot) {
+        return ids.get(slot);
+    }
+
+    /**
+     * @return The slot of the user, NO_SLOT if it has not been registered
+     */
+    public synchronized int getOwnSlot() {
+        return ownSlot;
+    }
+
+    /**
+     * @return The number of registered participants, which is also
+     *         one more than the highest slot given out
+     */
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return The bitmask of the slots of all the registered participants
+     */
+    public synchronized long getAllSlots() {
+        return ids.size()==MAX_PARTICIPANTS ? -1L : getMask(ids.size())-1;
+    }
+
+    /**
+     * @return The bitmask of the slots of all the registered participants except the user
+     */
+    public synchronized long getOtherSlots() {
+        long slotMask = getAllSlots();
+        if (ownSlot!=NO_SLOT)
+            slotMask &= ~getMask(ownSlot);
+        return slotMask;
+    }
+
+    /**
+     * @param slot A slot
+     * @return     The bitmask with only the bit of the slot set
+     */
+    public static long getMask(int slot) {
+        return 1L << slot;
+    }
+
+    /**
+     * @param slotMask A bitmask of slots
+     * @param slot     A slot
+     * @return         Whether the slot is in the bitmask
+     */
+    public static boolean contains(long slotMask, int slot) {
+        return (slotMask & (1L << slot)) != 0;
+    }
+}
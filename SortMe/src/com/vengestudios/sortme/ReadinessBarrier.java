@@ -0,0 +1,18 @@
+package com.vengestudios.sortme;
+
+/**
+ * An interface that defines the method used to check whether the
+ * user is ready to start exchanging game messages with the other
+ * participants in the current room.
+ *
+ * Used by the GameTimer to hold back the start of a game until the
+ * message paths to the other participants have been set up.
+ */
+public interface ReadinessBarrier {
+
+    /**
+     * @return Whether the user is ready to exchange game messages
+     *         with every other participant who has joined the room
+     */
+    public boolean isReady();
+}
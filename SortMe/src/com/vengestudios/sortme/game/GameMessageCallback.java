@@ -0,0 +1,16 @@
+package com.vengestudios.sortme.game;
+
+/**
+ * An interface used to receive the decoded value of one type of game message.
+ *
+ * @param <E> The type of the decoded value
+ */
+public interface GameMessageCallback<E> {
+
+    /**
+     * Called when a game message has been decoded
+     * @param fromParticipantSlot The slot of the participant the message is from
+     * @param message             The decoded value of the message
+     */
+    public void onGameMessage(int fromParticipantSlot, E message);
+}
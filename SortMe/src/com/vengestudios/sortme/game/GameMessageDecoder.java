@@ -0,0 +1,17 @@
+package com.vengestudios.sortme.game;
+
+/**
+ * An interface used to decode the fields of one type of game message
+ * into a typed value.
+ *
+ * @param <E> The type of the decoded value
+ */
+public interface GameMessageDecoder<E> {
+
+    /**
+     * Reads the fields of a game message. The type byte has already been read.
+     * @param reader The GameMessageReader pointing at the first field of the message
+     * @return       The decoded value, or null if the message should be dropped
+     */
+    public E decode(GameMessageReader reader);
+}
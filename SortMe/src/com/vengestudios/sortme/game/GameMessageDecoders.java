@@ -0,0 +1,160 @@
+package com.vengestudios.sortme.game;
+
+/**
+ * The GameMessageDecoders for the types of game messages defined in
+ * GameMessageType, and the immutable values they decode into.
+ *
+ * The grammar read by each decoder matches the one written by
+ * the corresponding method in GameMessageType.
+ */
+public class GameMessageDecoders {
+
+    /**
+     * Decodes [powerup ordinal] into its PowerupType.
+     * Used by PERSONAL_ATTACK, PERSONAL_ATTACK_SUCCEEDED and PERSONAL_ATTACK_BLOCKED.
+     */
+    public static final GameMessageDecoder<PowerupType> POWERUP_TYPE =
+            new GameMessageDecoder<PowerupType>() {
+        @Override
+        public PowerupType decode(GameMessageReader reader) {
+            return PowerupType.ordinalToPowerupType(reader.readByte());
+        }
+    };
+
+    /**
+     * Decodes [powerup ordinal] [initiator name] into an AttackAnnouncement.
+     * Used by OTHERS_TO_OTHERS_ATTACK and OTHERS_TO_OTHERS_BLOCK.
+     */
+    public static final GameMessageDecoder<AttackAnnouncement> ATTACK_ANNOUNCEMENT =
+            new GameMessageDecoder<AttackAnnouncement>() {
+        @Override
+        public AttackAnnouncement decode(GameMessageReader reader) {
+            PowerupType powerupType = PowerupType.ordinalToPowerupType(reader.readByte());
+            String initiatorName    = reader.readString();
+            if (powerupType==null)
+                return null;
+            return new AttackAnnouncement(powerupType, initiatorName);
+        }
+    };
+
+    /**
+     * Decodes [name] [image URL] into a ParticipantInfo.
+     * Used by UPDATE_PARTICIPANT_INFO.
+     */
+    public static final GameMessageDecoder<ParticipantInfo> PARTICIPANT_INFO =
+            new GameMessageDecoder<ParticipantInfo>() {
+        @Override
+        public ParticipantInfo decode(GameMessageReader reader) {
+            String participantName     = reader.readString();
+            String participantImageURL = reader.readString();
+            return new ParticipantInfo(participantName, participantImageURL);
+        }
+    };
+
+    /**
+     * Decodes [varint sequence] [varint score] [varint lines sorted] into a ScoreUpdate.
+     * Used by UPDATE_SCORE_AND_LINES_SORTED.
+     */
+    public static final GameMessageDecoder<ScoreUpdate> SCORE_UPDATE =
+            new GameMessageDecoder<ScoreUpdate>() {
+        @Override
+        public ScoreUpdate decode(GameMessageReader reader) {
+            int sequence    = reader.readVarInt();
+            int score       = reader.readVarInt();
+            int linesSorted = reader.readVarInt();
+            return new ScoreUpdate(sequence, score, linesSorted);
+        }
+    };
+
+    /**
+     * Decodes [varlong sent time] into a Ping.
+     * Used by PING.
+     */
+    public static final GameMessageDecoder<Ping> PING =
+            new GameMessageDecoder<Ping>() {
+        @Override
+        public Ping decode(GameMessageReader reader) {
+            return new Ping(reader.readVarLong());
+        }
+    };
+
+    /**
+     * Decodes [varlong echoed sent time] [varlong reply time] into a Pong.
+     * Used by PONG.
+     */
+    public static final GameMessageDecoder<Pong> PONG =
+            new GameMessageDecoder<Pong>() {
+        @Override
+        public Pong decode(GameMessageReader reader) {
+            long echoedSentTime = reader.readVarLong();
+            long replyTime      = reader.readVarLong();
+            return new Pong(echoedSentTime, replyTime);
+        }
+    };
+
+    /**
+     * An announcement of an attack between two other participants
+     */
+    public static class AttackAnnouncement {
+        public final PowerupType powerupType;
+        public final String      initiatorName;
+
+        public AttackAnnouncement(PowerupType powerupType, String initiatorName) {
+            this.powerupType   = powerupType;
+            this.initiatorName = initiatorName;
+        }
+    }
+
+    /**
+     * The name and image URL announced by a participant
+     */
+    public static class ParticipantInfo {
+        public final String participantName;
+        public final String participantImageURL;
+
+        public ParticipantInfo(String participantName, String participantImageURL) {
+            this.participantName     = participantName;
+            this.participantImageURL = participantImageURL;
+        }
+    }
+
+    /**
+     * The latest score and number of lines sorted announced by a participant
+     */
+    public static class ScoreUpdate {
+        public final int sequence;
+        public final int score;
+        public final int linesSorted;
+
+        public ScoreUpdate(int sequence, int score, int linesSorted) {
+            this.sequence    = sequence;
+            this.score       = score;
+            this.linesSorted = linesSorted;
+        }
+    }
+
+    /**
+     * A request for a PONG, carrying the time it was sent in the clock of its sender
+     */
+    public static class Ping {
+        public final long sentTime;
+
+        public Ping(long sentTime) {
+            this.sentTime = sentTime;
+        }
+    }
+
+    /**
+     * A reply to a PING, carrying the sent time of the PING and
+     * the time the reply was sent in the clock of the replier
+     */
+    public static class Pong {
+        public final long echoedSentTime;
+        public final long replyTime;
+
+        public Pong(long echoedSentTime, long replyTime) {
+            this.echoedSentTime = echoedSentTime;
+            this.replyTime      = replyTime;
+        }
+    }
+}
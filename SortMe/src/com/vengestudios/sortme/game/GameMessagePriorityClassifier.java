@@ -0,0 +1,42 @@
+package com.vengestudios.sortme.game;
+
+import com.vengestudios.sortme.security.MessagePriorityClassifier;
+
+/**
+ * The MessagePriorityClassifier for game messages, registered with the
+ * SecurityMessageLayer to order the messages queued during the mutual
+ * authentication
+ *
+ *  - Attacks and their replies are high priority and are never superseded
+ *
+ *  - Participant info is high priority, and only the latest is kept
+ *
+ *  - Score updates are low priority, and only the latest is kept,
+ *    as each one carries the full score rather than a change to it
+ *
+ *  - PINGs and PONGs are low priority, and only the latest is kept,
+ *    as a queued PING only measures the time spent in the queue
+ */
+public class GameMessagePriorityClassifier implements MessagePriorityClassifier {
+
+    @Override
+    public int getPriority(byte[] message) {
+        if (message.length>0 &&
+                (message[0]==GameMessageType.UPDATE_SCORE_AND_LINES_SORTED.id ||
+                 message[0]==GameMessageType.PING.id ||
+                 message[0]==GameMessageType.PONG.id))
+            return PRIORITY_LOW;
+        return PRIORITY_HIGH;
+    }
+
+    @Override
+    public int getSupersedeKey(byte[] message) {
+        if (message.length>0 &&
+                (message[0]==GameMessageType.UPDATE_SCORE_AND_LINES_SORTED.id ||
+                 message[0]==GameMessageType.UPDATE_PARTICIPANT_INFO.id ||
+                 message[0]==GameMessageType.PING.id ||
+                 message[0]==GameMessageType.PONG.id))
+            return message[0];
+        return NOT_SUPERSEDED;
+    }
+}
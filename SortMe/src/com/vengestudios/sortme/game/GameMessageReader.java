@@ -0,0 +1,100 @@
+package com.vengestudios.sortme.game;
+
+import java.nio.charset.Charset;
+
+/**
+ * A reusable cursor used to read the fields of a binary game message
+ * composed by a GameMessageWriter.
+ *
+ * The reader does not copy the message. Only Strings are allocated
+ * when they are read.
+ *
+ * All the read methods throw an IndexOutOfBoundsException if the message
+ * is shorter than its grammar requires.
+ */
+public class GameMessageReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+    private int    position;
+    private int    limit;
+
+    /**
+     * Points the reader at the start of a message
+     * @param message The game message
+     */
+    public void wrap(byte[] message) {
+        wrap(message, 0, message.length);
+    }
+
+    /**
+     * Points the reader at a message held within a larger byte array
+     * @param message The byte array holding the game message
+     * @param offset  The index of the first byte of the message
+     * @param length  The length of the message
+     */
+    public void wrap(byte[] message, int offset, int length) {
+        this.buffer   = message;
+        this.position = offset;
+        this.limit    = offset+length;
+    }
+
+    /**
+     * @return Whether there are unread bytes left in the message
+     */
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * @return The next byte as an unsigned int
+     */
+    public int readByte() {
+        if (position >= limit)
+            throw new IndexOutOfBoundsException("Game message is too short");
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * @return The next unsigned variable length int
+     */
+    public int readVarInt() {
+        int value = 0;
+        for (int shift=0; shift<32; shift+=7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IndexOutOfBoundsException("Variable length int is too long");
+    }
+
+    /**
+     * @return The next unsigned variable length long
+     */
+    public long readVarLong() {
+        long value = 0;
+        for (int shift=0; shift<64; shift+=7) {
+            int b = readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IndexOutOfBoundsException("Variable length long is too long");
+    }
+
+    /**
+     * @return The next length prefixed UTF-8 String, null if a null String was written
+     */
+    public String readString() {
+        int utf8Length = readVarInt()-1;
+        if (utf8Length < 0)
+            return null;
+        if (utf8Length > limit-position)
+            throw new IndexOutOfBoundsException("Game message is too short");
+        String string = new String(buffer, position, utf8Length, UTF_8);
+        position += utf8Length;
+        return string;
+    }
+}
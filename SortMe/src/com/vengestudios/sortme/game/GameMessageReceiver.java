@@ -1,83 +1,132 @@
 package com.vengestudios.sortme.game;
 
+import com.vengestudios.sortme.MessageLoop;
 import com.vengestudios.sortme.MessageReceiver;
 
 /**
- * A class to decompose received game message into its respective fields,
- * then pass the fields to the ParticipantCoordinator
+ * A class to decode received binary game messages into their respective fields,
+ * then pass the fields to the callbacks registered for them
+ *
+ * Each GameMessageType has a GameMessageDecoder and a GameMessageCallback
+ * registered in tables indexed by the id of the type, so dispatching
+ * a message takes the same time regardless of the number of types.
+ *
+ * If a callback MessageLoop is registered, messages may be decoded on any
+ * thread, and the callbacks are posted to the MessageLoop as GameEvents
+ * carrying the immutable decoded values.
+ *
+ * The ParticipantCoordinator registers itself as the callback of every
+ * type of game message in a game.
  */
 public class GameMessageReceiver implements MessageReceiver {
 
-    private ParticipantCoordinator participantCoordinator;
+    // The registered decoders and callbacks, indexed by GameMessageType.id
+    private GameMessageDecoder<?>[]  decoders;
+    private GameMessageCallback<?>[] callbacks;
+
+    // A reusable cursor to read the fields of incoming game messages
+    private GameMessageReader        gameMessageReader;
+
+    // The MessageLoop the callbacks are posted to, null to call them directly
+    private MessageLoop              callbackLoop;
+
+    // Incremented to discard the GameEvents that have yet to run
+    private volatile int             eventGeneration;
 
     /**
-     * Registers the ParticipantCoordinator
-     * @param participantCoordinator
+     * Constructor
+     * Creates a GameMessageReceiver with no handlers registered
      */
-    public void registerParticipantCoordinator(ParticipantCoordinator participantCoordinator) {
-        this.participantCoordinator = participantCoordinator;
+    public GameMessageReceiver() {
+        decoders          = new GameMessageDecoder<?> [GameMessageType.TOTAL_TYPES];
+        callbacks         = new GameMessageCallback<?>[GameMessageType.TOTAL_TYPES];
+        gameMessageReader = new GameMessageReader();
     }
 
-    @Override
-    public void registerMessage(String fromParticipantId, byte[] message) {
-        String [] delimitedStrings = GameMessageType.identifyLabelAndGetDelimitedStrings(message);
-        if (delimitedStrings!=null)
-            processGameMessageDelimitedStrings(fromParticipantId, delimitedStrings);
-    }
     /**
-     * Takes in a the fields of the game message and passes it on to the relevant
-     * method of ParticipantCoordinator
+     * Registers the decoder and the callback for a type of game message,
+     * replacing any that were previously registered for the type
      *
-     * @param fromParticipantId The id of the participant the message is from
-     * @param delimitedStrings  The fields of the game message
+     * @param gameMessageType The GameMessageType
+     * @param decoder         The GameMessageDecoder used to read the fields of the message
+     * @param callback        The GameMessageCallback the decoded value is passed to
      */
-    private void processGameMessageDelimitedStrings(String fromParticipantId, String[] delimitedStrings) {
-        assert participantCoordinator != null;
-        GameMessageType gameMessageType = GameMessageType.ordinalToMessageType(delimitedStrings[0]);
-
-        if (gameMessageType==GameMessageType.PERSONAL_ATTACK) {
-
-            PowerupType powerupType = PowerupType.ordinalToPowerupType(delimitedStrings[1]);
-            if (powerupType!=null)
-                participantCoordinator.receivePersonalAttack(fromParticipantId, powerupType);
-
-        } else if (gameMessageType==GameMessageType.PERSONAL_ATTACK_SUCCEEDED) {
-
-            PowerupType powerupType = PowerupType.ordinalToPowerupType(delimitedStrings[1]);
-            if (powerupType!=null)
-                participantCoordinator.receivePersonalAttackSucceededReply(fromParticipantId, powerupType);
-
-        } else if (gameMessageType==GameMessageType.PERSONAL_ATTACK_BLOCKED) {
-
-            PowerupType powerupType = PowerupType.ordinalToPowerupType(delimitedStrings[1]);
-            if (powerupType!=null)
-                participantCoordinator.receivePersonalAttackBlockedReply(fromParticipantId, powerupType);
-
-        } else if (gameMessageType==GameMessageType.OTHERS_TO_OTHERS_ATTACK) {
-
-            PowerupType powerupType = PowerupType.ordinalToPowerupType(delimitedStrings[1]);
-            if (powerupType!=null)
-                participantCoordinator.announceOtherToOtherAttack(delimitedStrings[2], fromParticipantId, powerupType);
-
-        } else if (gameMessageType==GameMessageType.OTHERS_TO_OTHERS_BLOCK) {
-
-            PowerupType powerupType = PowerupType.ordinalToPowerupType(delimitedStrings[1]);
-            if (powerupType!=null)
-                participantCoordinator.announceOtherToOtherBlock(delimitedStrings[2], fromParticipantId, powerupType);
+    public <E> void registerHandler(GameMessageType gameMessageType,
+            GameMessageDecoder<E> decoder, GameMessageCallback<E> callback) {
+        decoders [gameMessageType.id] = decoder;
+        callbacks[gameMessageType.id] = callback;
+    }
 
-        } else if (gameMessageType==GameMessageType.UPDATE_PARTICIPANT_INFO) {
+    /**
+     * Registers the MessageLoop that the callbacks are posted to,
+     * so that messages can be decoded on a worker thread
+     * while the callbacks run on the thread of the MessageLoop
+     * @param callbackLoop
+     */
+    public void registerCallbackLoop(MessageLoop callbackLoop) {
+        this.callbackLoop = callbackLoop;
+    }
 
-                if (delimitedStrings.length==3)
-                    participantCoordinator.setParticipantInfo(fromParticipantId, delimitedStrings[1], delimitedStrings[2]);
-                else if (delimitedStrings.length==2)
-                    participantCoordinator.setParticipantInfo(fromParticipantId, delimitedStrings[1], null);
+    /**
+     * Discards the GameEvents that have been posted to the callback MessageLoop
+     * but have yet to run, including those of messages being decoded
+     */
+    public void discardPendingEvents() {
+        ++eventGeneration;
+    }
 
-        } else if (gameMessageType==GameMessageType.UPDATE_SCORE_AND_LINES_SORTED) {
+    /**
+     * Reads the type of the game message and passes the message on to the
+     * GameMessageDecoder and GameMessageCallback registered for the type.
+     * Messages of an unknown type, and malformed or truncated messages are dropped.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void registerMessage(int fromParticipantSlot, byte[] message) {
+        try {
+            gameMessageReader.wrap(message);
+            int id = gameMessageReader.readByte();
+            if (id >= decoders.length || decoders[id]==null)
+                return;
+
+            Object decoded = decoders[id].decode(gameMessageReader);
+            if (decoded==null)
+                return;
+
+            GameMessageCallback<Object> callback = (GameMessageCallback<Object>)callbacks[id];
+            if (callbackLoop==null)
+                callback.onGameMessage(fromParticipantSlot, decoded);
+            else
+                callbackLoop.post(new GameEvent(eventGeneration, fromParticipantSlot, callback, decoded));
+
+        } catch (IndexOutOfBoundsException e) {
+            // Drop malformed or truncated game messages
+        }
+    }
 
-            participantCoordinator.setScoreAndLinesSorted(fromParticipantId,
-                    Integer.parseInt(delimitedStrings[1]),
-                    Integer.parseInt(delimitedStrings[2]));
+    /**
+     * A decoded game message waiting to be passed to its callback
+     * on the thread of the callback MessageLoop
+     */
+    private class GameEvent implements Runnable {
+
+        private final int                         generation;
+        private final int                         fromParticipantSlot;
+        private final GameMessageCallback<Object> callback;
+        private final Object                      decoded;
+
+        public GameEvent(int generation, int fromParticipantSlot,
+                GameMessageCallback<Object> callback, Object decoded) {
+            this.generation          = generation;
+            this.fromParticipantSlot = fromParticipantSlot;
+            this.callback            = callback;
+            this.decoded             = decoded;
+        }
 
+        @Override
+        public void run() {
+            if (generation==eventGeneration)
+                callback.onGameMessage(fromParticipantSlot, decoded);
         }
     }
 }
@@ -1,15 +1,48 @@
 package com.vengestudios.sortme.game;
 
-import java.util.HashSet;
-
 import com.vengestudios.sortme.MessageSender;
 
+import android.os.Handler;
+
 /**
  * Used to compose a game message for the relevant game move
  * and sends it to the GameScreen
+ *
+ * Score announcements form a stream where a newer announcement always
+ * replaces an older one. They are sent unreliably with an increasing
+ * sequence number, and the latest announcement is repeated reliably
+ * as a keyframe at a low rate, so every participant converges on the
+ * latest score even if unreliable announcements are lost.
  */
 public class GameMessageSender implements MessageSender {
-    private GameScreen gameScreen;
+
+    // The minimum time between reliable score keyframes
+    private static final int  SCORE_KEYFRAME_INTERVAL = 500;
+
+    private GameScreen        gameScreen;
+
+    // A reusable buffer to compose the outgoing game messages
+    private GameMessageWriter gameMessageWriter = new GameMessageWriter();
+
+    // Fields for the score stream
+    private int               scoreSequence;
+    private int               latestScore;
+    private int               latestLinesSorted;
+    private boolean           scoreKeyframePending;
+
+    // Handlers and Runnables
+    private Handler           scoreKeyframeHandler;
+    private Runnable          scoreKeyframeRunnable;
+
+    /**
+     * Constructor
+     * Creates the GameMessageSender
+     * Must be called from the UI thread
+     */
+    public GameMessageSender() {
+        scoreKeyframeHandler  = new Handler();
+        scoreKeyframeRunnable = new ScoreKeyframeRunnable();
+    }
 
     /**
      * Registers the GameScreen
@@ -22,62 +55,64 @@ public class GameMessageSender implements MessageSender {
     /**
      * Compose and send a personal attack message to a participant for
      * a certain PowerUp
-     * @param participantId  The ID of the participant to send to
-     * @param powerupType    The type of PowerUp
+     * @param participantSlot  The slot of the participant to send to
+     * @param powerupType      The type of PowerUp
      */
-    public void sendPersonalAttack(String participantId, PowerupType powerupType) {
+    public void sendPersonalAttack(int participantSlot, PowerupType powerupType) {
         if (powerupType.isDefensive()) return;
-        byte[] message = GameMessageType.getPersonalAttackMessage(powerupType);
-        broadcastReliableMessageToId(message, participantId);
+        byte[] message = GameMessageType.getPersonalAttackMessage(gameMessageWriter, powerupType);
+        broadcastReliableMessageToSlot(message, participantSlot);
     }
 
     /**
      * Compose and send a message as a reply to a successfully hit PowerUp
-     * @param initiatorId  The ID of the participant that started the attack
-     * @param powerupType  The type of PowerUp
+     * @param initiatorSlot  The slot of the participant that started the attack
+     * @param powerupType    The type of PowerUp
      */
-    public void sendPersonalAttackSucceededReply(String initiatorId, PowerupType powerupType) {
+    public void sendPersonalAttackSucceededReply(int initiatorSlot, PowerupType powerupType) {
         if (powerupType.isDefensive()) return;
-        byte[] message = GameMessageType.getSelfToOthersAttackMessage(powerupType);
-        broadcastReliableMessageToId(message, initiatorId);
+        byte[] message = GameMessageType.getSelfToOthersAttackMessage(gameMessageWriter, powerupType);
+        broadcastReliableMessageToSlot(message, initiatorSlot);
     }
 
     /**
      * Compose and send a message as a reply to a blocked PowerUp attack
-     * @param initiatorId  The ID of the participant that started the attack
-     * @param powerupType  The type of PowerUp
+     * @param initiatorSlot  The slot of the participant that started the attack
+     * @param powerupType    The type of PowerUp
      */
-    public void sendPersonalAttackBlockedReply(String initiatorId, PowerupType powerupType) {
+    public void sendPersonalAttackBlockedReply(int initiatorSlot, PowerupType powerupType) {
         if (powerupType.isDefensive()) return;
-        byte[] message = GameMessageType.getSelfToOtherBlockMessage(powerupType);
-        broadcastReliableMessageToId(message, initiatorId);
+        byte[] message = GameMessageType.getSelfToOtherBlockMessage(gameMessageWriter, powerupType);
+        broadcastReliableMessageToSlot(message, initiatorSlot);
     }
 
     /**
      * Compose and send a message as an announcement that own self has been successfully
      * hit by a PowerUp
      * @param initiatorParticipantName The name of the participant who started the attack
-     * @param excludedParticipantsIds  The IDs of the participants to exclude from this announcement
+     * @param excludedParticipantSlots The bitmask of the slots to exclude from this announcement
      * @param powerupType              The type of PowerUp
      */
     public void announceOtherToOthersAttack(String initiatorParticipantName,
-            HashSet<String> excludedParticipantsIds, PowerupType powerupType) {
+            long excludedParticipantSlots, PowerupType powerupType) {
         if (powerupType.isDefensive()) return;
-        byte[] message = GameMessageType.getOtherToOtherAttackMessage(initiatorParticipantName, powerupType);
-        broadcastReliableMessageToAll(message, excludedParticipantsIds);
+        byte[] message = GameMessageType.getOtherToOtherAttackMessage(gameMessageWriter,
+                initiatorParticipantName, powerupType);
+        broadcastReliableMessageToAll(message, excludedParticipantSlots);
     }
 
     /**
      * Compose ad send a message as an announcement that own self has blocked an attack
      * @param initiatorParticipantName The name of the participant who started the attack
-     * @param excludedParticipantsIds  The IDs of the participants to exclude from this announcement
+     * @param excludedParticipantSlots The bitmask of the slots to exclude from this announcement
      * @param powerupType              The type of PowerUp
      */
     public void announceOthersToOthersBlock(String initiatorParticipantName,
-            HashSet<String> excludedParticipantsIds, PowerupType powerupType) {
+            long excludedParticipantSlots, PowerupType powerupType) {
         if (powerupType.isDefensive()) return;
-        byte[] message = GameMessageType.getOtherToOtherBlockMessage(initiatorParticipantName, powerupType);
-        broadcastReliableMessageToAll(message, excludedParticipantsIds);
+        byte[] message = GameMessageType.getOtherToOtherBlockMessage(gameMessageWriter,
+                initiatorParticipantName, powerupType);
+        broadcastReliableMessageToAll(message, excludedParticipantSlots);
     }
 
     /**
@@ -86,52 +121,120 @@ public class GameMessageSender implements MessageSender {
      * @param ownParticipantImageURIString  Own image URL
      */
     public void announceOwnInfo(String ownParticipantName, String ownParticipantImageURIString) {
-        byte[] message = GameMessageType.getUpdateParticipantInfoMessage(ownParticipantName,
-                ownParticipantImageURIString);
-        broadcastReliableMessageToAll(message, null);
+        byte[] message = GameMessageType.getUpdateParticipantInfoMessage(gameMessageWriter,
+                ownParticipantName, ownParticipantImageURIString);
+        broadcastReliableMessageToAll(message, 0);
     }
 
     /**
      * Announce the score and the number of lines sorted to every other participant
+     * as an unreliable message, and schedules a reliable keyframe if none is pending
      * @param score       The score
      * @param linesSorted The number of lines sorted
      */
     public void announceScoreAndLinesSorted(int score, int linesSorted) {
-        byte[] message = GameMessageType.getUpdateScoreAndLinesSortedMessage(score, linesSorted);
-        gameScreen.broadcastReliableMessageToAll(message, null);
+        ++scoreSequence;
+        latestScore       = score;
+        latestLinesSorted = linesSorted;
+
+        byte[] message = GameMessageType.getUpdateScoreAndLinesSortedMessage(gameMessageWriter,
+                scoreSequence, score, linesSorted);
+        gameScreen.broadcastUnreliableMessageToAll(message, 0);
+
+        if (scoreKeyframePending==false) {
+            scoreKeyframePending = true;
+            scoreKeyframeHandler.postDelayed(scoreKeyframeRunnable, SCORE_KEYFRAME_INTERVAL);
+        }
+    }
+
+    /**
+     * Send a PING to every other participant as an unreliable message,
+     * as a late PING is of no use for measuring the round trip time
+     * @param sentTime The local time in milliseconds the PING is sent at
+     */
+    public void sendPing(long sentTime) {
+        byte[] message = GameMessageType.getPingMessage(gameMessageWriter, sentTime);
+        broadcastUnreliableMessageToAll(message, 0);
+    }
+
+    /**
+     * Send a PONG as the reply to a PING from a participant, as an unreliable message
+     * @param participantSlot The slot of the participant who sent the PING
+     * @param echoedSentTime  The sent time carried by the PING
+     * @param replyTime       The local time in milliseconds the PONG is sent at
+     */
+    public void sendPong(int participantSlot, long echoedSentTime, long replyTime) {
+        byte[] message = GameMessageType.getPongMessage(gameMessageWriter, echoedSentTime, replyTime);
+        broadcastUnreliableMessageToSlot(message, participantSlot);
+    }
+
+    /**
+     * Sends the pending score keyframe right away, so that the latest score
+     * reaches every participant before the score stream is reset or the room is left
+     */
+    public void flushScoreStream() {
+        if (scoreKeyframePending==false)
+            return;
+        scoreKeyframeHandler.removeCallbacks(scoreKeyframeRunnable);
+        scoreKeyframeRunnable.run();
+    }
+
+    /**
+     * Cancels any pending score keyframe and restarts the sequence numbers
+     * of the score stream. Called before every game, and after every game
+     * once the stream has been flushed.
+     */
+    public void resetScoreStream() {
+        scoreKeyframeHandler.removeCallbacks(scoreKeyframeRunnable);
+        scoreKeyframePending = false;
+        scoreSequence        = 0;
+    }
+
+    /**
+     * A Runnable to reliably repeat the latest score announcement,
+     * with the same sequence number as its unreliable announcement
+     */
+    private class ScoreKeyframeRunnable implements Runnable {
+        @Override
+        public void run() {
+            scoreKeyframePending = false;
+            byte[] message = GameMessageType.getUpdateScoreAndLinesSortedMessage(gameMessageWriter,
+                    scoreSequence, latestScore, latestLinesSorted);
+            gameScreen.broadcastReliableMessageToAll(message, 0);
+        }
     }
 
     @Override
-    public void broadcastReliableMessageToId(byte[] message, String toId) {
-        gameScreen.broadcastReliableMessageToId(message, toId);
+    public void broadcastReliableMessageToSlot(byte[] message, int toSlot) {
+        gameScreen.broadcastReliableMessageToSlot(message, toSlot);
     }
 
     @Override
-    public void broadcastUnreliableMessageToId(byte[] message, String toId) {
-        gameScreen.broadcastUnreliableMessageToId(message, toId);
+    public void broadcastUnreliableMessageToSlot(byte[] message, int toSlot) {
+        gameScreen.broadcastUnreliableMessageToSlot(message, toSlot);
     }
 
     @Override
-    public void broadcastMessageToId(byte[] message, String toId,
+    public void broadcastMessageToSlot(byte[] message, int toSlot,
             boolean reliable) {
-        gameScreen.broadcastMessageToId(message, toId, reliable);
+        gameScreen.broadcastMessageToSlot(message, toSlot, reliable);
     }
 
     @Override
     public void broadcastReliableMessageToAll(byte[] message,
-            HashSet<String> excludedIds) {
-        gameScreen.broadcastReliableMessageToAll(message, excludedIds);
+            long excludedSlots) {
+        gameScreen.broadcastReliableMessageToAll(message, excludedSlots);
     }
 
     @Override
     public void broadcastUnreliableMessageToAll(byte[] message,
-            HashSet<String> excludedIds) {
-        gameScreen.broadcastUnreliableMessageToAll(message, excludedIds);
+            long excludedSlots) {
+        gameScreen.broadcastUnreliableMessageToAll(message, excludedSlots);
     }
 
     @Override
     public void broadcastMessageToAll(byte[] message,
-            HashSet<String> excludedIds, boolean reliable) {
-        gameScreen.broadcastMessageToAll(message, excludedIds, reliable);
+            long excludedSlots, boolean reliable) {
+        gameScreen.broadcastMessageToAll(message, excludedSlots, reliable);
     }
 }
@@ -1,12 +1,12 @@
 package com.vengestudios.sortme.game;
 
-
-import android.util.Log;
-
 /**
  * An enum to denote the type of game message.
  * It also provides the methods that define the grammar of the different
  * types of game messages, and helps to compose them.
+ *
+ * Each game message is a binary message starting with the id of its
+ * GameMessageType, followed by its fields (see GameMessageWriter).
  */
 public enum GameMessageType {
     PERSONAL_ATTACK,
@@ -15,179 +15,196 @@ public enum GameMessageType {
     OTHERS_TO_OTHERS_ATTACK,
     OTHERS_TO_OTHERS_BLOCK,
     UPDATE_PARTICIPANT_INFO,
-    UPDATE_SCORE_AND_LINES_SORTED;
+    UPDATE_SCORE_AND_LINES_SORTED,
+    PING,
+    PONG;
 
-    // A String denoting a null field
-    public static final String NULL_STRING = "NULL";
+    // Cached copy of values(), which clones the array on every call
+    private static final GameMessageType[] VALUES = values();
 
-    // A string used as a delimiter. Should be something outside the common ASCII range
-    public static final String DELIMITER_STRING = Character.toString((char)2);
+    // The number of types of game messages, used to size dispatch tables
+    public static final int TOTAL_TYPES = VALUES.length;
 
-    // A string used to uniquely identify a message as a game message
-    // Useful if the game is to be extended and includes messages of other types
-    public static final String IDENTIFIER_LABEL_STRING = "89021e";
+    // The byte used to identify the type on the wire
+    public final int id;
+
+    // Internal private constructor
+    private GameMessageType() {
+        this.id = ordinal();
+    }
 
     /**
      * Returns the GameMessageType whose ordinal matches the value
      * @param i  The value of the ordinal
-     * @return   A GameMessageType
+     * @return   A GameMessageType, null if there is none
      */
     public static GameMessageType ordinalToMessageType(int i) {
-        for (GameMessageType messageType:values()) {
-            if (messageType.ordinal()==i)
-                return messageType;
-        }
-        return null;
-    }
-
-    /**
-     * Returns the GameMessageType whose ordinal is represented by the String
-     * @param string  A String representing the ordinal
-     * @return        A GameMessageType
-     */
-    public static GameMessageType ordinalToMessageType(String string) {
-        return ordinalToMessageType(Integer.parseInt(string));
-    }
-
-    /**
-     * Gets a game message that has been appended with the Identifier Label String
-     * @param string  A String representing the game message
-     * @return        The corresponding labeled game message
-     */
-    private static byte[] getLabeledMessage(String string) {
-        return (IDENTIFIER_LABEL_STRING+DELIMITER_STRING+string).getBytes();
-    }
-
-    /**
-     * Gets the fields of the game message if it has the Identifier Label String
-     * @param message  The game message
-     * @return The fields of the game message as an array of Strings if the message
-     *         has been successfully verified to have the Identifier Label String
-     *         else null.
-     */
-    public static String[] identifyLabelAndGetDelimitedStrings(byte[] message) {
-        String[] delimitedStrings = new String(message).split(DELIMITER_STRING);
-        Log.e("FIRST TOKEN", delimitedStrings[0]);
-
-        if (delimitedStrings[0].equals(IDENTIFIER_LABEL_STRING)) {
-            String [] returnDelimitedStrings = new String[delimitedStrings.length-1];
-            for (int i=0; i<delimitedStrings.length-1; ++i) {
-                String string = delimitedStrings[i+1];
-                if (string.equals(NULL_STRING))
-                    returnDelimitedStrings[i] = null;
-                else
-                    returnDelimitedStrings[i] = delimitedStrings[i+1];
-            }
-            return returnDelimitedStrings;
-        }
-        return null;
+        if (i<0 || i>=VALUES.length)
+            return null;
+        return VALUES[i];
     }
 
     /**
      * Compose and returns the game message representing an attack
      * targeted at another participant for the PowerupType
+     *
+     * Grammar: [type] [powerup ordinal]
+     *
+     * @param writer       The GameMessageWriter to compose the message with
      * @param powerupType  The PowerupType
      * @return             The corresponding game message
      */
-    public static byte[] getPersonalAttackMessage(PowerupType powerupType) {
+    public static byte[] getPersonalAttackMessage(GameMessageWriter writer, PowerupType powerupType) {
         assert (powerupType.isOffensive());
-        return getLabeledMessage(
-                PERSONAL_ATTACK.ordinal()
-                +DELIMITER_STRING
-                +powerupType.ordinal());
+        return writer.begin(PERSONAL_ATTACK)
+                .writeByte(powerupType.ordinal())
+                .toByteArray();
     }
 
     /**
      * Compose and returns the game message representing a reply to the initiator
      * of the attack, signifying that the attack is successful
+     *
+     * Grammar: [type] [powerup ordinal]
+     *
+     * @param writer       The GameMessageWriter to compose the message with
      * @param powerupType  The PowerupType
      * @return             The corresponding game message
      */
-    public static byte[] getSelfToOthersAttackMessage(PowerupType powerupType) {
-    	assert (powerupType.isOffensive());
-    	return getLabeledMessage(
-    			PERSONAL_ATTACK_SUCCEEDED.ordinal()
-    			+DELIMITER_STRING
-    			+powerupType.ordinal());
+    public static byte[] getSelfToOthersAttackMessage(GameMessageWriter writer, PowerupType powerupType) {
+        assert (powerupType.isOffensive());
+        return writer.begin(PERSONAL_ATTACK_SUCCEEDED)
+                .writeByte(powerupType.ordinal())
+                .toByteArray();
     }
 
     /**
      * Compose and returns the game message representing a reply to the initiator
      * of the attack, signifying that the attack is blocked
+     *
+     * Grammar: [type] [powerup ordinal]
+     *
+     * @param writer       The GameMessageWriter to compose the message with
      * @param powerupType  The PowerupType
      * @return             The corresponding game message
      */
-    public static byte[] getSelfToOtherBlockMessage(PowerupType powerupType) {
-    	assert (powerupType.isOffensive());
-    	return getLabeledMessage(
-    			PERSONAL_ATTACK_BLOCKED.ordinal()
-    			+DELIMITER_STRING
-    			+powerupType.ordinal());
+    public static byte[] getSelfToOtherBlockMessage(GameMessageWriter writer, PowerupType powerupType) {
+        assert (powerupType.isOffensive());
+        return writer.begin(PERSONAL_ATTACK_BLOCKED)
+                .writeByte(powerupType.ordinal())
+                .toByteArray();
     }
 
     /**
      * Compose and returns the game message representing an announcement that
      * own self has been successfully attacked by another participant
+     *
+     * Grammar: [type] [powerup ordinal] [initiator name]
+     *
+     * @param writer                   The GameMessageWriter to compose the message with
      * @param initiatorParticipantName The name of the participant who started the attack
-     * @param powerupType  The PowerupType
-     * @return             The corresponding game message
+     * @param powerupType              The PowerupType
+     * @return                         The corresponding game message
      */
-    public static byte[] getOtherToOtherAttackMessage(String initiatorParticipantName, PowerupType powerupType) {
+    public static byte[] getOtherToOtherAttackMessage(GameMessageWriter writer,
+            String initiatorParticipantName, PowerupType powerupType) {
         assert (powerupType.isOffensive());
-        return getLabeledMessage(
-                OTHERS_TO_OTHERS_ATTACK.ordinal()
-                +DELIMITER_STRING
-                +powerupType.ordinal()
-                +DELIMITER_STRING
-                +initiatorParticipantName);
+        return writer.begin(OTHERS_TO_OTHERS_ATTACK)
+                .writeByte(powerupType.ordinal())
+                .writeString(initiatorParticipantName)
+                .toByteArray();
     }
 
     /**
      * Compose and returns the game message representing an announcement that
      * own self has blocked an attack from another participant
+     *
+     * Grammar: [type] [powerup ordinal] [initiator name]
+     *
+     * @param writer                   The GameMessageWriter to compose the message with
      * @param initiatorParticipantName The name of the participant who started the attack
-     * @param powerupType  The PowerupType
-     * @return             The corresponding game message
+     * @param powerupType              The PowerupType
+     * @return                         The corresponding game message
      */
-    public static byte[] getOtherToOtherBlockMessage(String initiatorParticipantName, PowerupType powerupType) {
+    public static byte[] getOtherToOtherBlockMessage(GameMessageWriter writer,
+            String initiatorParticipantName, PowerupType powerupType) {
         assert (powerupType.isOffensive());
-        return getLabeledMessage(
-                OTHERS_TO_OTHERS_BLOCK.ordinal()
-                +DELIMITER_STRING
-                +powerupType.ordinal()
-                +DELIMITER_STRING
-                +initiatorParticipantName);
+        return writer.begin(OTHERS_TO_OTHERS_BLOCK)
+                .writeByte(powerupType.ordinal())
+                .writeString(initiatorParticipantName)
+                .toByteArray();
     }
 
     /**
      * Compose and returns the game message representing an announcement
      * of one's own participant name and image URL
+     *
+     * Grammar: [type] [name] [image URL]
+     *
+     * @param writer                    The GameMessageWriter to compose the message with
      * @param participantName           The Participant's Name
      * @param participantImageURIString The URL of the image
      * @return                          The corresponding game message
      */
-    public static byte[] getUpdateParticipantInfoMessage(String participantName, String participantImageURIString) {
-        return getLabeledMessage(
-                UPDATE_PARTICIPANT_INFO.ordinal()
-                +DELIMITER_STRING
-                +((participantName==null)?NULL_STRING:participantName)
-                +DELIMITER_STRING
-                +((participantImageURIString==null)?NULL_STRING:participantImageURIString));
+    public static byte[] getUpdateParticipantInfoMessage(GameMessageWriter writer,
+            String participantName, String participantImageURIString) {
+        return writer.begin(UPDATE_PARTICIPANT_INFO)
+                .writeString(participantName)
+                .writeString(participantImageURIString)
+                .toByteArray();
     }
 
     /**
      * Compose and returns the game message representing an announcement
      * of one's own latest score and lines sorted
+     *
+     * Grammar: [type] [varint sequence] [varint score] [varint lines sorted]
+     *
+     * @param writer       The GameMessageWriter to compose the message with
+     * @param sequence     The sequence number of the announcement, increasing with every change
      * @param score        The score
      * @param linesSorted  The number of lines sorted
      * @return             The corresponding game message
      */
-    public static byte[] getUpdateScoreAndLinesSortedMessage(int score, int linesSorted) {
-        return getLabeledMessage(
-                UPDATE_SCORE_AND_LINES_SORTED.ordinal()
-                +DELIMITER_STRING
-                +score
-                +DELIMITER_STRING
-                +linesSorted);
+    public static byte[] getUpdateScoreAndLinesSortedMessage(GameMessageWriter writer,
+            int sequence, int score, int linesSorted) {
+        return writer.begin(UPDATE_SCORE_AND_LINES_SORTED)
+                .writeVarInt(sequence)
+                .writeVarInt(score)
+                .writeVarInt(linesSorted)
+                .toByteArray();
+    }
+
+    /**
+     * Compose and returns the game message asking a participant to reply
+     * with a PONG, used to measure the round trip time to the participant
+     *
+     * Grammar: [type] [varlong sent time]
+     *
+     * @param writer    The GameMessageWriter to compose the message with
+     * @param sentTime  The local time in milliseconds the ping is sent at
+     * @return          The corresponding game message
+     */
+    public static byte[] getPingMessage(GameMessageWriter writer, long sentTime) {
+        return writer.begin(PING)
+                .writeVarLong(sentTime)
+                .toByteArray();
+    }
+
+    /**
+     * Compose and returns the game message replying to a PING
+     *
+     * Grammar: [type] [varlong echoed sent time] [varlong reply time]
+     *
+     * @param writer          The GameMessageWriter to compose the message with
+     * @param echoedSentTime  The sent time carried by the PING, in the clock of its sender
+     * @param replyTime       The local time in milliseconds the reply is sent at
+     * @return                The corresponding game message
+     */
+    public static byte[] getPongMessage(GameMessageWriter writer, long echoedSentTime, long replyTime) {
+        return writer.begin(PONG)
+                .writeVarLong(echoedSentTime)
+                .writeVarLong(replyTime)
+                .toByteArray();
     }
 }
@@ -0,0 +1,171 @@
+package com.vengestudios.sortme.game;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer used to compose binary game messages.
+ *
+ * A game message is laid out as:
+ *
+ *  - One byte for the id of the GameMessageType
+ *  - The fields of the message, each being one of
+ *    > A single byte (used for PowerupType ordinals)
+ *    > An unsigned variable length int or long (7 bits per byte, least significant group first)
+ *    > A String, stored as a variable length int holding (UTF-8 length + 1),
+ *      followed by the UTF-8 bytes. A length of 0 denotes a null String.
+ *
+ * The same GameMessageWriter can be used to compose any number of messages.
+ * Only the final byte array returned by toByteArray() is allocated per message.
+ */
+public class GameMessageWriter {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private byte[] buffer;
+    private int    length;
+
+    /**
+     * Constructor
+     * Creates a GameMessageWriter with the default capacity
+     */
+    public GameMessageWriter() {
+        buffer = new byte[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Clears the buffer and starts a new message of the GameMessageType
+     * @param gameMessageType The type of the message
+     * @return                This GameMessageWriter
+     */
+    public GameMessageWriter begin(GameMessageType gameMessageType) {
+        length = 0;
+        return writeByte(gameMessageType.id);
+    }
+
+    /**
+     * @param b The byte to append (only the lowest 8 bits are used)
+     * @return  This GameMessageWriter
+     */
+    public GameMessageWriter writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte)b;
+        return this;
+    }
+
+    /**
+     * Appends an int as an unsigned variable length int.
+     * Values from 0 to 127 take a single byte. Negative values take 5 bytes.
+     * @param value The int to append
+     * @return      This GameMessageWriter
+     */
+    public GameMessageWriter writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte)value;
+        return this;
+    }
+
+    /**
+     * Appends a long as an unsigned variable length long.
+     * Values from 0 to 127 take a single byte. Negative values take 10 bytes.
+     * @param value The long to append
+     * @return      This GameMessageWriter
+     */
+    public GameMessageWriter writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte)value;
+        return this;
+    }
+
+    /**
+     * Appends a length prefixed UTF-8 String.
+     * The characters are encoded directly into the buffer.
+     * @param string The String to append, can be null
+     * @return       This GameMessageWriter
+     */
+    public GameMessageWriter writeString(String string) {
+        if (string==null)
+            return writeVarInt(0);
+
+        int stringLength = string.length();
+        int utf8Length   = 0;
+        for (int i=0; i<stringLength; ++i) {
+            char c = string.charAt(i);
+            if      (c < 0x80)                  utf8Length += 1;
+            else if (c < 0x800)                 utf8Length += 2;
+            else if (Character.isHighSurrogate(c) && i+1<stringLength
+                    && Character.isLowSurrogate(string.charAt(i+1))) {
+                utf8Length += 4;
+                ++i;
+            }
+            else if (isSurrogate(c))            utf8Length += 1;
+            else                                utf8Length += 3;
+        }
+
+        writeVarInt(utf8Length+1);
+        ensureCapacity(utf8Length);
+
+        for (int i=0; i<stringLength; ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte)c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte)(0xC0 | (c >> 6));
+                buffer[length++] = (byte)(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i+1<stringLength
+                    && Character.isLowSurrogate(string.charAt(i+1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[length++] = (byte)(0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte)(0x80 | (codePoint & 0x3F));
+            } else if (isSurrogate(c)) {
+                // An unpaired surrogate is replaced, as done by String.getBytes()
+                buffer[length++] = (byte)'?';
+            } else {
+                buffer[length++] = (byte)(0xE0 | (c >> 12));
+                buffer[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return The number of bytes written for the current message
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return A copy of the current message, trimmed to its length
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * @param c A char
+     * @return  Whether the char is a high or low surrogate
+     */
+    private static boolean isSurrogate(char c) {
+        return c >= '\uD800' && c <= '\uDFFF';
+    }
+
+    /**
+     * Grows the buffer if it cannot hold the additional number of bytes
+     * @param additional The number of bytes about to be written
+     */
+    private void ensureCapacity(int additional) {
+        if (length+additional > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length*2, length+additional));
+    }
+}
@@ -1,13 +1,14 @@
 package com.vengestudios.sortme.game;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
 
 import com.google.android.gms.games.multiplayer.Participant;
+import com.vengestudios.sortme.HandlerMessageLoop;
 import com.vengestudios.sortme.MainActivity;
 import com.vengestudios.sortme.MessageReceiver;
 import com.vengestudios.sortme.MessageSender;
+import com.vengestudios.sortme.ParticipantRegistry;
+import com.vengestudios.sortme.ReadinessBarrier;
 import com.vengestudios.sortme.Screen;
 
 import android.widget.RelativeLayout;
@@ -56,7 +57,13 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
 
     private ArrayList<GameElement> gameElements;
     private boolean                normalHideDisabled;
-    private boolean                shown;
+
+    // Read by the thread the incoming messages are processed on
+    private volatile boolean       shown;
+
+    // Used to make the MainActivity leave the room from the thread
+    // the incoming messages are processed on
+    private Runnable               leaveRoomRunnable;
 
     /**
      * Constructor
@@ -118,6 +125,7 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
      * participantCoordinator.ownPositionDisplay     == ownPositionDisplay;
      * participantCoordinator.powerupActivator       == powerupActivator;
      * participantCoordinator.notificationDisplay    == notificationDisplay;
+     * participantCoordinator.tileSorterControl      == tileSorterControl;
      * scoreBoard            .gameScreen             == this;
      * gameTimer             .scoreBoard             == scoreBoard;
      * gameTimer             .mpBar                  == mpBar;
@@ -166,6 +174,7 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
         participantCoordinator.registerOwnPositionDisplay    (ownPositionDisplay);
         participantCoordinator.registerPowerupActivator      (powerupActivator);
         participantCoordinator.registerNotificationDisplay   (notificationDisplay);
+        participantCoordinator.registerTileSorterControl     (tileSorterControl);
         scoreBoard            .registerGameScreen            (this);
         gameTimer             .registerScoreBoard            (scoreBoard);
         gameTimer             .registerMPBar                 (mpBar);
@@ -177,10 +186,17 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
 
         participantCoordinator.registerGameMessageSender     (gameMessageSender);
         participantCoordinator.registerGameResultsSubmitter  (gameResultsSubmitter);
-        gameMessageReceiver   .registerParticipantCoordinator(participantCoordinator);
+        participantCoordinator.registerGameMessageReceiver   (gameMessageReceiver);
+        gameMessageReceiver   .registerCallbackLoop          (new HandlerMessageLoop());
         gameMessageSender     .registerGameScreen            (this);
         gameResultsSubmitter  .registerGameScreen            (this);
 
+        leaveRoomRunnable = new Runnable() {
+            @Override
+            public void run() {
+                GameScreen.this.mainActivity.leaveRoom();
+            }
+        };
     }
 
     /**
@@ -193,6 +209,15 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
         this.messageSender = messageSender;
     }
 
+    /**
+     * Registers the ReadinessBarrier, which the GameTimer waits on before starting a game.
+     * Without the SecurityMessageLayer, there is nothing to wait on
+     * @param readinessBarrier The ReadinessBarrier
+     */
+    public void registerReadinessBarrier(ReadinessBarrier readinessBarrier) {
+        gameTimer.registerReadinessBarrier(readinessBarrier);
+    }
+
     /**
      * Called when the MainActivity switches to the GameScreen
      * It will call setupAndAppearForGame, since the game screen is then
@@ -210,21 +235,40 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
 
     /**
      * Registers the required information needed to start a new game
-     * @param participants   An ArrayList containing the participants
-     * @param ownId          A String representing one's own participant ID
-     * @param hideIdentities Whether the ParticipantCoordinator should later broadcast as message
-     *                       announcing one's own Participant Name and image URL
+     * @param roomId              The ID of the room, which the sequence of puzzles is seeded from
+     * @param participants        An ArrayList containing the participants
+     * @param participantRegistry The ParticipantRegistry of the room, holding one's own participant ID
+     * @param hideIdentities      Whether the ParticipantCoordinator should later broadcast as message
+     *                            announcing one's own Participant Name and image URL
+     */
+    public void registerGameInfo(String roomId, ArrayList<Participant> participants,
+            ParticipantRegistry participantRegistry, boolean hideIdentities) {
+        participantCoordinator.registerGameInfo(roomId, participants, participantRegistry,
+                hideIdentities);
+    }
+
+    /**
+     * Sends the latest score of the user right away if it has yet to be sent reliably.
+     * Called by the MainActivity before leaving the room, as it would be dropped after
      */
-    public void registerGameInfo(ArrayList<Participant> participants, String ownId, boolean hideIdentities) {
-        participantCoordinator.registerGameInfo(participants, ownId, hideIdentities);
+    public void flushScoreStream() {
+        participantCoordinator.flushScoreStream();
     }
 
     /**
      * Register the participants that have been disconnected form the current game room
-     * @param participantIds  A List of the Participant IDs of those who have disconnected
+     * @param participantSlots  The bitmask of the slots of those who have disconnected
+     */
+    public void registerDisconnectedParticipants(long participantSlots) {
+        participantCoordinator.registerDisconnectedParticipants(participantSlots);
+    }
+
+    /**
+     * Stops the background thread pregenerating the puzzles.
+     * Called by the MainActivity when it is destroyed
      */
-    public void registerDisconnectedParticipants(List<String> participantIds) {
-        participantCoordinator.registerDisconnectedParticipants(participantIds);
+    public void quit() {
+        tileSorterControl.quit();
     }
 
     /**
@@ -257,6 +301,7 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
         // Sets the shown flag to false, which blocks all game messages
         // from being passed on to the ParticipantCoordinator
         shown = false;
+        gameMessageReceiver.discardPendingEvents();
 
         for (GameElement gameElement:gameElements)
             gameElement.hideForGameEnd();
@@ -294,6 +339,7 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
     public void hide(){
         if (normalHideDisabled) return;
         shown = false;
+        gameMessageReceiver.discardPendingEvents();
         for (GameElement gameElement:gameElements)
             gameElement.hide();
     }
@@ -325,11 +371,12 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
     }
 
     /**
-     * Registers an outgoing message with the MainAcitivty to be send to the
-     * Google Game Services API
+     * Passes an incoming game message to the GameMessageReceiver, which
+     * posts the decoded game event to the UI thread.
+     * May be called from the thread the incoming messages are processed on.
      */
     @Override
-    public void registerMessage(String fromParticipantId, byte[] message) {
+    public void registerMessage(int fromParticipantSlot, byte[] message) {
         // Blocks any message from being registered with the game receiver if
         // the shown flag is false.
         if (shown==false) {
@@ -339,44 +386,44 @@ public class GameScreen implements Screen, MessageReceiver, MessageSender {
             // when in actuality, he is in the MainScreen, and will continue to
             // messages from other participants. This will call
             // MainActivity to send a leave room request to the server again.
-            mainActivity.leaveRoom();
+            mainActivity.runOnUiThread(leaveRoomRunnable);
 
             return;
         }
-        gameMessageReceiver.registerMessage(fromParticipantId, message);
+        gameMessageReceiver.registerMessage(fromParticipantSlot, message);
     }
 
     @Override
-    public void broadcastReliableMessageToId(byte[] message, String participantId) {
-        messageSender.broadcastMessageToId(message, participantId, true);
+    public void broadcastReliableMessageToSlot(byte[] message, int participantSlot) {
+        messageSender.broadcastMessageToSlot(message, participantSlot, true);
     }
 
     @Override
-    public void broadcastUnreliableMessageToId(byte[] message, String participantId) {
-        messageSender.broadcastMessageToId(message, participantId, false);
+    public void broadcastUnreliableMessageToSlot(byte[] message, int participantSlot) {
+        messageSender.broadcastMessageToSlot(message, participantSlot, false);
     }
 
     @Override
-    public void broadcastMessageToId(byte[] message, String participantId, boolean reliable) {
-        messageSender.broadcastMessageToId(message, participantId, reliable);
+    public void broadcastMessageToSlot(byte[] message, int participantSlot, boolean reliable) {
+        messageSender.broadcastMessageToSlot(message, participantSlot, reliable);
     }
 
     @Override
     public void broadcastReliableMessageToAll(byte[] message,
-            HashSet<String> excludedParticipantsIds) {
-        messageSender.broadcastMessageToAll(message, excludedParticipantsIds, true);
+            long excludedParticipantSlots) {
+        messageSender.broadcastMessageToAll(message, excludedParticipantSlots, true);
     }
 
     @Override
     public void broadcastUnreliableMessageToAll(byte[] message,
-            HashSet<String> excludedParticipantsIds) {
-        messageSender.broadcastMessageToAll(message, excludedParticipantsIds, false);
+            long excludedParticipantSlots) {
+        messageSender.broadcastMessageToAll(message, excludedParticipantSlots, false);
     }
 
     @Override
     public void broadcastMessageToAll(byte[] message,
-            HashSet<String> excludedParticipantsIds, boolean reliable) {
-        messageSender.broadcastMessageToAll(message, excludedParticipantsIds, reliable);
+            long excludedParticipantSlots, boolean reliable) {
+        messageSender.broadcastMessageToAll(message, excludedParticipantSlots, reliable);
     }
 
 }
@@ -2,6 +2,7 @@ package com.vengestudios.sortme.game;
 
 import java.util.ArrayList;
 
+import com.vengestudios.sortme.ReadinessBarrier;
 import com.vengestudios.sortme.generaluielements.BlurOverlay;
 import com.vengestudios.sortme.helpers.ui.Effects;
 import com.vengestudios.sortme.helpers.ui.ScreenDimensions;
@@ -33,6 +34,11 @@ public class GameTimer implements GameElement {
     // UI and animation constants
     private static final int   DEFAULT_DELAY_TO_GO          = 5000;
 
+    // How often, and for how long at most, the start of the game
+    // waits on the ReadinessBarrier after the delay to go
+    private static final int   READINESS_POLL_INTERVAL      = 100;
+    private static final int   READINESS_TIMEOUT            = 5000;
+
     private static final int   GAME_DURATION_IN_SECONDS     = 120;
     private static final float TIME_FONT_SIZE               = 28.f;
     private static final float SCREEN_X_PERCENTAGE          = 0.029f;
@@ -92,6 +98,9 @@ public class GameTimer implements GameElement {
     private ScoreBoard             scoreBoard;
     private MPBar                  mpBar;
 
+    // Holds back the start of the game until the user is ready, may be null
+    private ReadinessBarrier       readinessBarrier;
+
     /**
      * Constructor
      *
@@ -219,6 +228,14 @@ public class GameTimer implements GameElement {
         this.mpBar = mpBar;
     }
 
+    /**
+     * Registers the ReadinessBarrier that the start of the game waits on
+     * @param readinessBarrier
+     */
+    public void registerReadinessBarrier(ReadinessBarrier readinessBarrier) {
+        this.readinessBarrier = readinessBarrier;
+    }
+
     /**
      * Clears all animations and handlers.
      */
@@ -297,6 +314,10 @@ public class GameTimer implements GameElement {
      * Sets up the GameTimer for the game and make the required
      * UI Elements for the start of the game to appear
      *
+     * The game starts after the delay to go, or once the ReadinessBarrier
+     * is ready if it is not ready by then, waiting no longer than the
+     * readiness timeout on it
+     *
      * @param delayToGo The milliseconds to the start of the game from
      *                  the time when this method is called
      */
@@ -326,8 +347,15 @@ public class GameTimer implements GameElement {
         Effects.castBlinkEffect(readyTextView, 3, 150, false);
 
         startRunnable = new Runnable() {
+            int timeWaited = 0;
             @Override
             public void run() {
+                if (readinessBarrier!=null && timeWaited<READINESS_TIMEOUT &&
+                        readinessBarrier.isReady()==false) {
+                    timeWaited += READINESS_POLL_INTERVAL;
+                    startHandler.postDelayed(this, READINESS_POLL_INTERVAL);
+                    return;
+                }
                 start();
             }
         };
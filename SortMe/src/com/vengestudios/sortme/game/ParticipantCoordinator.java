@@ -2,18 +2,21 @@ package com.vengestudios.sortme.game;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 
 import com.google.android.gms.games.multiplayer.Participant;
+import com.vengestudios.sortme.ParticipantRegistry;
+import com.vengestudios.sortme.game.GameMessageDecoders.AttackAnnouncement;
+import com.vengestudios.sortme.game.GameMessageDecoders.ParticipantInfo;
+import com.vengestudios.sortme.game.GameMessageDecoders.Ping;
+import com.vengestudios.sortme.game.GameMessageDecoders.Pong;
+import com.vengestudios.sortme.game.GameMessageDecoders.ScoreUpdate;
 import com.vengestudios.sortme.helpers.logic.CustomSorts;
 import com.vengestudios.sortme.helpers.logic.Randomizer;
 import com.vengestudios.sortme.helpers.ui.ScreenDimensions;
 
 import android.content.Context;
 import android.os.Handler;
-import android.util.Log;
+import android.os.SystemClock;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.LinearLayout;
@@ -34,6 +37,13 @@ import android.widget.TableRow;
  *    other GameElements
  *
  *  - Sending attacks and announcements to other participants
+ *
+ *  - Pinging the other participants during a game, to estimate the
+ *    round trip time to each of them and the offset of their clocks
+ *
+ *  - Seeding the sequence of puzzles from the room ID, which every participant
+ *    is given by Google Game Services, so that everyone is given the same
+ *    puzzles from the first one on without waiting for a message
  */
 public class ParticipantCoordinator implements GameElement{
 
@@ -42,6 +52,7 @@ public class ParticipantCoordinator implements GameElement{
     private static final float  SCREEN_Y_PERCENTAGE         = .148f-0.04f;
     private static final int    SWITCH_PLAYER_INTERVAL      = 3000;
     private static final int    BROADCAST_OWN_INFO_DELAY    = 1000;
+    private static final int    PING_INTERVAL               = 1000;
 
     // Dependencies to create UI Elements
     @SuppressWarnings("unused")
@@ -57,10 +68,9 @@ public class ParticipantCoordinator implements GameElement{
     private int layoutWidth;
 
     // Game logic management objects and fields
-    private HashMap<String, ParticipantDisplay> participantDisplays;
+    private ArrayList<ParticipantDisplay> participantDisplays;
+    private ParticipantDisplay[] participantDisplaysBySlot;
     private ParticipantDisplay   ownDisplay;
-    @SuppressWarnings("unused")
-	private String               ownId;
 
     private Handler              switchTargetHandler;
     private Runnable             switchTargetRunnable;
@@ -71,10 +81,16 @@ public class ParticipantCoordinator implements GameElement{
     private GameMessageSender    gameMessageSender;
     private NotificationDisplay  notificationDisplay;
     private GameResultsSubmitter gameResultsSubmitter;
+    private TileSorterControl    tileSorterControl;
 
     // Handlers and Runnables
     private Handler              broadcastOwnInfoHandler;
     private Runnable             broadcastOwnInfoRunnable;
+    private Handler              pingHandler;
+    private Runnable             pingRunnable;
+
+    // The round trip time and clock offset estimates of the other participants
+    private PeerLatencyEstimator peerLatencyEstimator;
 
     /**
      * Constructor
@@ -118,6 +134,10 @@ public class ParticipantCoordinator implements GameElement{
 
         broadcastOwnInfoHandler = new Handler();
 
+        pingHandler           = new Handler();
+        pingRunnable          = new PingRunnable();
+        peerLatencyEstimator  = new PeerLatencyEstimator();
+
         this.layoutWidth = layoutWidth;
 
         hide();
@@ -127,6 +147,11 @@ public class ParticipantCoordinator implements GameElement{
     public void hide(){
         stopSwitchingTarget();
         broadcastOwnInfoHandler.removeCallbacks(broadcastOwnInfoRunnable);
+        pingHandler.removeCallbacks(pingRunnable);
+        if (gameMessageSender!=null) {
+            gameMessageSender.flushScoreStream();
+            gameMessageSender.resetScoreStream();
+        }
         tableLayout.setVisibility(View.INVISIBLE);
     }
 
@@ -153,7 +178,7 @@ public class ParticipantCoordinator implements GameElement{
         @Override
         public void run() {
             ArrayList<ParticipantDisplay> opponentDisplays = new ArrayList<ParticipantDisplay>();
-            for (ParticipantDisplay participantDisplay:participantDisplays.values()) {
+            for (ParticipantDisplay participantDisplay:participantDisplays) {
                 if (participantDisplay!=ownDisplay && participantDisplay.getConnected())
                     opponentDisplays.add(participantDisplay);
             }
@@ -188,21 +213,29 @@ public class ParticipantCoordinator implements GameElement{
     public void stopSwitchingTarget() {
         switchTargetHandler.removeCallbacks(switchTargetRunnable);
         if (participantDisplays!=null)
-            for (ParticipantDisplay participantDisplay:participantDisplays.values())
+            for (ParticipantDisplay participantDisplay:participantDisplays)
                 participantDisplay.setTargeted(false);
     }
 
     /**
-     * Register a list of participants IDs of those who have disconnected
+     * Sends the pending keyframe of one's own score stream right away
+     */
+    public void flushScoreStream() {
+        if (gameMessageSender!=null)
+            gameMessageSender.flushScoreStream();
+    }
+
+    /**
+     * Register the slots of the participants who have disconnected
      * from the current game room
-     * @param participantIds
+     * @param participantSlots The bitmask of the slots of the participants
      */
-    public void registerDisconnectedParticipants(List<String> participantIds) {
-    	if (participantIds!=null){
+    public void registerDisconnectedParticipants(long participantSlots) {
+    	if (participantSlots!=0 && participantDisplaysBySlot!=null){
     		ArrayList<String> disconnectedNames = new ArrayList<String>();
-    		for (String participantId:participantIds) {
-    			Log.e("Participant Id", participantId);
-    			ParticipantDisplay participantDisplay = participantDisplays.get(participantId);
+    		for (long remaining=participantSlots; remaining!=0; remaining&=remaining-1) {
+    			int participantSlot = Long.numberOfTrailingZeros(remaining);
+    			ParticipantDisplay participantDisplay = getParticipantDisplayOrNull(participantSlot);
     			if (participantDisplay!=null) {
     				participantDisplay.setConnected(false);
     				participantDisplay.setTargeted(false);
@@ -241,6 +274,91 @@ public class ParticipantCoordinator implements GameElement{
         this.gameMessageSender = gameMessageSender;
     }
 
+    /**
+     * Registers the ParticipantCoordinator with the GameMessageReceiver
+     * as the callback for every type of game message
+     * @param gameMessageReceiver
+     */
+    public void registerGameMessageReceiver(GameMessageReceiver gameMessageReceiver) {
+
+        gameMessageReceiver.registerHandler(GameMessageType.PERSONAL_ATTACK, GameMessageDecoders.POWERUP_TYPE,
+                new GameMessageCallback<PowerupType>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, PowerupType powerupType) {
+                receivePersonalAttack(fromParticipantSlot, powerupType);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.PERSONAL_ATTACK_SUCCEEDED, GameMessageDecoders.POWERUP_TYPE,
+                new GameMessageCallback<PowerupType>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, PowerupType powerupType) {
+                receivePersonalAttackSucceededReply(fromParticipantSlot, powerupType);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.PERSONAL_ATTACK_BLOCKED, GameMessageDecoders.POWERUP_TYPE,
+                new GameMessageCallback<PowerupType>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, PowerupType powerupType) {
+                receivePersonalAttackBlockedReply(fromParticipantSlot, powerupType);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.OTHERS_TO_OTHERS_ATTACK, GameMessageDecoders.ATTACK_ANNOUNCEMENT,
+                new GameMessageCallback<AttackAnnouncement>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, AttackAnnouncement announcement) {
+                announceOtherToOtherAttack(announcement.initiatorName,
+                        fromParticipantSlot, announcement.powerupType);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.OTHERS_TO_OTHERS_BLOCK, GameMessageDecoders.ATTACK_ANNOUNCEMENT,
+                new GameMessageCallback<AttackAnnouncement>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, AttackAnnouncement announcement) {
+                announceOtherToOtherBlock(announcement.initiatorName,
+                        fromParticipantSlot, announcement.powerupType);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.UPDATE_PARTICIPANT_INFO, GameMessageDecoders.PARTICIPANT_INFO,
+                new GameMessageCallback<ParticipantInfo>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, ParticipantInfo participantInfo) {
+                setParticipantInfo(fromParticipantSlot,
+                        participantInfo.participantName, participantInfo.participantImageURL);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.UPDATE_SCORE_AND_LINES_SORTED, GameMessageDecoders.SCORE_UPDATE,
+                new GameMessageCallback<ScoreUpdate>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, ScoreUpdate scoreUpdate) {
+                setScoreAndLinesSorted(fromParticipantSlot,
+                        scoreUpdate.sequence, scoreUpdate.score, scoreUpdate.linesSorted);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.PING, GameMessageDecoders.PING,
+                new GameMessageCallback<Ping>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, Ping ping) {
+                receivePing(fromParticipantSlot, ping.sentTime);
+            }
+        });
+
+        gameMessageReceiver.registerHandler(GameMessageType.PONG, GameMessageDecoders.PONG,
+                new GameMessageCallback<Pong>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, Pong pong) {
+                receivePong(fromParticipantSlot,
+                        pong.echoedSentTime, pong.replyTime);
+            }
+        });
+    }
+
     /**
      * Registers the OwnPositionDisplay
      * @param ownPositionDisplay
@@ -257,24 +375,38 @@ public class ParticipantCoordinator implements GameElement{
     	this.gameResultsSubmitter = gameResultsSubmitter;
     }
 
+    /**
+     * Registers the TileSorterControl
+     * @param tileSorterControl
+     */
+    public void registerTileSorterControl(TileSorterControl tileSorterControl) {
+        this.tileSorterControl = tileSorterControl;
+    }
+
     /**
      * Register the required information needed to start a new game
-     * @param participants   An ArrayList of Participants
-     * @param ownId          A String representing one own's participant ID
-     * @param hideIdentities Whether a messages announcing one's own Participant Name and image URL
-     *                       should be broadcasted
+     * @param roomId              The ID of the room, which the sequence of puzzles is seeded from
+     * @param participants        An ArrayList of Participants
+     * @param participantRegistry The ParticipantRegistry of the room, holding one own's participant ID
+     * @param hideIdentities      Whether a messages announcing one's own Participant Name and image URL
+     *                            should be broadcasted
      */
-    public void registerGameInfo(ArrayList<Participant> participants, String ownId, boolean hideIdentities) {
-    	this.ownId = ownId;
+    public void registerGameInfo(String roomId, ArrayList<Participant> participants,
+            ParticipantRegistry participantRegistry, boolean hideIdentities) {
+
+    	assert gameMessageSender != null;
+    	gameMessageSender.resetScoreStream();
 
     	tableLayoutRow.removeAllViews();
     	tableLayout.setStretchAllColumns(true);
 
     	int participantNameWidth = layoutWidth/(participants.size());
-    	participantDisplays = new HashMap<String, ParticipantDisplay>();
+    	participantDisplays       = new ArrayList<ParticipantDisplay>(participants.size());
+    	participantDisplaysBySlot = new ParticipantDisplay[ParticipantRegistry.MAX_PARTICIPANTS];
 
     	for (Participant participant:participants) {
     		String participantId       = participant.getParticipantId();
+    		int    participantSlot     = participantRegistry.register(participantId);
     		String participantName     = participant.getDisplayName();
     		String participantImageURL = participant.getIconImageUrl();
             if (participantImageURL!=null)
@@ -283,12 +415,13 @@ public class ParticipantCoordinator implements GameElement{
     		ParticipantDisplay newParticipantDisplay
     		= new ParticipantDisplay(scoreEffectRelativeLayout, context,
     				new ParticipantData(participantId, participantName),
-    				participantNameWidth);
+    				participantSlot, participantNameWidth);
     		tableLayoutRow.addView(newParticipantDisplay);
-    		participantDisplays.put(participantId, newParticipantDisplay);
+    		participantDisplays.add(newParticipantDisplay);
+    		participantDisplaysBySlot[participantSlot] = newParticipantDisplay;
     		newParticipantDisplay.setParticipantImageURL(participantImageURL);
     	}
-    	ownDisplay = participantDisplays.get(ownId);
+    	ownDisplay = participantDisplaysBySlot[participantRegistry.getOwnSlot()];
 
     	if (hideIdentities==false) {
     		String ownParticipantName     = ownDisplay.getParticipantName();
@@ -297,6 +430,13 @@ public class ParticipantCoordinator implements GameElement{
                     new BroadcastOwnInfoRunnable(ownParticipantName, ownParticipantImageURL);
             broadcastOwnInfoHandler.postDelayed(broadcastOwnInfoRunnable, BROADCAST_OWN_INFO_DELAY);
     	}
+
+    	assert tileSorterControl != null;
+    	tileSorterControl.setRoomSeed(PuzzleGenerator.getRoomSeed(roomId));
+
+    	peerLatencyEstimator.reset();
+    	pingHandler.removeCallbacks(pingRunnable);
+    	pingHandler.post(pingRunnable);
     }
 
     /**
@@ -317,13 +457,65 @@ public class ParticipantCoordinator implements GameElement{
         }
     }
 
+    /**
+     * A Runnable to ping every other participant in fixed intervals
+     * for the rest of the game
+     */
+    private class PingRunnable implements Runnable {
+        @Override
+        public void run() {
+            gameMessageSender.sendPing(SystemClock.elapsedRealtime());
+            pingHandler.postDelayed(pingRunnable, PING_INTERVAL);
+        }
+    }
+
+    /**
+     * Replies to a PING from another participant
+     * @param fromParticipantSlot The slot of the participant who sent the PING
+     * @param sentTime            The sent time carried by the PING
+     */
+    public void receivePing(int fromParticipantSlot, long sentTime) {
+        assert gameMessageSender != null;
+        gameMessageSender.sendPong(fromParticipantSlot, sentTime, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Registers the reply to one's own PING with the PeerLatencyEstimator
+     * @param fromParticipantSlot The slot of the participant who replied
+     * @param echoedSentTime      The local time the PING was sent at
+     * @param replyTime           The time the reply was sent at, in the participant's clock
+     */
+    public void receivePong(int fromParticipantSlot, long echoedSentTime, long replyTime) {
+        peerLatencyEstimator.registerSample(fromParticipantSlot,
+                echoedSentTime, replyTime, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Registers the PeerLatencyListener called with every new
+     * round trip time sample of another participant
+     * @param peerLatencyListener
+     */
+    public void registerPeerLatencyListener(PeerLatencyListener peerLatencyListener) {
+        peerLatencyEstimator.registerPeerLatencyListener(peerLatencyListener);
+    }
+
+    /**
+     * @return The PeerLatencyEstimator holding the round trip time and
+     *         clock offset estimates of the other participants.
+     *         Must only be used from the UI thread.
+     */
+    public PeerLatencyEstimator getPeerLatencyEstimator() {
+        return peerLatencyEstimator;
+    }
+
     /**
      * Registers a personal attack from another participant
-     * @param fromParticipantId The participant ID of the attacker
-     * @param powerupType       The PowerupType of the attack
+     * @param fromParticipantSlot The slot of the attacker
+     * @param powerupType         The PowerupType of the attack
      */
-    public void receivePersonalAttack(String fromParticipantId, PowerupType powerupType) {
-        if (powerupType.isDefensive()) return;
+    public void receivePersonalAttack(int fromParticipantSlot, PowerupType powerupType) {
+        String initiatorParticipantName = getParticipantName(fromParticipantSlot);
+        if (powerupType.isDefensive() || initiatorParticipantName==null) return;
         else {
             assert notificationDisplay != null;
             assert powerupActivator    != null;
@@ -337,19 +529,17 @@ public class ParticipantCoordinator implements GameElement{
             else if (powerupType==PowerupType.UPSIZE)
                 successful = powerupActivator.upsize();
 
-            String initiatorParticipantName = getParticipantName(fromParticipantId);
-            HashSet<String> excludedParticipantsIds = new HashSet<String>(1);
-            excludedParticipantsIds.add(fromParticipantId);
+            long excludedParticipantSlots   = ParticipantRegistry.getMask(fromParticipantSlot);
             if (successful) {
                 gameMessageSender.announceOtherToOthersAttack(initiatorParticipantName,
-                		excludedParticipantsIds, powerupType);
-                gameMessageSender.sendPersonalAttackSucceededReply(fromParticipantId, powerupType);
+                		excludedParticipantSlots, powerupType);
+                gameMessageSender.sendPersonalAttackSucceededReply(fromParticipantSlot, powerupType);
                 notificationDisplay.announceOtherToSelfAttack(initiatorParticipantName, powerupType);
                 ownDisplay.incrementTimesAttackedByOthers(powerupType);
             } else {
                 gameMessageSender.announceOthersToOthersBlock(initiatorParticipantName,
-                		excludedParticipantsIds, powerupType);
-                gameMessageSender.sendPersonalAttackBlockedReply(fromParticipantId, powerupType);
+                		excludedParticipantSlots, powerupType);
+                gameMessageSender.sendPersonalAttackBlockedReply(fromParticipantSlot, powerupType);
                 notificationDisplay.announceOtherToSelfBlock(initiatorParticipantName, powerupType);
                 ownDisplay.incrementTimesBlockSuccessful(powerupType);
             }
@@ -358,26 +548,30 @@ public class ParticipantCoordinator implements GameElement{
 
     /**
      * Register that the user's attack on another participant is successful
-     * @param fromParticipantId  The participant ID of the victim
-     * @param powerupType        The PowerupType of the attack
+     * @param fromParticipantSlot  The slot of the victim
+     * @param powerupType          The PowerupType of the attack
      */
-    public void receivePersonalAttackSucceededReply(String fromParticipantId, PowerupType powerupType) {
+    public void receivePersonalAttackSucceededReply(int fromParticipantSlot, PowerupType powerupType) {
         assert notificationDisplay != null;
         assert ownDisplay          != null;
-    	String targetedParticipantName = getParticipantName(fromParticipantId);
+    	String targetedParticipantName = getParticipantName(fromParticipantSlot);
+    	if (targetedParticipantName==null)
+    		return;
     	notificationDisplay.announcePersonalAttackSucceeded(targetedParticipantName, powerupType);
     	ownDisplay.incrementTimesAttackSuccessful(powerupType);
     }
 
     /**
      * Register that the user's attack on another participant is blocked
-     * @param fromParticipantId  The participant ID of the blocker
-     * @param powerupType        The PowerupType of the attack
+     * @param fromParticipantSlot  The slot of the blocker
+     * @param powerupType          The PowerupType of the attack
      */
-    public void receivePersonalAttackBlockedReply(String fromParticipantId, PowerupType powerupType) {
+    public void receivePersonalAttackBlockedReply(int fromParticipantSlot, PowerupType powerupType) {
         assert notificationDisplay != null;
         assert ownDisplay          != null;
-    	String targetedParticipantName = getParticipantName(fromParticipantId);
+    	String targetedParticipantName = getParticipantName(fromParticipantSlot);
+    	if (targetedParticipantName==null)
+    		return;
     	notificationDisplay.announcePersonalAttackBlocked(targetedParticipantName, powerupType);
     	ownDisplay.incrementTimesBlockedByOthers(powerupType);
     }
@@ -385,24 +579,28 @@ public class ParticipantCoordinator implements GameElement{
     /**
      * Registers an announcement of another participant successfully attacking another participant
      * @param initiatorName  The name of the participant who started the attack
-     * @param victimId       The participant ID of the victim
+     * @param victimSlot     The slot of the victim
      * @param powerupType    The PowerupType of the attack
      */
-    public void announceOtherToOtherAttack(String initiatorName, String victimId, PowerupType powerupType) {
+    public void announceOtherToOtherAttack(String initiatorName, int victimSlot, PowerupType powerupType) {
         assert notificationDisplay != null;
-        String victimName = getParticipantName(victimId);
+        String victimName = getParticipantName(victimSlot);
+        if (victimName==null)
+            return;
         notificationDisplay.announceOtherToOtherAttack(initiatorName, victimName, powerupType);
     }
 
     /**
      * Registers an announcement of another participant blocking another participant's attack
      * @param initiatorName  The name of the participant who started the attack
-     * @param blockerId      The participant ID of the victim
+     * @param blockerSlot    The slot of the blocker
      * @param powerupType    The PowerupType of the attack
      */
-    public void announceOtherToOtherBlock(String initiatorName, String blockerId, PowerupType powerupType) {
+    public void announceOtherToOtherBlock(String initiatorName, int blockerSlot, PowerupType powerupType) {
         assert notificationDisplay != null;
-        String blockerName = getParticipantName(blockerId);
+        String blockerName = getParticipantName(blockerSlot);
+        if (blockerName==null)
+            return;
         notificationDisplay.announceOtherToOtherBlock(initiatorName, blockerName, powerupType);
     }
 
@@ -414,9 +612,9 @@ public class ParticipantCoordinator implements GameElement{
         if (powerupType.isDefensive()) return;
         else {
             assert gameMessageSender != null;
-            for (ParticipantDisplay participantDisplay:participantDisplays.values()) {
+            for (ParticipantDisplay participantDisplay:participantDisplays) {
                 if (participantDisplay.getTargeted()) {
-                    gameMessageSender.sendPersonalAttack(participantDisplay.getParticipantId(), powerupType);
+                    gameMessageSender.sendPersonalAttack(participantDisplay.getParticipantSlot(), powerupType);
                     break;
                 }
             }
@@ -433,36 +631,43 @@ public class ParticipantCoordinator implements GameElement{
 
     /**
      * Registers the information of a participant
-     * @param participantId             The ID of the participant
+     * @param participantSlot           The slot of the participant
      * @param participantName           The display name of the participant
      * @param participantImageURIString The image URL of the participant
      */
-    public void setParticipantInfo(String participantId, String participantName,
+    public void setParticipantInfo(int participantSlot, String participantName,
             String participantImageURIString) {
-        ParticipantDisplay participantDisplay = getParticipantDisplay(participantId);
+        ParticipantDisplay participantDisplay = getParticipantDisplayOrNull(participantSlot);
+        if (participantDisplay==null)
+            return;
         participantDisplay.setParticipantName(participantName);
         participantDisplay.setParticipantImageURL(participantImageURIString);
     }
 
     /**
      * Gets the participant display of a participant
-     * @param participantId The ID of the participant
-     * @return              The corresponding ParticipantDisplay
+     * @param participantSlot The slot of the participant
+     * @return                The corresponding ParticipantDisplay, null if the
+     *                        participant is not in the game or the game info
+     *                        has yet to be registered
      */
-    private ParticipantDisplay getParticipantDisplay(String participantId) {
-        assert participantDisplays != null;
-        ParticipantDisplay participantDisplay = participantDisplays.get(participantId);
-        assert participantDisplay != null;
-        return participantDisplay;
+    private ParticipantDisplay getParticipantDisplayOrNull(int participantSlot) {
+        if (participantDisplaysBySlot==null ||
+                participantSlot<0 || participantSlot>=participantDisplaysBySlot.length)
+            return null;
+        return participantDisplaysBySlot[participantSlot];
     }
 
     /**
      * Gets the name of a participant
-     * @param participantId The ID of the participant
-     * @return              The corresponding name of the participant
+     * @param participantSlot The slot of the participant
+     * @return                The corresponding name of the participant, null if the
+     *                        participant is not in the game or the game info
+     *                        has yet to be registered
      */
-    private String getParticipantName(String participantId) {
-        return getParticipantDisplay(participantId).getParticipantName();
+    private String getParticipantName(int participantSlot) {
+        ParticipantDisplay participantDisplay = getParticipantDisplayOrNull(participantSlot);
+        return participantDisplay==null ? null : participantDisplay.getParticipantName();
     }
 
     /**
@@ -495,15 +700,17 @@ public class ParticipantCoordinator implements GameElement{
     }
 
     /**
-     * Set the score and the number of lines sorted by a participant
-     * @param participantId The ID of the participant
-     * @param score         The score of the participant
-     * @param linesSorted   The number of lines sorted by the participant
+     * Set the score and the number of lines sorted by a participant,
+     * if the update is newer than the latest one applied for the participant
+     * @param participantSlot The slot of the participant
+     * @param sequence        The sequence number of the update from the participant
+     * @param score           The score of the participant
+     * @param linesSorted     The number of lines sorted by the participant
      */
-    public void setScoreAndLinesSorted(String participantId, int score, int linesSorted) {
-        assert participantDisplays != null;
-        ParticipantDisplay participantDisplay = participantDisplays.get(participantId);
-        assert participantDisplay != null;
+    public void setScoreAndLinesSorted(int participantSlot, int sequence, int score, int linesSorted) {
+        ParticipantDisplay participantDisplay = getParticipantDisplayOrNull(participantSlot);
+        if (participantDisplay==null || participantDisplay.registerScoreSequence(sequence)==false)
+            return;
         participantDisplay.setScoreAndLinesSorted(score, linesSorted);
         updateParticipantPositions();
         updateOwnPositionDisplay();
@@ -512,13 +719,13 @@ public class ParticipantCoordinator implements GameElement{
     /**
      * Increments the score of a participant by the specified amount,
      * and increments the lines sorted by him/her by 1
-     * @param participantId The ID of the participant
-     * @param score         The amount to increment the participant's score by
+     * @param participantSlot The slot of the participant
+     * @param score           The amount to increment the participant's score by
      */
-    public void incrementScoreAndLinesSorted(String participantId, int score) {
-        assert participantDisplays != null;
-        ParticipantDisplay participantDisplay = participantDisplays.get(participantId);
-        assert participantDisplay != null;
+    public void incrementScoreAndLinesSorted(int participantSlot, int score) {
+        ParticipantDisplay participantDisplay = getParticipantDisplayOrNull(participantSlot);
+        if (participantDisplay==null)
+            return;
         participantDisplay.incrementScoreAndLinesSorted(score);
         updateParticipantPositions();
         updateOwnPositionDisplay();
@@ -539,7 +746,7 @@ public class ParticipantCoordinator implements GameElement{
         assert participantDisplays != null;
 
         ArrayList<ParticipantDisplay> sortedParticipantDisplays = new ArrayList<ParticipantDisplay>();
-        for (ParticipantDisplay participantDisplay:participantDisplays.values())
+        for (ParticipantDisplay participantDisplay:participantDisplays)
             sortedParticipantDisplays.add(participantDisplay);
         CustomSorts.insertionSort(sortedParticipantDisplays, new Comparator<ParticipantDisplay>() {
             @Override
@@ -586,7 +793,7 @@ public class ParticipantCoordinator implements GameElement{
 
     	updateParticipantPositions();
     	ArrayList<ParticipantData> copyOfParticipantDatas = new ArrayList<ParticipantData>();
-    	for (ParticipantDisplay participantDisplay:participantDisplays.values()) {
+    	for (ParticipantDisplay participantDisplay:participantDisplays) {
     		copyOfParticipantDatas.add(participantDisplay.getParticipantDataClone());
     	}
 
@@ -46,10 +46,16 @@ public class ParticipantDisplay extends LinearLayout {
     // and game performance of the participant
     private ParticipantData   participantData;
 
+    // The slot of the participant in the ParticipantRegistry
+    private int          participantSlot;
+
     // Other fields used to manage the UI
     private boolean      connected;
     private boolean      targeted;
 
+    // The sequence number of the latest score update applied
+    private int          lastScoreSequence;
+
     /**
      * Constructor
      *
@@ -58,16 +64,18 @@ public class ParticipantDisplay extends LinearLayout {
      * @param relativeLayout        The RelativeLayout to insert the UI Elements into
      * @param context               The context of the application (usually MainActivity)
      * @param participantData       The ParticipantData of the participant
+     * @param participantSlot       The slot of the participant in the ParticipantRegistry
      * @param participantNameWidth  The width of the TextView displaying the participant's name
      */
     public ParticipantDisplay(RelativeLayout relativeLayout, Context context, ParticipantData participantData,
-    		int participantNameWidth) {
+    		int participantSlot, int participantNameWidth) {
         super(context);
 
         setOrientation(LinearLayout.VERTICAL);
         setGravity(Gravity.CENTER_HORIZONTAL);
 
         this.participantData = participantData;
+        this.participantSlot = participantSlot;
 
         targetArrow = new URLImageView(context, TARGET_ARROW_WIDTH, TARGET_ARROW_HEIGHT+TARGET_ARROW_BOTTOM_PADDING);
         targetArrow.setImageDrawable(context.getResources().getDrawable(R.drawable.target_arrow));
@@ -158,6 +166,10 @@ public class ParticipantDisplay extends LinearLayout {
         return participantData.getParticipantId();
     }
 
+    public int getParticipantSlot() {
+        return participantSlot;
+    }
+
     public String getParticipantName() {
         return participantData.getParticipantName();
     }
@@ -216,6 +228,20 @@ public class ParticipantDisplay extends LinearLayout {
     	return participantData.getUsedPowerup();
     }
 
+    /**
+     * Records the sequence number of an incoming score update
+     * if it is newer than the latest one applied.
+     * Sequence numbers are compared allowing for wrap around.
+     * @param sequence The sequence number of the score update
+     * @return         Whether the score update is newer and should be applied
+     */
+    public boolean registerScoreSequence(int sequence) {
+        if (sequence-lastScoreSequence <= 0)
+            return false;
+        lastScoreSequence = sequence;
+        return true;
+    }
+
     public void setScoreAndLinesSorted(int score, int linesSorted) {
         participantData.setScoreAndLinesSorted(score, linesSorted);
         scoreLabel.setScore(participantData.getScore());
@@ -0,0 +1,182 @@
+package com.vengestudios.sortme.game;
+
+import java.util.Arrays;
+
+import com.vengestudios.sortme.ParticipantRegistry;
+
+/**
+ * Estimates the round trip time to each participant, and the offset of
+ * each participant's clock from one's own, from PING/PONG exchanges
+ *
+ * Each exchange gives one sample, NTP style, from
+ *  - t0, the local time the PING was sent
+ *  - t1, the participant's time the PONG was sent
+ *  - t2, the local time the PONG was received
+ * with the round trip time being (t2 - t0),
+ * and the clock offset being t1 - (t0 + t2)/2.
+ *
+ * The round trip time is smoothed with an exponentially weighted moving
+ * average. The clock offset is taken from the sample with the lowest round
+ * trip time among the recent samples, as the error of the offset of a sample
+ * is bounded by half its round trip time.
+ */
+public class PeerLatencyEstimator {
+
+    // Used to denote the absence of an estimate
+    public static final int NO_ESTIMATE = -1;
+
+    // The weight of a new sample in the smoothed round trip time
+    private static final float SMOOTHING_GAIN    = .125f;
+
+    // The number of recent samples the lowest round trip time is taken from
+    private static final int   MIN_FILTER_WINDOW = 8;
+
+    // The estimates indexed by the slots of the participants
+    private float[]  smoothedRoundTripTimes;
+    private int[]    minRoundTripTimes;
+    private long[]   clockOffsets;
+    private int[]    sampleCounts;
+
+    // The recent samples of each participant, in a ring of MIN_FILTER_WINDOW
+    private int[][]  windowRoundTripTimes;
+    private long[][] windowClockOffsets;
+
+    // The metrics hook, can be null
+    private PeerLatencyListener peerLatencyListener;
+
+    /**
+     * Constructor
+     * Creates a PeerLatencyEstimator with no samples
+     */
+    public PeerLatencyEstimator() {
+        smoothedRoundTripTimes = new float[ParticipantRegistry.MAX_PARTICIPANTS];
+        minRoundTripTimes      = new int  [ParticipantRegistry.MAX_PARTICIPANTS];
+        clockOffsets           = new long [ParticipantRegistry.MAX_PARTICIPANTS];
+        sampleCounts           = new int  [ParticipantRegistry.MAX_PARTICIPANTS];
+        windowRoundTripTimes   = new int  [ParticipantRegistry.MAX_PARTICIPANTS][MIN_FILTER_WINDOW];
+        windowClockOffsets     = new long [ParticipantRegistry.MAX_PARTICIPANTS][MIN_FILTER_WINDOW];
+    }
+
+    /**
+     * Registers the PeerLatencyListener called with every new sample
+     * @param peerLatencyListener
+     */
+    public void registerPeerLatencyListener(PeerLatencyListener peerLatencyListener) {
+        this.peerLatencyListener = peerLatencyListener;
+    }
+
+    /**
+     * Forgets the samples of every participant, for a new game
+     */
+    public void reset() {
+        Arrays.fill(sampleCounts, 0);
+    }
+
+    /**
+     * Registers the sample of a PING/PONG exchange
+     * @param participantSlot The slot of the participant who replied
+     * @param sentTime        The local time the PING was sent
+     * @param replyTime       The participant's time the PONG was sent
+     * @param receivedTime    The local time the PONG was received
+     */
+    public void registerSample(int participantSlot, long sentTime, long replyTime, long receivedTime) {
+        long roundTripTime = receivedTime - sentTime;
+        if (roundTripTime<0 || roundTripTime>Integer.MAX_VALUE)
+            return;
+        long clockOffset = replyTime - (sentTime + receivedTime)/2;
+
+        int sampleCount = sampleCounts[participantSlot];
+        if (sampleCount==0)
+            smoothedRoundTripTimes[participantSlot] = roundTripTime;
+        else
+            smoothedRoundTripTimes[participantSlot] +=
+                    SMOOTHING_GAIN*(roundTripTime - smoothedRoundTripTimes[participantSlot]);
+
+        int index = sampleCount % MIN_FILTER_WINDOW;
+        windowRoundTripTimes[participantSlot][index] = (int)roundTripTime;
+        windowClockOffsets  [participantSlot][index] = clockOffset;
+        sampleCounts[participantSlot] = ++sampleCount;
+
+        // Take the clock offset of the recent sample with the lowest round trip time
+        int[]  roundTripTimes = windowRoundTripTimes[participantSlot];
+        int    minIndex       = 0;
+        int    windowSize     = Math.min(sampleCount, MIN_FILTER_WINDOW);
+        for (int i=1; i<windowSize; ++i)
+            if (roundTripTimes[i] < roundTripTimes[minIndex])
+                minIndex = i;
+        minRoundTripTimes[participantSlot] = roundTripTimes[minIndex];
+        clockOffsets     [participantSlot] = windowClockOffsets[participantSlot][minIndex];
+
+        if (peerLatencyListener!=null)
+            peerLatencyListener.onPeerLatencyUpdated(participantSlot, (int)roundTripTime,
+                    getSmoothedRoundTripTime(participantSlot),
+                    minRoundTripTimes[participantSlot], clockOffsets[participantSlot]);
+    }
+
+    /**
+     * @param participantSlot The slot of the participant
+     * @return                Whether there is an estimate for the participant
+     */
+    public boolean hasEstimate(int participantSlot) {
+        return sampleCounts[participantSlot]>0;
+    }
+
+    /**
+     * @param participantSlot The slot of the participant
+     * @return                The smoothed round trip time in milliseconds, NO_ESTIMATE if there is none
+     */
+    public int getSmoothedRoundTripTime(int participantSlot) {
+        if (sampleCounts[participantSlot]==0)
+            return NO_ESTIMATE;
+        return Math.round(smoothedRoundTripTimes[participantSlot]);
+    }
+
+    /**
+     * @param participantSlot The slot of the participant
+     * @return                The lowest round trip time of the recent samples in milliseconds,
+     *                        NO_ESTIMATE if there is none
+     */
+    public int getMinRoundTripTime(int participantSlot) {
+        if (sampleCounts[participantSlot]==0)
+            return NO_ESTIMATE;
+        return minRoundTripTimes[participantSlot];
+    }
+
+    /**
+     * @param participantSlot The slot of the participant
+     * @return                The milliseconds the participant's clock is ahead of one's own,
+     *                        0 if there is no estimate
+     */
+    public long getClockOffset(int participantSlot) {
+        if (sampleCounts[participantSlot]==0)
+            return 0;
+        return clockOffsets[participantSlot];
+    }
+
+    /**
+     * @param participantSlot The slot of the participant
+     * @param participantTime A time in the participant's clock
+     * @return                The same time in one's own clock
+     */
+    public long toLocalTime(int participantSlot, long participantTime) {
+        return participantTime - getClockOffset(participantSlot);
+    }
+
+    /**
+     * @param participantSlots A bitmask of the slots of participants
+     * @return                 The slot of the participant with the highest smoothed
+     *                         round trip time, NO_SLOT if none of them has an estimate
+     */
+    public int getSlowestParticipantSlot(long participantSlots) {
+        int   slowestSlot          = ParticipantRegistry.NO_SLOT;
+        float slowestRoundTripTime = -1;
+        for (long remaining=participantSlots; remaining!=0; remaining&=remaining-1) {
+            int slot = Long.numberOfTrailingZeros(remaining);
+            if (sampleCounts[slot]>0 && smoothedRoundTripTimes[slot]>slowestRoundTripTime) {
+                slowestSlot          = slot;
+                slowestRoundTripTime = smoothedRoundTripTimes[slot];
+            }
+        }
+        return slowestSlot;
+    }
+}
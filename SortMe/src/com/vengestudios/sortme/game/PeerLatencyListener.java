@@ -0,0 +1,18 @@
+package com.vengestudios.sortme.game;
+
+/**
+ * An interface used as a metrics hook for the estimates of the
+ * PeerLatencyEstimator, called every time a new sample is registered
+ */
+public interface PeerLatencyListener {
+
+    /**
+     * @param participantSlot        The slot of the participant
+     * @param roundTripTime          The round trip time of the latest sample in milliseconds
+     * @param smoothedRoundTripTime  The smoothed round trip time in milliseconds
+     * @param minRoundTripTime       The lowest round trip time of the recent samples in milliseconds
+     * @param clockOffset            The milliseconds the participant's clock is ahead of one's own
+     */
+    public void onPeerLatencyUpdated(int participantSlot, int roundTripTime,
+            int smoothedRoundTripTime, int minRoundTripTime, long clockOffset);
+}
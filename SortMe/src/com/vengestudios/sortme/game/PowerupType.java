@@ -23,15 +23,13 @@ public enum PowerupType {
         this.colorHexString       = colorHexString;
         this.darkerColorHexString = darkerColorHexString;
     }
+    // Cached copy of values(), which clones the array on every call
+    private static final PowerupType[] VALUES = values();
+
     public static PowerupType ordinalToPowerupType(int i) {
-        for (PowerupType powerupType:PowerupType.values()) {
-            if (powerupType.ordinal()==i)
-                return powerupType;
-        }
-        return null;
-    }
-    public static PowerupType ordinalToPowerupType(String string) {
-        return ordinalToPowerupType(Integer.parseInt(string));
+        if (i<0 || i>=VALUES.length)
+            return null;
+        return VALUES[i];
     }
     public boolean isOffensive(){
         if (this==SHIELD) return false;
@@ -0,0 +1,333 @@
+package com.vengestudios.sortme.game;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates the sequence of puzzles of a game from the seed of the room,
+ * so that every participant in the room is given the same puzzles
+ *
+ * Responsible for:
+ *
+ *  - Generating each puzzle from the room seed and its index in the sequence
+ *    alone, so a puzzle does not depend on the ones before it, which may
+ *    differ in size between the participants as rows are UpSized
+ *
+ *  - Generating each puzzle in a single pass that cannot produce a sorted row:
+ *    the values are distinct, and the arrangement of the tiles is drawn
+ *    uniformly from all the arrangements except the sorted one
+ *
+ *  - Pregenerating the next puzzles of the standard sizes on a background
+ *    thread, and handing them out in O(1)
+ *
+ * A puzzle is handed out by copying the values of its tiles in ascending order,
+ * and the position of each tile in the row, into the arrays of the caller.
+ * The Puzzles holding them are recycled, so no garbage is made once there
+ * are enough of them to keep the next puzzles ready.
+ *
+ * The methods may be called from any thread.
+ */
+public class PuzzleGenerator {
+
+    // The number of puzzles kept ready ahead of the one being sorted
+    public static final int DEFAULT_PREGENERATED_PUZZLES = 4;
+
+    // n! for every number of tiles a puzzle may have
+    private static final long[] FACTORIALS = new long[PuzzleModel.MAX_NO_OF_TILES+1];
+    static {
+        FACTORIALS[0] = 1;
+        for (int i=1; i<FACTORIALS.length; ++i)
+            FACTORIALS[i] = FACTORIALS[i-1]*i;
+    }
+
+    private final int                 pregeneratedPuzzles;
+
+    // The seed of the room, and the puzzles pregenerated from it in ascending order of index
+    private long                      roomSeed;
+    private final ArrayDeque<Puzzle>  puzzles;
+
+    // The Puzzles that have been handed out or discarded, to be generated into again
+    private final ArrayDeque<Puzzle>  freePuzzles;
+
+    // The index of the next puzzle that will be asked for
+    private int                       nextPuzzleIndex;
+
+    // Generates the puzzles asked for before they have been pregenerated,
+    // into the inline Puzzle, and those of the background thread
+    private final SequenceGenerator   inlineGenerator;
+    private final Puzzle              inlinePuzzle;
+    private final SequenceGenerator   backgroundGenerator;
+
+    // The background thread, whether a refill is pending on it, and the refill itself
+    private final ExecutorService     executor;
+    private final AtomicBoolean       refillPending;
+    private final Runnable            refillRunnable;
+
+    /**
+     * Constructor
+     *
+     * Creates the PuzzleGenerator with the default number of pregenerated puzzles
+     */
+    public PuzzleGenerator() {
+        this(DEFAULT_PREGENERATED_PUZZLES);
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates the PuzzleGenerator. Nothing is pregenerated until the room seed is set.
+     *
+     * @param pregeneratedPuzzles The number of puzzles kept ready
+     */
+    public PuzzleGenerator(int pregeneratedPuzzles) {
+        this.pregeneratedPuzzles = pregeneratedPuzzles;
+        puzzles             = new ArrayDeque<Puzzle>(pregeneratedPuzzles);
+        freePuzzles         = new ArrayDeque<Puzzle>(pregeneratedPuzzles);
+        inlineGenerator     = new SequenceGenerator();
+        inlinePuzzle        = new Puzzle();
+        backgroundGenerator = new SequenceGenerator();
+
+        refillPending  = new AtomicBoolean(false);
+        refillRunnable = new RefillRunnable();
+        executor       = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PuzzleGenerator");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the seed of the room, discarding the puzzles pregenerated from
+     * the last seed, and starts pregenerating the puzzles from the first
+     * @param roomSeed The seed shared by every participant in the room
+     */
+    public void setRoomSeed(long roomSeed) {
+        synchronized (this) {
+            this.roomSeed   = roomSeed;
+            nextPuzzleIndex = 0;
+            while (puzzles.isEmpty()==false)
+                freePuzzles.addLast(puzzles.removeFirst());
+        }
+        requestRefill();
+    }
+
+    /**
+     * @param roomId The ID of the room, which every participant in the room is given
+     * @return       The seed of the room, a 64 bit FNV-1a hash of the room ID,
+     *               so every participant derives the same seed without exchanging it
+     */
+    public static long getRoomSeed(String roomId) {
+        long seed = 0xCBF29CE484222325L;
+        for (int i=0; i<roomId.length(); ++i) {
+            seed ^= roomId.charAt(i);
+            seed *= 0x100000001B3L;
+        }
+        return seed;
+    }
+
+    /**
+     * Takes a puzzle of the sequence, pregenerated if it has the standard size,
+     * or generates it inline if not, then requests the following puzzles
+     * to be pregenerated
+     *
+     * @param puzzleIndex The index of the puzzle in the sequence
+     * @param noOfTiles   The number of tiles of the puzzle
+     * @param values      Filled with the values of the tiles, distinct and in ascending order
+     * @param positions   Filled with the position of each tile in the row
+     * @return            The bitmask of the tiles to mark as added if the puzzle is UpSized
+     */
+    public int takePuzzle(int puzzleIndex, int noOfTiles, int[] values, int[] positions) {
+        int upsizedTiles = -1;
+        long seed;
+        synchronized (this) {
+            while (puzzles.isEmpty()==false && puzzles.peekFirst().puzzleIndex<=puzzleIndex) {
+                Puzzle pregenerated = puzzles.removeFirst();
+                if (pregenerated.puzzleIndex==puzzleIndex && pregenerated.noOfTiles==noOfTiles)
+                    upsizedTiles = pregenerated.copyTo(values, positions);
+                freePuzzles.addLast(pregenerated);
+            }
+            nextPuzzleIndex = puzzleIndex+1;
+            seed            = roomSeed;
+        }
+        if (upsizedTiles==-1) {
+            synchronized (inlineGenerator) {
+                inlineGenerator.generate(seed, puzzleIndex, noOfTiles, inlinePuzzle);
+                upsizedTiles = inlinePuzzle.copyTo(values, positions);
+            }
+        }
+        requestRefill();
+        return upsizedTiles;
+    }
+
+    /**
+     * Stops the background thread once it has finished the puzzle it is generating.
+     * Puzzles taken after this are generated inline.
+     */
+    public void quit() {
+        executor.shutdown();
+    }
+
+    /**
+     * Posts a refill of the pregenerated puzzles to the background thread,
+     * if one is not already pending
+     */
+    private void requestRefill() {
+        if (executor.isShutdown() || refillPending.compareAndSet(false, true)==false)
+            return;
+        executor.execute(refillRunnable);
+    }
+
+    /**
+     * A Runnable to pregenerate the puzzles following the
+     * last one taken on the background thread
+     */
+    private class RefillRunnable implements Runnable {
+        @Override
+        public void run() {
+
+            // Cleared before refilling, so that a puzzle taken
+            // during the refill requests another one
+            refillPending.set(false);
+            while (true) {
+                long   seed;
+                int    puzzleIndex;
+                Puzzle puzzle;
+                synchronized (PuzzleGenerator.this) {
+                    if (puzzles.size()>=pregeneratedPuzzles)
+                        return;
+                    seed        = roomSeed;
+                    puzzleIndex = puzzles.isEmpty() ? nextPuzzleIndex : puzzles.peekLast().puzzleIndex+1;
+                    puzzle      = freePuzzles.isEmpty() ? new Puzzle() : freePuzzles.removeFirst();
+                }
+                backgroundGenerator.generate(seed, puzzleIndex,
+                        PuzzleModel.getStandardNoOfTiles(puzzleIndex), puzzle);
+
+                // Discarded if the seed has changed or the puzzle has been
+                // taken while it was being generated
+                synchronized (PuzzleGenerator.this) {
+                    int expectedIndex = puzzles.isEmpty() ? nextPuzzleIndex : puzzles.peekLast().puzzleIndex+1;
+                    if (seed==roomSeed && puzzleIndex==expectedIndex)
+                        puzzles.addLast(puzzle);
+                    else
+                        freePuzzles.addLast(puzzle);
+                }
+            }
+        }
+    }
+
+    /**
+     * A puzzle of the sequence, generated into again once it has been handed out
+     */
+    private static class Puzzle {
+
+        private int         puzzleIndex;
+        private int         noOfTiles;
+
+        // The values of the tiles, distinct and in ascending order,
+        // and the position of each tile in the row
+        private final int[] values    = new int[PuzzleModel.MAX_NO_OF_TILES];
+        private final int[] positions = new int[PuzzleModel.MAX_NO_OF_TILES];
+
+        // The bitmask of the tiles to mark as added if the puzzle is UpSized
+        private int         upsizedTiles;
+
+        /**
+         * Copies the values and positions of the tiles
+         * @return The bitmask of the tiles to mark as added if the puzzle is UpSized
+         */
+        public int copyTo(int[] values, int[] positions) {
+            System.arraycopy(this.values,    0, values,    0, noOfTiles);
+            System.arraycopy(this.positions, 0, positions, 0, noOfTiles);
+            return upsizedTiles;
+        }
+    }
+
+    /**
+     * Generates puzzles from the room seed, holding the Random and the scratch
+     * space used, so it must only be used by one thread at a time
+     */
+    private static class SequenceGenerator {
+
+        private final Random    random;
+        private final boolean[] chosenValues;
+
+        public SequenceGenerator() {
+            random       = new Random();
+            chosenValues = new boolean[PuzzleModel.MAX_TILE_VALUE-PuzzleModel.MIN_TILE_VALUE+1];
+        }
+
+        /**
+         * Generates a puzzle, which is the same for the same
+         * room seed, index and number of tiles
+         * @param roomSeed    The seed of the room
+         * @param puzzleIndex The index of the puzzle in the sequence
+         * @param noOfTiles   The number of tiles of the puzzle
+         * @param puzzle      The Puzzle to generate into
+         */
+        public void generate(long roomSeed, int puzzleIndex, int noOfTiles, Puzzle puzzle) {
+            random.setSeed(getPuzzleSeed(roomSeed, puzzleIndex));
+
+            // Floyd's algorithm, choosing distinct values that are
+            // read out in ascending order from the choices
+            int valueRange = chosenValues.length;
+            for (int i=0; i<valueRange; ++i)
+                chosenValues[i] = false;
+            for (int i=valueRange-noOfTiles; i<valueRange; ++i) {
+                int value = random.nextInt(i+1);
+                chosenValues[chosenValues[value] ? i : value] = true;
+            }
+            int[] values = puzzle.values;
+            for (int value=0, tile=0; tile<noOfTiles; ++value)
+                if (chosenValues[value])
+                    values[tile++] = value+PuzzleModel.MIN_TILE_VALUE;
+
+            // The arrangement of rank 0 is the sorted one, so the rank is drawn from the rest.
+            // The modulo bias is below 1 in 2^20 as 15! is far below 2^63.
+            long  rank      = 1 + (random.nextLong()>>>1) % (FACTORIALS[noOfTiles]-1);
+            int[] positions = puzzle.positions;
+            int   freePositions = (1<<noOfTiles)-1;
+            for (int tile=0; tile<noOfTiles; ++tile) {
+                long factorial = FACTORIALS[noOfTiles-1-tile];
+                int  digit     = (int)(rank/factorial);
+                rank          %= factorial;
+
+                // Takes the digit-th lowest free position
+                int free = freePositions;
+                for (int i=0; i<digit; ++i)
+                    free &= free-1;
+                int position = Integer.numberOfTrailingZeros(free);
+                positions[tile] = position;
+                freePositions  &= ~(1<<position);
+            }
+
+            int upsizedTiles = 0;
+            for (int i=Math.max(noOfTiles-PuzzleModel.UPSIZE_NO_OF_ADDED_TILES, 0); i<noOfTiles; ++i) {
+                int tile = random.nextInt(i+1);
+                upsizedTiles |= 1 << ((upsizedTiles & (1<<tile))!=0 ? i : tile);
+            }
+
+            puzzle.puzzleIndex  = puzzleIndex;
+            puzzle.noOfTiles    = noOfTiles;
+            puzzle.upsizedTiles = upsizedTiles;
+        }
+
+        /**
+         * @return The seed of a puzzle, spreading the room seed and the index
+         *         over every bit so that neighbouring puzzles are unrelated
+         */
+        private static long getPuzzleSeed(long roomSeed, int puzzleIndex) {
+            long seed = roomSeed + (puzzleIndex+1)*0x9E3779B97F4A7C15L;
+            seed = (seed ^ (seed>>>30)) * 0xBF58476D1CE4E5B9L;
+            seed = (seed ^ (seed>>>27)) * 0x94D049BB133111EBL;
+            return seed ^ (seed>>>31);
+        }
+    }
+}
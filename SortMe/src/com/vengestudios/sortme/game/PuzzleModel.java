@@ -0,0 +1,400 @@
+package com.vengestudios.sortme.game;
+
+import com.vengestudios.sortme.helpers.logic.Randomizer;
+
+/**
+ * The state of the row of tiles the user is sorting, kept apart from the
+ * Views of the TileSorterControl so it can be run on a plain JVM
+ *
+ * Responsible For:
+ *
+ *  - Making rows(decks) of tiles to sort in ascending order, taking the
+ *    puzzles of the room's sequence in turn from a PuzzleGenerator
+ *
+ *  - Growing the rows as more of them are sorted
+ *
+ *  - Keeping track of the value and position of every tile, and of the
+ *    tile at every position, in primitive arrays indexed by tile and position
+ *
+ *  - Swapping and randomizing the positions of tiles
+ *
+ *  - Keeping a running count of the adjacent tiles that are out of order,
+ *    updated in O(1) for every swap, so whether the row is sorted is known
+ *    without scanning it, and the PuzzleSortedListener can be told the
+ *    moment it becomes sorted
+ *
+ *  - Keeping track of the PowerUp statuses of the user, and the rules they
+ *    impose on the puzzle
+ *    > Bubbletized
+ *    > Shielded
+ *    > Has next puzzle UpSized
+ *
+ * A tile keeps its index for the whole puzzle, the TileSorterControl
+ * showing tile i with the i-th of its Tiles, while its position changes
+ * as it is swapped. The values are assigned in ascending order of index,
+ * so the row is sorted when the tiles are in the order of their values.
+ *
+ * Not thread safe, and only used from the UI thread.
+ */
+public class PuzzleModel {
+
+    // Game mechanics constants
+    public static final int MAX_NO_OF_TILES          = 15;
+    public static final int MIN_NO_OF_TILES          = 2;
+    public static final int STARTING_NO_OF_TILES     = 5;
+    public static final int MAX_STANDARD_NO_OF_TILES = 10;
+    public static final int PUZZLES_PER_ADDED_TILE   = 5;
+    public static final int UPSIZE_NO_OF_ADDED_TILES = 2;
+    public static final int MIN_TILE_VALUE           = 0;
+    public static final int MAX_TILE_VALUE           = 99;
+
+    // The value and position of every tile, indexed by tile,
+    // and the tile at every position, indexed by position
+    private final int[]     values;
+    private final int[]     positions;
+    private final int[]     tilesAtPositions;
+
+    // Whether each tile has been added to the puzzle by an UpSize
+    private final boolean[] upsizedTiles;
+
+    // Holds the positions being shuffled by randomize
+    private final int[]     shuffledPositions;
+
+    private int             noOfTiles;
+
+    // Generates the puzzles, and the index of the current one in the room's sequence
+    private final PuzzleGenerator puzzleGenerator;
+    private int             puzzleIndex;
+
+    // The number of positions whose tile has a lower value
+    // than the tile at the position before it
+    private int             descents;
+
+    // Called when the row becomes sorted
+    private PuzzleSortedListener puzzleSortedListener;
+
+    // PowerUp statuses
+    private boolean         bubbletized;
+    private boolean         shielded;
+    private boolean         nextPuzzleUpsized;
+
+    /**
+     * Constructor
+     *
+     * Creates a PuzzleModel with no tiles
+     */
+    public PuzzleModel() {
+        puzzleGenerator   = new PuzzleGenerator();
+        values            = new int[MAX_NO_OF_TILES];
+        positions         = new int[MAX_NO_OF_TILES];
+        tilesAtPositions  = new int[MAX_NO_OF_TILES];
+        upsizedTiles      = new boolean[MAX_NO_OF_TILES];
+        shuffledPositions = new int[MAX_NO_OF_TILES];
+    }
+
+    /**
+     * Registers the PuzzleSortedListener called when the row becomes sorted
+     * @param puzzleSortedListener
+     */
+    public void registerPuzzleSortedListener(PuzzleSortedListener puzzleSortedListener) {
+        this.puzzleSortedListener = puzzleSortedListener;
+    }
+
+    /**
+     * Sets the seed of the room, which the sequence of puzzles is generated from.
+     * Every participant given the same seed is given the same puzzles.
+     * @param roomSeed The seed of the room
+     */
+    public void setRoomSeed(long roomSeed) {
+        puzzleGenerator.setRoomSeed(roomSeed);
+    }
+
+    /**
+     * Stops the background thread of the PuzzleGenerator.
+     * Puzzles taken after this are generated inline.
+     */
+    public void quit() {
+        puzzleGenerator.quit();
+    }
+
+    /**
+     * @param puzzleIndex The index of a puzzle in the room's sequence
+     * @return            The number of tiles of the puzzle if it is not UpSized
+     */
+    public static int getStandardNoOfTiles(int puzzleIndex) {
+        return Math.min(STARTING_NO_OF_TILES+puzzleIndex/PUZZLES_PER_ADDED_TILE,
+                MAX_STANDARD_NO_OF_TILES);
+    }
+
+    /**
+     * @return The number of tiles of the current puzzle if it is not UpSized
+     */
+    public int getStandardNoOfTiles() {
+        return getStandardNoOfTiles(puzzleIndex);
+    }
+
+    /**
+     * Makes the first puzzle of the room's sequence
+     * @return The number of tiles in the puzzle
+     */
+    public int makeFirstPuzzle() {
+        puzzleIndex = 0;
+        return makePuzzle(false);
+    }
+
+    /**
+     * Makes the next puzzle of the room's sequence after a row has been sorted,
+     * UpSizing it if the next puzzle has been UpSized
+     * @return The number of tiles in the puzzle
+     */
+    public int makeNextPuzzle() {
+        ++puzzleIndex;
+        boolean upsized   = nextPuzzleUpsized;
+        nextPuzzleUpsized = false;
+        return makePuzzle(upsized);
+    }
+
+    /**
+     * Makes the current puzzle of the room's sequence, which is never already sorted
+     * @param upsized Whether the puzzle is UpSized
+     * @return        The number of tiles in the puzzle
+     */
+    private int makePuzzle(boolean upsized) {
+        int puzzleTileCount = getStandardNoOfTiles(puzzleIndex);
+        if (upsized)
+            puzzleTileCount += UPSIZE_NO_OF_ADDED_TILES;
+        puzzleTileCount = Math.max(MIN_NO_OF_TILES, Math.min(MAX_NO_OF_TILES, puzzleTileCount));
+        noOfTiles       = puzzleTileCount;
+
+        // Taken straight into the arrays of the model
+        int upsizedTileMask = puzzleGenerator.takePuzzle(puzzleIndex, puzzleTileCount, values, positions);
+        for (int i=0; i<puzzleTileCount; ++i) {
+            upsizedTiles[i] = upsized && (upsizedTileMask & (1<<i))!=0;
+            tilesAtPositions[positions[i]] = i;
+        }
+        descents = 0;
+        for (int position=1; position<puzzleTileCount; ++position)
+            descents += getDescent(position);
+        return puzzleTileCount;
+    }
+
+    /**
+     * @return The number of tiles in the puzzle
+     */
+    public int getNoOfTiles() {
+        return noOfTiles;
+    }
+
+    /**
+     * @param tile The index of the tile
+     * @return     The value of the tile
+     */
+    public int getValue(int tile) {
+        return values[tile];
+    }
+
+    /**
+     * @param tile The index of the tile
+     * @return     The position of the tile in the row
+     */
+    public int getPosition(int tile) {
+        return positions[tile];
+    }
+
+    /**
+     * @param position The position in the row
+     * @return         The index of the tile at the position
+     */
+    public int getTileAt(int position) {
+        return tilesAtPositions[position];
+    }
+
+    /**
+     * @param tile The index of the tile
+     * @return     Whether the tile has been added to the puzzle by an UpSize
+     */
+    public boolean isUpsizedTile(int tile) {
+        return upsizedTiles[tile];
+    }
+
+    /**
+     * Checks if the tiles have been sorted, from the running count
+     * of the adjacent tiles that are out of order
+     * @return True if sorted, else False
+     */
+    public boolean isSorted() {
+        return descents==0;
+    }
+
+    /**
+     * Swaps the positions of two tiles
+     * @param tile      The index of a tile
+     * @param otherTile The index of the other tile
+     */
+    public void swapTiles(int tile, int otherTile) {
+        boolean wasSorted = isSorted();
+        swapPositions(positions[tile], positions[otherTile]);
+        notifyIfSorted(wasSorted);
+    }
+
+    /**
+     * @param fromPosition The position of the tile being dragged
+     * @param toPosition   The position of the tile it would be swapped with
+     * @return             Whether the tiles may be swapped, as a Bubbletized user
+     *                     can only swap a tile with the ones next to it
+     */
+    public boolean canSwap(int fromPosition, int toPosition) {
+        return bubbletized==false || Math.abs(fromPosition-toPosition)<=1;
+    }
+
+    /**
+     * Attempts to Randomize the tiles by re-shuffling their positions
+     *
+     * @param excludedPositions The bitmask of the positions of the tiles to leave in place,
+     *                          such as the tile being dragged
+     * @return                  Whether the attempt is successful (not blocked)
+     */
+    public boolean randomize(int excludedPositions) {
+        if (shielded) return false;
+
+        boolean wasSorted = isSorted();
+        int count = 0;
+        for (int position=0; position<noOfTiles; ++position)
+            if ((excludedPositions & (1<<position))==0)
+                shuffledPositions[count++] = position;
+
+        // A Fisher Yates shuffle of the tiles at the positions
+        for (int i=count-1; i>0; --i)
+            swapPositions(shuffledPositions[i], shuffledPositions[Randomizer.randInt(0, i)]);
+
+        notifyIfSorted(wasSorted);
+        return true;
+    }
+
+    /**
+     * @return Whether the user is shielded
+     */
+    public boolean getShielded() {
+        return shielded;
+    }
+
+    /**
+     * Activates the shield
+     */
+    public void shield() {
+        shielded = true;
+    }
+
+    /**
+     * Deactivates the shield
+     */
+    public void unshield() {
+        shielded = false;
+    }
+
+    /**
+     * @return Whether the user is Bubbletized
+     */
+    public boolean isBubbletized() {
+        return bubbletized;
+    }
+
+    /**
+     * Attempts to Bubbletize the user
+     * @return Whether the attempt is successful (not blocked)
+     */
+    public boolean bubbletize() {
+        if (shielded) return false;
+        bubbletized = true;
+        return true;
+    }
+
+    /**
+     * Turns off the bubbletize status for the user
+     */
+    public void unBubbletize() {
+        bubbletized = false;
+    }
+
+    /**
+     * @return Whether the user's next row has been UpSized
+     */
+    public boolean isNextPuzzleUpsized() {
+        return nextPuzzleUpsized;
+    }
+
+    /**
+     * Attempts to UpSize the user's next row
+     * @return Whether the attempt is successful (not blocked)
+     */
+    public boolean upsize() {
+        if (shielded) return false;
+        nextPuzzleUpsized = true;
+        return true;
+    }
+
+    /**
+     * Sets all the status for PowerUps to false
+     */
+    public void resetStatusAilments() {
+        bubbletized       = false;
+        shielded          = false;
+        nextPuzzleUpsized = false;
+    }
+
+    /**
+     * Swaps the tiles at two positions, updating the count of the
+     * adjacent tiles that are out of order from the pairs they are part of
+     * @param position      A position
+     * @param otherPosition The other position
+     */
+    private void swapPositions(int position, int otherPosition) {
+        if (position==otherPosition)
+            return;
+        descents -= getDescentsAround(position, otherPosition);
+        int tile = tilesAtPositions[position];
+        setPosition(tilesAtPositions[otherPosition], position);
+        setPosition(tile, otherPosition);
+        descents += getDescentsAround(position, otherPosition);
+    }
+
+    /**
+     * @return The number of the adjacent tiles that are out of order
+     *         among the pairs either of the positions is part of
+     */
+    private int getDescentsAround(int position, int otherPosition) {
+        int count = getDescent(position) + getDescent(position+1) +
+                    getDescent(otherPosition) + getDescent(otherPosition+1);
+
+        // Positions next to each other share a pair, which is counted twice
+        if (otherPosition==position+1)
+            count -= getDescent(otherPosition);
+        else if (position==otherPosition+1)
+            count -= getDescent(position);
+        return count;
+    }
+
+    /**
+     * @return 1 if the tile at the position has a lower value than
+     *         the tile at the position before it, else 0
+     */
+    private int getDescent(int position) {
+        if (position<1 || position>=noOfTiles)
+            return 0;
+        return values[tilesAtPositions[position]] < values[tilesAtPositions[position-1]] ? 1 : 0;
+    }
+
+    /**
+     * Calls the PuzzleSortedListener if the row has become sorted
+     * @param wasSorted Whether the row was sorted before it was changed
+     */
+    private void notifyIfSorted(boolean wasSorted) {
+        if (wasSorted==false && descents==0 && puzzleSortedListener!=null)
+            puzzleSortedListener.onPuzzleSorted();
+    }
+
+    private void setPosition(int tile, int position) {
+        positions[tile]            = position;
+        tilesAtPositions[position] = tile;
+    }
+}
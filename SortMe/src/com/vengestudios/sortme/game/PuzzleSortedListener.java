@@ -0,0 +1,14 @@
+package com.vengestudios.sortme.game;
+
+/**
+ * An interface that defines the method called by the PuzzleModel
+ * when the row of tiles becomes sorted
+ */
+public interface PuzzleSortedListener {
+
+    /**
+     * Called once each time a swap or a Randomize leaves the row
+     * sorted, having been unsorted before it
+     */
+    public void onPuzzleSorted();
+}
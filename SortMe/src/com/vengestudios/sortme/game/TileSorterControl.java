@@ -1,11 +1,6 @@
 package com.vengestudios.sortme.game;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-
 import com.vengestudios.sortme.R;
-import com.vengestudios.sortme.helpers.logic.CustomSorts;
-import com.vengestudios.sortme.helpers.logic.Randomizer;
 import com.vengestudios.sortme.helpers.ui.Effects;
 import com.vengestudios.sortme.helpers.ui.ScreenDimensions;
 import com.vengestudios.sortme.sound.SoundPlayer;
@@ -21,7 +16,7 @@ import android.view.View;
 import android.view.View.OnTouchListener;
 import android.view.animation.Animation;
 import android.view.animation.Animation.AnimationListener;
-import android.view.animation.TranslateAnimation;
+import android.view.animation.Transformation;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
@@ -31,14 +26,13 @@ import android.widget.RelativeLayout;
  *
  * Responsible For:
  *
- *  - Providing the user with rows(decks) of Tiles to sort in ascending order
+ *  - Providing the user with rows(decks) of Tiles to sort in ascending order,
+ *    showing the puzzles of a PuzzleModel
  *
- *  - Keeping track of the PowerUp statuses of the user
- *    > Bubbletized
- *    > Shielded
- *    > Has next puzzle UpSized
+ *  - Letting the user drag Tiles to swap them, and animating the swaps
  *
- *  - Implementing the game mechanics for the various PowerUp statuses
+ *  - Implementing the looks and sounds of the game mechanics for the
+ *    various PowerUp statuses, which are kept track of by the PuzzleModel
  *
  *  - Incrementing the user's score for successfully sorting each row
  *
@@ -50,16 +44,10 @@ import android.widget.RelativeLayout;
 public class TileSorterControl implements OnTouchListener, GameElement {
 
 	// UI, animation, and game mechanics constants
-    private static final int   MAX_NO_OF_TILES              = 15;
-    private static final int   MIN_NO_OF_TILES              = 2;
-    private static final int   MAX_STANDARD_NO_OF_TILES     = 10;
-    private static final int   UPSIZE_NO_OF_ADDED_TILES     = 2;
-    private static final int   STARTING_NO_OF_TILES         = 5;
+    private static final int   MAX_NO_OF_TILES              = PuzzleModel.MAX_NO_OF_TILES;
     private static final float SCREEN_WIDTH_PERCENTAGE      = 0.88f;
     private static final float SCREEN_HEIGHT_PERCENTAGE     = 0.19f;
     private static final float SCREEN_Y_PERCENTAGE          = 0.73f;
-    private static final int   MIN_TILE_VALUE               = 0;
-    private static final int   MAX_TILE_VALUE               = 99;
     private static final int   INTERSECT_VERTICAL_TOLERANCE = 50;
     private static final int   SWAP_ANIMATION_TIME          = 300;
     private static final int   SORTED_ANIMATION_MOVE_Y      = -150;
@@ -73,6 +61,13 @@ public class TileSorterControl implements OnTouchListener, GameElement {
     private static final int   DISABLED_TILE_TEXT_COLOR     = Color.rgb(150, 150, 150);
     private static final int   TILE_TEXT_COLOR              = Color.rgb(44, 62, 80);
 
+    // The text of every tile value, so showing a puzzle does not create Strings
+    private static final String[] TILE_VALUE_TEXTS = new String[PuzzleModel.MAX_TILE_VALUE+1];
+    static {
+        for (int value=0; value<TILE_VALUE_TEXTS.length; ++value)
+            TILE_VALUE_TEXTS[value] = Integer.toString(value);
+    }
+
     // Dependencies to create UI Elements
     @SuppressWarnings("unused")
 	private RelativeLayout  relativeLayout;
@@ -83,10 +78,13 @@ public class TileSorterControl implements OnTouchListener, GameElement {
     private ImageView       sortedAfterImageView;
     private Rect            sortedAfterImageCropRect;
 
+    // The i-th Tile shows the i-th tile of the PuzzleModel
     private Tile []         tiles;
-    private Tile []         visibleTiles;
     private Tile []         tilesAfterImages;
 
+    // Shared by the Tiles, and resized for every puzzle
+    private RelativeLayout.LayoutParams tileLayoutParams;
+
     private int screenHeight;
     private int screenWidth;
     private int tilesTotalWidth;
@@ -100,16 +98,13 @@ public class TileSorterControl implements OnTouchListener, GameElement {
 
     private boolean needsOldAnimationListener;
 
-    // PowerUp statuses management fields
-    private boolean bubbletized;
-    private boolean disabledForBubbletized;
+    // The state of the puzzle and the PowerUp statuses
+    private PuzzleModel puzzleModel;
 
-    private boolean shielded;
+    private boolean disabledForBubbletized;
 
     private boolean unlocked;
 
-    private boolean nextPuzzleUpsized;
-
     private Handler  checkIsSortedHandler;
     private Runnable checkIsSortedRunnable;
 
@@ -130,19 +125,11 @@ public class TileSorterControl implements OnTouchListener, GameElement {
     private int  currentTilePosition = -1;
 
     private Tile finalIntersectedTile;
-    private int  finalIntersectedTilePosition = -1;
-
-    private Tile  leftmostTile;
-    private float leftmostTileXCoor;
-    private Tile  rightmostTile;
-    private float rightmostTileXCoor;
 
     private int   dragStatus;
     private float initialX;
     private float initialY;
 
-    private boolean readyToTestForSorted;
-
     /**
      * Constructor
      *
@@ -161,6 +148,21 @@ public class TileSorterControl implements OnTouchListener, GameElement {
         dragStatus                = STOP_DRAGGING;
         needsOldAnimationListener = (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN);
         checkIsSortedHandler      = new Handler();
+        checkIsSortedRunnable     = new Runnable() {
+            @Override
+            public void run() {
+                if (puzzleModel.isSorted()) makeNextPuzzle();
+            }
+        };
+        puzzleModel               = new PuzzleModel();
+
+        // Check the row once the swap that sorted it has been animated
+        puzzleModel.registerPuzzleSortedListener(new PuzzleSortedListener() {
+            @Override
+            public void onPuzzleSorted() {
+                autoCheckIsSorted(SWAP_ANIMATION_TIME+AUTO_CHECK_IS_SORTED_DELAY);
+            }
+        });
 
         screenHeight = ScreenDimensions.getHeight(context);
         screenWidth  = ScreenDimensions.getWidth(context);
@@ -175,6 +177,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
                                 tilesTopPadding+tilesTotalHeight+INTERSECT_VERTICAL_TOLERANCE);
         tiles            = new Tile[MAX_NO_OF_TILES];
         tilesAfterImages = new Tile[MAX_NO_OF_TILES];
+        tileLayoutParams = new RelativeLayout.LayoutParams(0, tilesTotalHeight);
 
         tilesLayout      = new RelativeLayout(context);
         RelativeLayout.LayoutParams rlp = new RelativeLayout.LayoutParams(screenWidth, screenHeight);
@@ -191,7 +194,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
                                         tilesTopPadding+tilesTotalHeight);
 
         for (int i=0; i<MAX_NO_OF_TILES; ++i) {
-            Tile tileAfterImage = new Tile(context);
+            Tile tileAfterImage = new Tile(context, i);
             tilesAfterImages[i] = tileAfterImage;
             tileAfterImage.setVisibility(View.INVISIBLE);
             tileAfterImage.setAlpha(.5f);
@@ -199,7 +202,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
             tilesLayout.addView(tileAfterImage);
         }
         for (int i=0; i<MAX_NO_OF_TILES; ++i) {
-            Tile tile = new Tile(context);
+            Tile tile = new Tile(context, i);
             tile.setOnTouchListener(this);
             tiles[i] = tile;
             tile.setVisibility(View.INVISIBLE);
@@ -218,7 +221,8 @@ public class TileSorterControl implements OnTouchListener, GameElement {
 
     @Override
     public void hide(){
-        hidden = true;
+        hidden   = true;
+        unlocked = false;
         for (int i=0; i<MAX_NO_OF_TILES; ++i) {
             tiles[i].setVisibility(View.INVISIBLE);
             tilesAfterImages[i].setVisibility(View.INVISIBLE);
@@ -249,76 +253,83 @@ public class TileSorterControl implements OnTouchListener, GameElement {
     @Override
     public void setupAndAppearForGame() {
         hidden = false;
-        makePuzzle(getStandardNoOfTiles());
+        makeFirstPuzzle();
     }
 
     /**
-     * Makes a new puzzle, formatting the tiles
-     * and sets up the fields for touch handing as required
-     *
-     * @param puzzleTileCount The number of tiles
+     * Sets the seed of the room, which every participant's sequence of puzzles
+     * is generated from. Remakes the first puzzle if the game has yet to start,
+     * and is ignored once it has, so the sequence does not change mid game.
+     * @param roomSeed The seed of the room
+     */
+    public void setRoomSeed(long roomSeed) {
+        if (unlocked) return;
+        puzzleModel.setRoomSeed(roomSeed);
+        makeFirstPuzzle();
+    }
+
+    /**
+     * Stops the background thread pregenerating the puzzles
      */
-    private void makePuzzle (int puzzleTileCount) {
+    public void quit() {
+        puzzleModel.quit();
+    }
+
+    /**
+     * Makes the first puzzle of the room's sequence
+     */
+    private void makeFirstPuzzle() {
         if (hidden) return;
-        puzzleTileCount = Math.max(MIN_NO_OF_TILES, Math.min(MAX_NO_OF_TILES, puzzleTileCount));
+        puzzleModel.makeFirstPuzzle();
+        showPuzzle();
+    }
 
+    /**
+     * Formats the tiles to show the puzzle of the PuzzleModel
+     * and sets up the fields for touch handing as required
+     */
+    private void showPuzzle() {
         Tile tile, tileAfterImage;
+        int puzzleTileCount = puzzleModel.getNoOfTiles();
         tileWidth       = tilesTotalWidth/puzzleTileCount;
         tileWidthHalf   = tileWidth>>1;
         noOfTiles       = puzzleTileCount;
-        visibleTiles    = new Tile[puzzleTileCount];
-
-        RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(tileWidth, tilesTotalHeight);
-
-        int tileValues   [] = new int[puzzleTileCount];
-        int xCoordinates [] = new int[puzzleTileCount];
 
-        for (int i=0; i<puzzleTileCount; ++i)
-            tileValues[i] = Randomizer.randInt(MIN_TILE_VALUE, MAX_TILE_VALUE);
-        CustomSorts.insertionSortAsec(tileValues);
+        tileLayoutParams.width = tileWidth;
 
         for (int i=0; i<puzzleTileCount; ++i) {
-            int x = tilesLeftPadding+i*tileWidth;
+            int position = puzzleModel.getPosition(i);
 
             tile = tiles[i];
             tile.setVisibility(View.VISIBLE);
-            tile.setLayoutParams(layoutParams);
-            tile.setText(Integer.toString(tileValues[i]));
+            tile.setLayoutParams(tileLayoutParams);
+            tile.setText(TILE_VALUE_TEXTS[puzzleModel.getValue(i)]);
+            tile.setTextColor(puzzleModel.isUpsizedTile(i) ? UPSIZED_TILE_TEXT_COLOR : TILE_TEXT_COLOR);
+            tile.setX(tilesLeftPadding+position*tileWidth);
             tile.setY(tilesTopPadding);
-            xCoordinates[i] = x;
+            tile.position = position;
 
             tileAfterImage = tilesAfterImages[i];
             tileAfterImage.setVisibility(View.INVISIBLE);
-            tileAfterImage.setLayoutParams(layoutParams);
-            tileAfterImage.setX(x);
+            tileAfterImage.setLayoutParams(tileLayoutParams);
+            tileAfterImage.setX(tilesLeftPadding+i*tileWidth);
             tileAfterImage.setY(tilesTopPadding);
-
-            visibleTiles[i] = tile;
-        }
-        Randomizer.shuffleArray(xCoordinates);
-        for (int i=0; i<puzzleTileCount; ++i) {
-            tile = tiles[i];
-            int xCoor = xCoordinates[i];
-            tile.setX(xCoor);
-            tile.position = (xCoor-tilesLeftPadding)/tileWidth;
         }
         for (int i=puzzleTileCount; i<MAX_NO_OF_TILES; ++i) {
             tile = tiles[i];
             tile.setVisibility(View.INVISIBLE);
         }
-        tilesTotalRect = new Rect(tilesLeftPadding-tileWidth/2,
+        tilesTotalRect.set(tilesLeftPadding-tileWidth/2,
                             tilesTopPadding-tilesTotalHeight-INTERSECT_VERTICAL_TOLERANCE,
                             tilesLeftPadding+tilesTotalWidth,
                             tilesTopPadding+tilesTotalHeight+INTERSECT_VERTICAL_TOLERANCE);
-
-        if (isSorted(false)) makePuzzle(puzzleTileCount);
     }
 
     /**
      * @return Whether the user is shielded
      */
     public boolean getShielded() {
-        return shielded;
+        return puzzleModel.getShielded();
     }
 
     /**
@@ -326,14 +337,14 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      */
     public void shield() {
         SoundPlayer.play(PowerupType.SHIELD, context, 0, 1.f);
-        shielded = true;
+        puzzleModel.shield();
     }
 
     /**
      * Deactivates the shield
      */
     public void unshield() {
-        shielded = false;
+        puzzleModel.unshield();
     }
 
     /**
@@ -341,9 +352,8 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * @return Whether the attempt is successful (not blocked)
      */
     public boolean bubbletize() {
-        if (shielded) return false;
+        if (puzzleModel.bubbletize()==false) return false;
         SoundPlayer.play(PowerupType.BUBBLETIZE, context, 1, 1.f);
-        bubbletized = true;
         return true;
     }
 
@@ -351,7 +361,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * Turns off the bubbletize status for the user
      */
     public void unBubbletize(){
-        bubbletized = false;
+        puzzleModel.unBubbletize();
     }
 
     /**
@@ -359,25 +369,14 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * @return Whether the attempt is successful (not blocked)
      */
     public boolean upsize() {
-        if (shielded) return false;
-        nextPuzzleUpsized = true;
-        return true;
-    }
-
-    /**
-     * Sets all the status for PowerUps to false
-     */
-    private void resetStatusAilments() {
-    	bubbletized       = false;
-    	shielded          = false;
-    	nextPuzzleUpsized = false;
+        return puzzleModel.upsize();
     }
 
     /**
      * Allows the user to start sorting. Called at the start of a game.
      */
     public void unlock() {
-    	resetStatusAilments();
+    	puzzleModel.resetStatusAilments();
         unlocked          = true;
     }
 
@@ -393,15 +392,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * @param delayInMilliseconds  The duration to delay
      */
     public void autoCheckIsSorted(int delayInMilliseconds) {
-        if (checkIsSortedRunnable!=null) {
-            checkIsSortedHandler.removeCallbacks(checkIsSortedRunnable);
-        }
-        checkIsSortedRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (isSorted(false)) makeNextPuzzle();
-            }
-        };
+        checkIsSortedHandler.removeCallbacks(checkIsSortedRunnable);
         checkIsSortedHandler.postDelayed(checkIsSortedRunnable, delayInMilliseconds);
     }
 
@@ -411,44 +402,23 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * @return Whether the attempt is successful (not blocked)
      */
     public boolean randomize() {
-        if (shielded) return false;
 
-        ArrayList<Tile> originalTiles = new ArrayList<Tile>(noOfTiles);
-        ArrayList<Tile> swappedTiles  = new ArrayList<Tile>(noOfTiles);
+        // The tile being dragged and the tiles still being animated stay where they are
+        int excludedPositions = 0;
         for (int i=0; i<noOfTiles; ++i) {
-            Tile tile  = tiles[i];
-            int tilePosition = tile.position;
-            if (tilePosition!=currentTilePosition &&
-                tilePosition<noOfTiles) {
-                originalTiles.add(tile);
-                swappedTiles .add(tile);
-            }
-        }
-        Randomizer.shuffleArrayList(swappedTiles);
-        float swappedXCoor, swappedYCoor;
-        Tile originalTile, swappedTile;
-        for (int i=0; i<swappedTiles.size(); ++i) {
-            originalTile = originalTiles.get(i);
-            swappedTile  = swappedTiles .get(i);
-            swappedXCoor = swappedTile  .getX();
-            swappedYCoor = swappedTile  .getY();
-            TranslateAnimation animation = new TranslateAnimation(0, 0,
-                    TranslateAnimation.ABSOLUTE, swappedXCoor - originalTile.getX(), 0, 0,
-                    TranslateAnimation.ABSOLUTE, swappedYCoor - originalTile.getY());
-            animation.setDuration(SWAP_ANIMATION_TIME);
-            if (needsOldAnimationListener)
-                originalTile.prepareForRandomizeAnimation((int)swappedXCoor, (int)swappedYCoor, swappedTile.position);
-            else
-                animation.setAnimationListener(new TileAnimationListener(originalTile, swappedXCoor, swappedYCoor, swappedTile.position));
-            originalTile.clearAnimation();
-            originalTile.startAnimation(animation);
+            int tilePosition = tiles[i].position;
+            if (tilePosition==currentTilePosition || tilePosition>=noOfTiles)
+                excludedPositions |= 1<<puzzleModel.getPosition(i);
         }
-        for (int i=0; i<swappedTiles.size(); ++i) {
-            originalTile = originalTiles.get(i);
-            originalTile.position = noOfTiles<<1;
-        }
-        autoCheckIsSorted(SWAP_ANIMATION_TIME+AUTO_CHECK_IS_SORTED_DELAY);
+        if (puzzleModel.randomize(excludedPositions)==false) return false;
 
+        for (int i=0; i<noOfTiles; ++i) {
+            Tile tile = tiles[i];
+            int  swappedPosition = puzzleModel.getPosition(i);
+            if ((excludedPositions & (1<<swappedPosition))!=0)
+                continue;
+            tile.animateTo(tilesLeftPadding+swappedPosition*tileWidth, tilesTopPadding, swappedPosition);
+        }
         SoundPlayer.play(PowerupType.RANDOMIZE, context, 0, 1.f);
 
         return true;
@@ -462,17 +432,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * @param nextId The next position the tile will be at in the row
      */
     private void animateTileSwapTo(Tile tile, int xCoor, int yCoor, int nextId) {
-        TranslateAnimation animation = new TranslateAnimation(0, 0,
-                TranslateAnimation.ABSOLUTE, xCoor - tile.getX(), 0, 0,
-                TranslateAnimation.ABSOLUTE, yCoor - tile.getY());
-        animation.setDuration(SWAP_ANIMATION_TIME);
-        if (needsOldAnimationListener)
-            tile.prepareForSwapAnimation(xCoor, yCoor, nextId);
-        else
-            animation.setAnimationListener(new TileAnimationListenerWithSortedCheck(tile, xCoor, yCoor, nextId));
-        tile.position = noOfTiles<<1;
-        tile.clearAnimation();
-        tile.startAnimation(animation);
+        tile.animateTo(xCoor, yCoor, nextId);
     }
 
     /**
@@ -485,11 +445,8 @@ public class TileSorterControl implements OnTouchListener, GameElement {
         if (disabledForBubbletized) return;
         disabledForBubbletized = true;
         for (int i=0; i<noOfTiles; ++i) {
-            Tile tile = tiles[i];
-            int tilePosition  = tile.position;
-            if (tilePosition>noOfTiles) tilePosition>>=1;
-            if (tilePosition<currentTilePosition-1 || tilePosition>currentTilePosition+1) {
-                tile.setEnabled(false);
+            if (puzzleModel.canSwap(currentTilePosition, puzzleModel.getPosition(i))==false) {
+                tiles[i].setEnabled(false);
             }
         }
     }
@@ -511,101 +468,53 @@ public class TileSorterControl implements OnTouchListener, GameElement {
     }
 
     /**
-     * Calculates the leftmost and rightmost tile currently shown on the screen
-     * in the row.
+     * @param xCoor The X coordinate pixel of the left edge of a tile
+     * @return      The position in the row whose slot the tile is mostly over,
+     *              which may be outside the row
      */
-    private void calculateLeftmostAndRightmostTile(){
-        float maxXCoor = Float.MIN_VALUE;
-        float minXCoor = Float.MAX_VALUE;
-        for (int i=0; i<noOfTiles; ++i) {
-            Tile tile = tiles[i];
-            float xCoor = tile.getX();
-            if (xCoor<minXCoor) {
-                minXCoor = xCoor;
-                leftmostTile = tile;
-            } else if (xCoor>maxXCoor) {
-                maxXCoor = xCoor;
-                rightmostTile = tile;
-            }
-        }
-        leftmostTileXCoor  = minXCoor;
-        rightmostTileXCoor = maxXCoor;
+    private int getSlotAt(float xCoor) {
+        return (int)Math.floor((xCoor-tilesLeftPadding+tileWidthHalf)/tileWidth);
     }
 
     /**
      * Calculates if two tiles have intersected and swaps them if they are.
      * Else, the tile that has been dragged out of position will simply be animated
      * back to its orginal position
+     *
+     * As the tiles sit in the slots of the row, the tile intersected is looked up
+     * in the PuzzleModel from the slot under the dragged tile, in O(1) regardless
+     * of the number of tiles. A tile dragged past either end of the row
+     * intersects the tile at that end, unless the user is Bubbletized.
+     *
      * @param tileXCoor The current X coordinate pixel of the tile being dragged
      * @param tileYCoor The current Y coordinate pixel of the tile being dragged
      */
     private void swapIfIntersect(float tileXCoor, float tileYCoor) {
         if (tilesTotalRect.top<=tileYCoor && tileYCoor<tilesTotalRect.bottom){
-            boolean intersected = false;
+            int slot = getSlotAt(tileXCoor);
+            if (puzzleModel.isBubbletized()==false)
+                slot = Math.max(0, Math.min(noOfTiles-1, slot));
+
             Tile intersectedTile = null;
-            for (int i=0; i<noOfTiles; ++i) {
-                intersectedTile = tiles[i];
-                if (intersectedTile!=currentTile) {
-                    float xDiff = tileXCoor-intersectedTile.getX();
-                    if (xDiff<tileWidthHalf && xDiff>-tileWidthHalf)  {
-                        intersected = intersectedTile.isEnabled();
-                        break;
-                    }
-                }
-            }
-            if (!intersected && !bubbletized) {
-                if (tileXCoor<leftmostTileXCoor && leftmostTile.position<currentTilePosition) {
-                    intersectedTile = leftmostTile;
-                    intersected = true;
-                } else if (tileXCoor>rightmostTileXCoor && rightmostTile.position>currentTilePosition) {
-                    intersectedTile = rightmostTile;
-                    intersected = true;
-                }
-            }
-            if (intersected && intersectedTile.position<noOfTiles) {
+            if (slot>=0 && slot<noOfTiles && slot!=currentTilePosition)
+                intersectedTile = tiles[puzzleModel.getTileAt(slot)];
+
+            // Tiles being animated to their slot are out of the row until they arrive
+            if (intersectedTile!=null && intersectedTile.isEnabled() &&
+                    intersectedTile.position<noOfTiles) {
                 Button tileAfterImage = tilesAfterImages[currentTilePosition];
                 tileAfterImage.setVisibility(View.VISIBLE);
                 tileAfterImage.setText(intersectedTile.getText());
                 finalIntersectedTile = intersectedTile;
-                finalIntersectedTilePosition = intersectedTile.position;
             } else {
                 tilesAfterImages[currentTilePosition].setVisibility(View.INVISIBLE);
                 finalIntersectedTile = null;
-                finalIntersectedTilePosition = -1;
             }
 
         } else {
             tilesAfterImages[currentTilePosition].setVisibility(View.INVISIBLE);
             finalIntersectedTile = null;
-            finalIntersectedTilePosition = -1;
-        }
-    }
-
-    /**
-     * Checks if the tiles have been sorted
-     * @param isFromSwapAnimation  Whether this method is called from the swapping animation
-     * @return True if sorted, else False
-     */
-    private boolean isSorted(boolean isFromSwapAnimation) {
-        if (isFromSwapAnimation) {
-            if (readyToTestForSorted==false) {
-                readyToTestForSorted = true;
-                return false;
-            }
-        }
-        int previousTileValue     = Integer.MIN_VALUE;
-        CustomSorts.insertionSort(visibleTiles, new Comparator<Tile>() {
-            @Override
-            public int compare(Tile lhs, Tile rhs) {
-                return lhs.position-rhs.position;
-            }
-        });
-        for (int i=0; i<noOfTiles; ++i) {
-            int currentTileValue = Integer.parseInt(((Button)visibleTiles[i]).getText().toString());
-            if (currentTileValue<previousTileValue) return false;
-            previousTileValue=currentTileValue;
         }
-        return true;
     }
 
     /**
@@ -621,28 +530,12 @@ public class TileSorterControl implements OnTouchListener, GameElement {
         incrementMPBar();
         incrementOwnScore();
 
-        int nextPuzzleNoOfTiles = getStandardNoOfTiles();
-        if (nextPuzzleUpsized) {
+        if (puzzleModel.isNextPuzzleUpsized())
             SoundPlayer.play(PowerupType.UPSIZE, context, 0, 1.f);
 
-            nextPuzzleNoOfTiles+=UPSIZE_NO_OF_ADDED_TILES;
-            makePuzzle(nextPuzzleNoOfTiles);
-            nextPuzzleUpsized = false;
-            int upsizedTilesIndexes[] = new int[nextPuzzleNoOfTiles];
-            for (int i=0; i<UPSIZE_NO_OF_ADDED_TILES; ++i)
-                upsizedTilesIndexes[i] = 1;
-            Randomizer.shuffleArray(upsizedTilesIndexes);
-            for (int i=0; i<nextPuzzleNoOfTiles; ++i)
-                if (upsizedTilesIndexes[i]==1)
-                    tiles[i].setTextColor(UPSIZED_TILE_TEXT_COLOR);
-                else
-                    tiles[i].setTextColor(TILE_TEXT_COLOR);
-
-        } else {
-            makePuzzle(nextPuzzleNoOfTiles);
-            for (int i=0; i<nextPuzzleNoOfTiles; ++i)
-                tiles[i].setTextColor(TILE_TEXT_COLOR);
-        }
+        if (hidden) return;
+        puzzleModel.makeNextPuzzle();
+        showPuzzle();
     }
 
     /**
@@ -650,11 +543,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      *         It does not factor into account whether the next row is UpSized.
      */
     private int getStandardNoOfTiles() {
-        if (participantCoordinator!=null)
-            return Math.min(STARTING_NO_OF_TILES+participantCoordinator.getOwnLinesSorted()/5,
-            		MAX_STANDARD_NO_OF_TILES);
-        else
-            return STARTING_NO_OF_TILES;
+        return puzzleModel.getStandardNoOfTiles();
     }
 
     /**
@@ -710,8 +599,9 @@ public class TileSorterControl implements OnTouchListener, GameElement {
             if (currentTile==null) return true;
             if (action==MotionEvent.ACTION_CANCEL||action==MotionEvent.ACTION_UP) {
                 dragStatus = STOP_DRAGGING;
-                readyToTestForSorted = false;
                 if (finalIntersectedTile!=null) {
+                    puzzleModel.swapTiles(currentTile.index, finalIntersectedTile.index);
+                    int finalIntersectedTilePosition = puzzleModel.getPosition(currentTile.index);
                     animateTileSwapTo(finalIntersectedTile, tilesLeftPadding+currentTilePosition*tileWidth,
                             tilesTopPadding, currentTilePosition);
                     animateTileSwapTo(currentTile, tilesLeftPadding+finalIntersectedTilePosition*tileWidth,
@@ -728,7 +618,6 @@ public class TileSorterControl implements OnTouchListener, GameElement {
                     dragStatus = CURRENTLY_DRAGGING;
                     initialX = event.getX();
                     initialY = event.getY();
-                    calculateLeftmostAndRightmostTile();
                 } else if (dragStatus==CURRENTLY_DRAGGING) {
                     float xCoor = v.getX();
                     float yCoor = v.getY();
@@ -737,7 +626,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
                     v.setY(event.getY()-initialY+yCoor);
                     pressed = true;
                 }
-                if (bubbletized) disableForBubbletized();
+                if (puzzleModel.isBubbletized()) disableForBubbletized();
                 else              undoDisableForBubbletized();
             }
         }
@@ -747,31 +636,33 @@ public class TileSorterControl implements OnTouchListener, GameElement {
 
     /**
      * An AnimationListener to exclude the tile for being check for
-     * intersection with a dragged tile during the animation
+     * intersection with a dragged tile during the animation.
+     * Each Tile has one, reused for all its animations.
      */
     private class TileAnimationListener implements AnimationListener {
-        Tile tile; float xCoor, yCoor; int nextPosition;
-        public TileAnimationListener(Tile tile, float xCoor, float yCoor, int nextPosition) {
-            this.tile = tile; this.xCoor = xCoor; this.yCoor = yCoor; this.nextPosition = nextPosition;
+        Tile tile;
+        public TileAnimationListener(Tile tile) {
+            this.tile = tile;
         }
         @Override public void onAnimationEnd(Animation animation) {
-            tile.setX(xCoor); tile.setY(yCoor);    tile.position = nextPosition; tile.clearAnimation();
+            tile.finishAnimation();
         }
         @Override public void onAnimationRepeat(Animation arg0) {}
         @Override public void onAnimationStart(Animation arg0) {}
     }
 
     /**
-     * Extends on TileAnimationListener to schedule a check on
-     * whether the row is sorted upon the end of a swapping animation
+     * Moves a Tile by a distance like a TranslateAnimation, but the distance
+     * is set before every start, so each Tile reuses a single TileAnimation
      */
-    private class TileAnimationListenerWithSortedCheck extends TileAnimationListener {
-        public TileAnimationListenerWithSortedCheck(Tile tile, float xCoor, float yCoor, int nextPosition) {
-            super(tile, xCoor, yCoor, nextPosition);
+    private static class TileAnimation extends Animation {
+        private float xDelta, yDelta;
+        public void setDeltas(float xDelta, float yDelta) {
+            this.xDelta = xDelta; this.yDelta = yDelta;
         }
-        @Override public void onAnimationEnd(Animation animation) {
-            super.onAnimationEnd(animation);
-            if (isSorted(true)) makeNextPuzzle();
+        @Override
+        protected void applyTransformation(float interpolatedTime, Transformation t) {
+            t.getMatrix().setTranslate(xDelta*interpolatedTime, yDelta*interpolatedTime);
         }
     }
 
@@ -779,31 +670,45 @@ public class TileSorterControl implements OnTouchListener, GameElement {
      * A subclass of Button with added functionality to facilitate
      * the swapping mechanism.
      *
+     * Shows the tile of the PuzzleModel with the same index. The position is
+     * the one it is shown at, which is out of the row while it is being animated.
+     *
      * Also defines the visual look for the Tile.
      */
     private class Tile extends Button {
-        private static final int RANDOMIZE_ANIMATION = 0;
-        private static final int SWAP_ANIMATION      = 1;
+        public  final int index;
         public  int position;
-        private int nextXCoor, nextYCoor, nextPosition, animationType;
-        public Tile(Context context) {
+        private int nextXCoor, nextYCoor, nextPosition;
+        private TileAnimation animation;
+        public Tile(Context context, int index) {
             super(context);
+            this.index = index;
+
+            animation = new TileAnimation();
+            animation.setDuration(SWAP_ANIMATION_TIME);
+            if (needsOldAnimationListener==false)
+                animation.setAnimationListener(new TileAnimationListener(this));
 
             setTypeface(Typeface.DEFAULT, Typeface.BOLD);
             setTextColor(TILE_TEXT_COLOR);
             setPadding(0, 0, 0, 0);
             setBackgroundResource(R.drawable.tile_9_slice);
         }
-        public void prepareForSwapAnimation(int nextXCoor, int nextYCoor, int nextPosition) {
-            setAnimationVariables(nextXCoor, nextYCoor, nextPosition);
-            animationType = SWAP_ANIMATION;
-        }
-        public void prepareForRandomizeAnimation(int nextXCoor, int nextYCoor, int nextPosition) {
-            setAnimationVariables(nextXCoor, nextYCoor, nextPosition);
-            animationType = RANDOMIZE_ANIMATION;
-        }
-        private void setAnimationVariables(int nextXCoor, int nextYCoor, int nextPosition) {
+        /**
+         * Animates the Tile to a position in the row, taking it out of the row until it arrives
+         */
+        public void animateTo(int nextXCoor, int nextYCoor, int nextPosition) {
+            // Settles a running animation first, which may finish it at its old target
+            clearAnimation();
             this.nextXCoor = nextXCoor; this.nextYCoor = nextYCoor; this.nextPosition = nextPosition;
+            animation.setDeltas(nextXCoor - getX(), nextYCoor - getY());
+            position = noOfTiles<<1;
+            animation.reset();
+            startAnimation(animation);
+        }
+        public void finishAnimation() {
+            position = nextPosition;
+            setX(nextXCoor); setY(nextYCoor); clearAnimation();
         }
         @Override
         public void setEnabled(boolean enabled) {
@@ -819,11 +724,7 @@ public class TileSorterControl implements OnTouchListener, GameElement {
         @Override
         protected void onAnimationEnd() {
             super.onAnimationEnd();
-            position = nextPosition;
-            setX(nextXCoor); setY(nextYCoor); clearAnimation();
-            if (animationType==SWAP_ANIMATION)
-                if (isSorted(true))
-                    makeNextPuzzle();
+            finishAnimation();
         }
     }
 
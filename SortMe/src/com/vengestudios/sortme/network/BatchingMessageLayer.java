@@ -0,0 +1,390 @@
+package com.vengestudios.sortme.network;
+
+import java.util.Arrays;
+
+import com.vengestudios.sortme.MessageLoop;
+import com.vengestudios.sortme.MessageReceiver;
+import com.vengestudios.sortme.MessageSender;
+import com.vengestudios.sortme.ParticipantRegistry;
+
+/**
+ * The "layer" that sits directly above the
+ * Google Game Services "layer" (MainActivity)
+ * and coalesces outgoing messages into batches
+ *
+ * Responsible for:
+ *
+ *  - Buffering outgoing messages per participant, keeping
+ *    reliable and unreliable messages in separate buffers
+ *
+ *  - Flushing each buffer as a single message once the flush interval
+ *    has passed since the first message was buffered, or earlier
+ *    if the next message would not fit in the buffer
+ *
+ *  - Splitting incoming batches back into the original messages
+ *    and passing them to the MessageReceiver in order
+ *
+ * A batch is laid out as repeated frames of
+ * [unsigned variable length int: message length] [message bytes],
+ * using 7 bits per byte, least significant group first.
+ *
+ * Every message sent through the layer is framed, so both sides
+ * of a room need to have the layer enabled.
+ *
+ * Messages are broadcasted from both the network thread of the
+ * OutboundMessagePipeline and the worker thread of the InboundMessagePipeline
+ * (replies to authentication messages), so the methods that touch the
+ * batch buffers are synchronized.
+ */
+public class BatchingMessageLayer implements MessageReceiver, MessageSender {
+
+    // The default time to hold the first message of a batch before flushing
+    public static final int DEFAULT_FLUSH_INTERVAL = 20;
+
+    // The default sizes at which a batch is flushed early,
+    // matching the maximum message lengths of Google Game Services
+    public static final int DEFAULT_MAX_RELIABLE_BATCH_SIZE   = 1400;
+    public static final int DEFAULT_MAX_UNRELIABLE_BATCH_SIZE = 1168;
+
+    // The maximum number of bytes used by the length of a frame
+    private static final int MAX_FRAME_HEADER_SIZE = 5;
+
+	// The MessageReceiver is the "layer"
+	// where all incoming unbatched messages need to be passed to
+    private MessageReceiver messageReceiver;
+
+	// The MessageSender is the "layer"
+	// where all outgoing batches need to be passed to
+    private MessageSender   messageSender;
+
+    // The batch buffers indexed by the slots of the participants,
+    // and the bitmask of the slots that have batch buffers
+    private PeerBatch[]     peerBatches;
+    private long            peerSlots;
+
+    // Settings for when to flush the batches
+    private int             flushInterval;
+    private int             maxReliableBatchSize;
+    private int             maxUnreliableBatchSize;
+
+    // MessageLoop and Runnable to flush the batches after the flush interval
+    private MessageLoop     flushLoop;
+    private FlushRunnable   flushRunnable;
+    private boolean         flushPosted;
+
+    /**
+     * Constructor
+     *
+     * Creates the BatchingMessageLayer with the default flush interval
+     * and batch sizes
+     *
+     * @param messageSender
+     * @param flushLoop
+     */
+    public BatchingMessageLayer(MessageSender messageSender, MessageLoop flushLoop) {
+        this(messageSender, flushLoop, DEFAULT_FLUSH_INTERVAL,
+                DEFAULT_MAX_RELIABLE_BATCH_SIZE, DEFAULT_MAX_UNRELIABLE_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates the BatchingMessageLayer
+     *
+     * @param messageSender          The MessageSender to pass the batches to
+     * @param flushLoop              The MessageLoop of the thread the batches are flushed on
+     * @param flushInterval          The milliseconds to hold the first message of a batch.
+     *                               0 or less sends every message right away in its own batch
+     * @param maxReliableBatchSize   The size in bytes at which a reliable batch is flushed
+     * @param maxUnreliableBatchSize The size in bytes at which an unreliable batch is flushed
+     */
+    public BatchingMessageLayer(MessageSender messageSender, MessageLoop flushLoop,
+            int flushInterval, int maxReliableBatchSize, int maxUnreliableBatchSize) {
+        this.messageSender          = messageSender;
+        this.flushLoop              = flushLoop;
+        this.flushInterval          = flushInterval;
+        this.maxReliableBatchSize   = maxReliableBatchSize;
+        this.maxUnreliableBatchSize = maxUnreliableBatchSize;
+
+        peerBatches   = new PeerBatch[ParticipantRegistry.MAX_PARTICIPANTS];
+        flushRunnable = new FlushRunnable();
+    }
+
+    /**
+     * Registers the MessageReceiver to pass the unbatched incoming messages to
+     * @param messageReceiver
+     */
+    public void registerMessageReceiver(MessageReceiver messageReceiver) {
+        this.messageReceiver = messageReceiver;
+    }
+
+    /**
+     * Registers the MessageLoop of the thread the batches are flushed on after
+     * the flush interval, in place of the one the layer was created with
+     * @param flushLoop
+     */
+    public synchronized void registerFlushLoop(MessageLoop flushLoop) {
+        this.flushLoop.removeCallbacks(flushRunnable);
+        flushPosted    = false;
+        this.flushLoop = flushLoop;
+    }
+
+    /**
+     * Drops all the messages that have yet to be flushed and
+     * forgets the participants of the previous session
+     */
+    public synchronized void prepareForNextSession() {
+        flushLoop.removeCallbacks(flushRunnable);
+        flushPosted = false;
+        Arrays.fill(peerBatches, null);
+        peerSlots = 0;
+    }
+
+    /**
+     * Register the slots of the participants for a new session,
+     * so that messages broadcasted to all will be batched for them
+     *
+     * @param slots The bitmask of the slots of the participants, excluding the user's own
+     */
+    public synchronized void registerSlotsForNewSession(long slots) {
+        for (long remaining=slots; remaining!=0; remaining&=remaining-1)
+            getPeerBatch(Long.numberOfTrailingZeros(remaining));
+    }
+
+    /**
+     * Sends out every buffered batch right away
+     */
+    public synchronized void flush() {
+        flushLoop.removeCallbacks(flushRunnable);
+        flushPosted = false;
+        for (long remaining=peerSlots; remaining!=0; remaining&=remaining-1) {
+            PeerBatch peerBatch = peerBatches[Long.numberOfTrailingZeros(remaining)];
+            peerBatch.flushReliable();
+            peerBatch.flushUnreliable();
+        }
+    }
+
+    /**
+     * Adds the message to the reliable batch of the participant
+     */
+    @Override
+    public synchronized void broadcastReliableMessageToSlot(byte[] message, int toSlot) {
+        getPeerBatch(toSlot).appendReliable(message);
+        scheduleFlush();
+    }
+
+    /**
+     * Adds the message to the unreliable batch of the participant
+     */
+    @Override
+    public synchronized void broadcastUnreliableMessageToSlot(byte[] message, int toSlot) {
+        getPeerBatch(toSlot).appendUnreliable(message);
+        scheduleFlush();
+    }
+
+    /**
+     * Adds the message to the batch of the participant
+     */
+    @Override
+    public void broadcastMessageToSlot(byte[] message, int toSlot,
+            boolean reliable) {
+        if (reliable) broadcastReliableMessageToSlot  (message, toSlot);
+        else          broadcastUnreliableMessageToSlot(message, toSlot);
+    }
+
+    /**
+     * Adds the message to the reliable batch of every registered participant
+     */
+    @Override
+    public synchronized void broadcastReliableMessageToAll(byte[] message,
+            long excludedSlots) {
+        for (long remaining=peerSlots&~excludedSlots; remaining!=0; remaining&=remaining-1)
+            peerBatches[Long.numberOfTrailingZeros(remaining)].appendReliable(message);
+        scheduleFlush();
+    }
+
+    /**
+     * Adds the message to the unreliable batch of every registered participant
+     */
+    @Override
+    public synchronized void broadcastUnreliableMessageToAll(byte[] message,
+            long excludedSlots) {
+        for (long remaining=peerSlots&~excludedSlots; remaining!=0; remaining&=remaining-1)
+            peerBatches[Long.numberOfTrailingZeros(remaining)].appendUnreliable(message);
+        scheduleFlush();
+    }
+
+    /**
+     * Adds the message to the batch of every registered participant
+     */
+    @Override
+    public void broadcastMessageToAll(byte[] message,
+            long excludedSlots, boolean reliable) {
+        if (reliable) broadcastReliableMessageToAll  (message, excludedSlots);
+        else          broadcastUnreliableMessageToAll(message, excludedSlots);
+    }
+
+    /**
+     * Splits an incoming batch into its messages and passes each of them
+     * to the MessageReceiver in order.
+     * The remainder of a malformed batch is dropped.
+     */
+    @Override
+    public void registerMessage(int fromSlot, byte[] batch) {
+        if (messageReceiver==null)
+            return;
+
+        int position = 0;
+        while (position < batch.length) {
+
+            // Read the length of the frame
+            int length = 0;
+            int shift  = 0;
+            int b;
+            do {
+                if (position>=batch.length || shift>=32)
+                    return;
+                b = batch[position++] & 0xFF;
+                length |= (b & 0x7F) << shift;
+                shift  += 7;
+            } while ((b & 0x80) != 0);
+
+            if (length<0 || length>batch.length-position)
+                return;
+
+            messageReceiver.registerMessage(fromSlot,
+                    Arrays.copyOfRange(batch, position, position+length));
+            position += length;
+        }
+    }
+
+    /**
+     * @param slot The slot of the participant
+     * @return     The PeerBatch of the participant, created if it does not yet exist
+     */
+    private PeerBatch getPeerBatch(int slot) {
+        PeerBatch peerBatch = peerBatches[slot];
+        if (peerBatch==null) {
+            peerBatch = new PeerBatch(slot);
+            peerBatches[slot] = peerBatch;
+            peerSlots |= ParticipantRegistry.getMask(slot);
+        }
+        return peerBatch;
+    }
+
+    /**
+     * Posts a flush after the flush interval if one has not yet been posted,
+     * or flushes right away if batching over time is disabled
+     */
+    private void scheduleFlush() {
+        if (flushInterval<=0) {
+            flush();
+        } else if (flushPosted==false) {
+            flushPosted = true;
+            flushLoop.postDelayed(flushRunnable, flushInterval);
+        }
+    }
+
+    /**
+     * @param buffer The buffer to write into
+     * @param offset The index to write the variable length int at
+     * @param value  The value to write
+     * @return       The index after the last byte written
+     */
+    private static int writeVarInt(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte)value;
+        return offset;
+    }
+
+    /**
+     * @param length The length of a message
+     * @return       The length of the message once framed
+     */
+    private static int getFramedLength(int length) {
+        int headerSize = 1;
+        for (int rest=length>>>7; rest!=0; rest>>>=7)
+            ++headerSize;
+        return headerSize + length;
+    }
+
+    /**
+     * The reliable and unreliable batch buffers of a participant
+     */
+    private class PeerBatch {
+
+        private final int slot;
+
+        private byte[] reliableBuffer;
+        private int    reliableLength;
+        private byte[] unreliableBuffer;
+        private int    unreliableLength;
+
+        public PeerBatch(int slot) {
+            this.slot        = slot;
+            reliableBuffer   = new byte[maxReliableBatchSize];
+            unreliableBuffer = new byte[maxUnreliableBatchSize];
+        }
+
+        public void appendReliable(byte[] message) {
+            if (reliableLength + MAX_FRAME_HEADER_SIZE + message.length > reliableBuffer.length)
+                flushReliable();
+            if (MAX_FRAME_HEADER_SIZE + message.length > reliableBuffer.length) {
+                messageSender.broadcastReliableMessageToSlot(getSingleFrame(message), slot);
+                return;
+            }
+            reliableLength = writeVarInt(reliableBuffer, reliableLength, message.length);
+            System.arraycopy(message, 0, reliableBuffer, reliableLength, message.length);
+            reliableLength += message.length;
+        }
+
+        public void appendUnreliable(byte[] message) {
+            if (unreliableLength + MAX_FRAME_HEADER_SIZE + message.length > unreliableBuffer.length)
+                flushUnreliable();
+            if (MAX_FRAME_HEADER_SIZE + message.length > unreliableBuffer.length) {
+                messageSender.broadcastUnreliableMessageToSlot(getSingleFrame(message), slot);
+                return;
+            }
+            unreliableLength = writeVarInt(unreliableBuffer, unreliableLength, message.length);
+            System.arraycopy(message, 0, unreliableBuffer, unreliableLength, message.length);
+            unreliableLength += message.length;
+        }
+
+        public void flushReliable() {
+            if (reliableLength==0)
+                return;
+            byte[] batch = Arrays.copyOf(reliableBuffer, reliableLength);
+            reliableLength = 0;
+            messageSender.broadcastReliableMessageToSlot(batch, slot);
+        }
+
+        public void flushUnreliable() {
+            if (unreliableLength==0)
+                return;
+            byte[] batch = Arrays.copyOf(unreliableBuffer, unreliableLength);
+            unreliableLength = 0;
+            messageSender.broadcastUnreliableMessageToSlot(batch, slot);
+        }
+
+        // Frames a message too large to share a batch with other messages
+        private byte[] getSingleFrame(byte[] message) {
+            byte[] frame  = new byte[getFramedLength(message.length)];
+            int    offset = writeVarInt(frame, 0, message.length);
+            System.arraycopy(message, 0, frame, offset, message.length);
+            return frame;
+        }
+    }
+
+    /**
+     * A Runnable to flush the batches once the flush interval has passed
+     */
+    private class FlushRunnable implements Runnable {
+        @Override
+        public void run() {
+            flush();
+        }
+    }
+}
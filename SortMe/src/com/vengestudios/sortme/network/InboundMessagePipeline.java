@@ -0,0 +1,89 @@
+package com.vengestudios.sortme.network;
+
+import com.vengestudios.sortme.MessageLoop;
+import com.vengestudios.sortme.MessageReceiver;
+
+/**
+ * The "layer" directly below the
+ * Google Game Services "layer" (MainActivity) for incoming messages,
+ * which moves their processing off the UI thread
+ *
+ * Responsible for:
+ *
+ *  - Handing each incoming message over to a dedicated worker thread
+ *
+ *  - Passing the messages to the MessageReceiver on the worker thread,
+ *    in the order they arrived
+ *
+ * Everything below the MessageReceiver, the unbatching, verification,
+ * decryption and decoding, runs on the worker thread. Only the decoded
+ * game events are posted to the UI thread, by the GameMessageReceiver.
+ *
+ * As the single worker thread takes the messages in the order they arrived,
+ * and posts the game events to the UI thread in the same order,
+ * the messages from each participant are handled in the order they were sent.
+ */
+public class InboundMessagePipeline implements MessageReceiver {
+
+	// The MessageReceiver is the "layer"
+	// where all incoming messages are passed to on the worker thread
+    private MessageReceiver messageReceiver;
+
+    // The MessageLoop of the worker thread
+    private MessageLoop     workerLoop;
+
+    /**
+     * Constructor
+     *
+     * Creates the InboundMessagePipeline
+     *
+     * @param messageReceiver The MessageReceiver to pass the messages to on the worker thread
+     * @param workerLoop      The MessageLoop of the worker thread, used by nothing else
+     */
+    public InboundMessagePipeline(MessageReceiver messageReceiver, MessageLoop workerLoop) {
+        this.messageReceiver = messageReceiver;
+        this.workerLoop      = workerLoop;
+    }
+
+    /**
+     * Drops the incoming messages that the worker thread has yet to process
+     */
+    public void prepareForNextSession() {
+        workerLoop.removeAllCallbacks();
+    }
+
+    /**
+     * Stops the worker thread once it has finished the message it is processing.
+     * No messages are processed after this.
+     */
+    public void quit() {
+        workerLoop.quit();
+    }
+
+    /**
+     * Posts the message to the worker thread
+     */
+    @Override
+    public void registerMessage(int fromSlot, byte[] message) {
+        workerLoop.post(new InboundMessageRunnable(fromSlot, message));
+    }
+
+    /**
+     * A Runnable to pass an incoming message to the MessageReceiver on the worker thread
+     */
+    private class InboundMessageRunnable implements Runnable {
+
+        private final int    fromSlot;
+        private final byte[] message;
+
+        public InboundMessageRunnable(int fromSlot, byte[] message) {
+            this.fromSlot = fromSlot;
+            this.message  = message;
+        }
+
+        @Override
+        public void run() {
+            messageReceiver.registerMessage(fromSlot, message);
+        }
+    }
+}
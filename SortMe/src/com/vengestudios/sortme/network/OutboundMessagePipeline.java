@@ -0,0 +1,244 @@
+package com.vengestudios.sortme.network;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vengestudios.sortme.MessageLoop;
+import com.vengestudios.sortme.MessageSender;
+
+/**
+ * The "layer" directly below the game logic layer (GameScreen)
+ * for outgoing messages, which moves the sending of messages off the UI thread
+ *
+ * Responsible for:
+ *
+ *  - Handing each outgoing message over to a dedicated network thread
+ *    through a single-producer/single-consumer ring buffer
+ *
+ *  - Passing the messages to the MessageSender on the network thread,
+ *    in the order they were broadcasted
+ *
+ * Everything below the MessageSender, the encryption, batching and the
+ * calls to Google Game Services, runs on the network thread, so the
+ * game never waits on them.
+ *
+ * The ring buffer is preallocated, so broadcasting a message allocates
+ * nothing. Only one thread, the UI thread, may broadcast through the
+ * pipeline. Should the network thread fall a whole ring behind,
+ * broadcasting waits for it to free up an entry.
+ */
+public class OutboundMessagePipeline implements MessageSender {
+
+    // The default number of messages the ring buffer holds, a power of two
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Flags describing how each queued message is to be broadcasted
+    private static final byte FLAG_RELIABLE = 1;
+    private static final byte FLAG_TO_ALL   = 2;
+
+	// The MessageSender is the "layer"
+	// where all outgoing messages are passed to on the network thread
+    private MessageSender messageSender;
+
+    // The ring buffer, holding the message, the slot it is sent to or
+    // the bitmask of the slots excluded, and its flags
+    private final byte[][] messages;
+    private final int[]    toSlots;
+    private final long[]   excludedSlots;
+    private final byte[]   flags;
+    private final int      mask;
+
+    // The sequence of the next entry to write, only advanced by the UI thread,
+    // and of the next entry to read, only advanced by the network thread
+    private volatile long  writeSequence;
+    private volatile long  readSequence;
+
+    // Entries before this sequence belong to a previous session and are skipped
+    private volatile long  discardSequence;
+
+    // The number of times broadcasting waited for a free entry
+    private volatile long  stallCount;
+
+    // The MessageLoop of the network thread, and whether a wake up is pending on it
+    private MessageLoop    networkLoop;
+    private DrainRunnable  drainRunnable;
+    private AtomicBoolean  drainPosted;
+
+    /**
+     * Constructor
+     *
+     * Creates the OutboundMessagePipeline with the default capacity
+     *
+     * @param messageSender
+     * @param networkLoop
+     */
+    public OutboundMessagePipeline(MessageSender messageSender, MessageLoop networkLoop) {
+        this(messageSender, networkLoop, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates the OutboundMessagePipeline
+     *
+     * @param messageSender The MessageSender to pass the messages to on the network thread
+     * @param networkLoop   The MessageLoop of the network thread
+     * @param capacity      The number of messages the ring buffer holds, a power of two
+     */
+    public OutboundMessagePipeline(MessageSender messageSender, MessageLoop networkLoop,
+            int capacity) {
+        if (capacity<=0 || (capacity & (capacity-1))!=0)
+            throw new IllegalArgumentException("Capacity must be a power of two: "+capacity);
+
+        this.messageSender = messageSender;
+        messages      = new byte[capacity][];
+        toSlots       = new int [capacity];
+        excludedSlots = new long[capacity];
+        flags         = new byte[capacity];
+        mask          = capacity-1;
+
+        this.networkLoop = networkLoop;
+        drainRunnable    = new DrainRunnable();
+        drainPosted      = new AtomicBoolean(false);
+    }
+
+    /**
+     * @return The MessageLoop of the network thread, for layers below the
+     *         pipeline that need to schedule work on it
+     */
+    public MessageLoop getMessageLoop() {
+        return networkLoop;
+    }
+
+    /**
+     * Drops the outgoing messages that the network thread has yet to send
+     */
+    public void prepareForNextSession() {
+        discardSequence = writeSequence;
+    }
+
+    /**
+     * Runs a Runnable on the network thread once the messages broadcasted
+     * before it have been passed on to the MessageSender.
+     * Must be called from the thread that broadcasts through the pipeline.
+     * @param runnable The Runnable
+     */
+    public void runAfterSent(final Runnable runnable) {
+        networkLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                drainRunnable.run();
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Stops the network thread once it has finished the messages it is sending.
+     * No messages are sent after this.
+     */
+    public void quit() {
+        networkLoop.quit();
+    }
+
+    /**
+     * @return The number of times broadcasting had to wait for the network thread
+     */
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    @Override
+    public void broadcastReliableMessageToSlot(byte[] message, int toSlot) {
+        enqueue(message, toSlot, 0, FLAG_RELIABLE);
+    }
+
+    @Override
+    public void broadcastUnreliableMessageToSlot(byte[] message, int toSlot) {
+        enqueue(message, toSlot, 0, (byte)0);
+    }
+
+    @Override
+    public void broadcastMessageToSlot(byte[] message, int toSlot,
+            boolean reliable) {
+        enqueue(message, toSlot, 0, reliable ? FLAG_RELIABLE : 0);
+    }
+
+    @Override
+    public void broadcastReliableMessageToAll(byte[] message,
+            long excludedSlots) {
+        enqueue(message, 0, excludedSlots, (byte)(FLAG_TO_ALL|FLAG_RELIABLE));
+    }
+
+    @Override
+    public void broadcastUnreliableMessageToAll(byte[] message,
+            long excludedSlots) {
+        enqueue(message, 0, excludedSlots, FLAG_TO_ALL);
+    }
+
+    @Override
+    public void broadcastMessageToAll(byte[] message,
+            long excludedSlots, boolean reliable) {
+        enqueue(message, 0, excludedSlots,
+                reliable ? FLAG_TO_ALL|FLAG_RELIABLE : FLAG_TO_ALL);
+    }
+
+    /**
+     * Writes a message into the next entry of the ring buffer,
+     * then wakes up the network thread if it is not already due to run
+     */
+    private void enqueue(byte[] message, int toSlot, long excluded, byte flag) {
+        long sequence = writeSequence;
+        if (sequence-readSequence > mask) {
+            ++stallCount;
+            while (sequence-readSequence > mask)
+                Thread.yield();
+        }
+
+        int index = (int)sequence & mask;
+        messages     [index] = message;
+        toSlots      [index] = toSlot;
+        excludedSlots[index] = excluded;
+        flags        [index] = flag;
+
+        // Publishes the entry to the network thread
+        writeSequence = sequence+1;
+
+        if (drainPosted.compareAndSet(false, true))
+            networkLoop.post(drainRunnable);
+    }
+
+    /**
+     * A Runnable to pass every published entry to the MessageSender on the network thread
+     */
+    private class DrainRunnable implements Runnable {
+        @Override
+        public void run() {
+
+            // Cleared before reading, so that an entry published
+            // after the last read posts another drain
+            drainPosted.set(false);
+
+            long sequence = readSequence;
+            long end      = writeSequence;
+            for (; sequence!=end; ++sequence) {
+                int    index   = (int)sequence & mask;
+                byte[] message = messages[index];
+                messages[index] = null;
+
+                if (sequence-discardSequence < 0)
+                    continue;
+
+                byte    flag     = flags[index];
+                boolean reliable = (flag & FLAG_RELIABLE)!=0;
+                if ((flag & FLAG_TO_ALL)!=0)
+                    messageSender.broadcastMessageToAll(message, excludedSlots[index], reliable);
+                else
+                    messageSender.broadcastMessageToSlot(message, toSlots[index], reliable);
+
+                // Frees the entry for the UI thread
+                readSequence = sequence+1;
+            }
+            readSequence = end;
+        }
+    }
+}
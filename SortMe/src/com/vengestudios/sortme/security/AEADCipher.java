@@ -0,0 +1,169 @@
+package com.vengestudios.sortme.security;
+
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A Cipher that encrypts and authenticates in a single pass using AES-GCM,
+ * for the messages sent in one direction between the user and a client
+ *
+ * Each message is sealed with a counter as its nonce, so a key is never
+ * used twice with the same nonce. The counter is carried in front of the
+ * cipher text, so unreliable messages can be opened in any order.
+ * It doubles as the sequence number of the message, which is checked against
+ * a ReplayWindow so that a message is never opened twice.
+ *
+ * The Cipher instances are created once and reinitialized for every message.
+ * Sealing and opening use separate instances, so one thread may seal while
+ * another opens, but neither may be called from two threads at once.
+ */
+public class AEADCipher {
+
+    // The length in bytes of the AES key, the GCM nonce, the counter and the tag
+    public  static final int KEY_LENGTH     = 16;
+    private static final int NONCE_LENGTH   = 12;
+    public  static final int COUNTER_LENGTH = 4;
+    public  static final int TAG_LENGTH     = 16;
+
+    // The overhead added to every sealed message
+    public  static final int OVERHEAD       = COUNTER_LENGTH + TAG_LENGTH;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    // Whether GCMParameterSpec is available, which is required by
+    // desktop JVMs but only exists from Android API level 19
+    private static final boolean GCM_PARAMETER_SPEC_AVAILABLE = isGCMParameterSpecAvailable();
+
+    private SecretKeySpec key;
+    private Cipher        encrypterCipher;
+    private Cipher        decrypterCipher;
+
+    // The counters of the next reliable and unreliable messages to seal
+    private int           reliableSealCounter;
+    private int           unreliableSealCounter;
+
+    // The counters of the messages opened so far
+    private ReplayWindow  replayWindow;
+
+    // Reusable buffers for the nonces
+    private byte[]        sealNonce;
+    private byte[]        openNonce;
+
+    /**
+     * Constructor
+     * Initializes an AEADCipher using the AES key
+     * @param key The AES key encoded in bytes
+     */
+    public AEADCipher(byte[] key) throws Exception {
+        this.key        = new SecretKeySpec(key, 0, KEY_LENGTH, "AES");
+        encrypterCipher = Cipher.getInstance(TRANSFORMATION);
+        decrypterCipher = Cipher.getInstance(TRANSFORMATION);
+        sealNonce       = new byte[NONCE_LENGTH];
+        openNonce       = new byte[NONCE_LENGTH];
+        replayWindow    = new ReplayWindow();
+    }
+
+    /**
+     * Derives the key of the messages sent from a sender to a receiver,
+     * from a secret of the receiver and the nonces of both of them,
+     * so every pair of clients and every session has its own key
+     *
+     * @param receiverSecret The secret generated by the receiver
+     * @param receiverNonce  The nonce of the receiver
+     * @param senderNonce    The nonce of the sender
+     * @return               The AES key encoded in bytes
+     */
+    public static byte[] deriveKey(byte[] receiverSecret,
+            byte[] receiverNonce, byte[] senderNonce) throws Exception {
+        CryptoContext cryptoContext = CryptoContext.get();
+        cryptoContext.updateSHA256(receiverSecret);
+        cryptoContext.updateSHA256(receiverNonce);
+        cryptoContext.updateSHA256(senderNonce);
+        return Arrays.copyOf(cryptoContext.finishSHA256(), KEY_LENGTH);
+    }
+
+    /**
+     * Encrypts and authenticates a message with the next counter
+     * of the sequence space of its reliability
+     *
+     * @param plainText The message
+     * @param output    The buffer to write into, with at least
+     *                  plainText.length + OVERHEAD bytes after the offset
+     * @param offset    The offset to write the counter, then the cipher text and tag at
+     * @param reliable  Whether the message is sent reliably
+     * @return          The number of bytes written
+     */
+    public int seal(byte[] plainText, byte[] output, int offset, boolean reliable) throws Exception {
+        int counter = ReplayWindow.getSequenceNumber(
+                reliable ? reliableSealCounter++ : unreliableSealCounter++, reliable);
+        writeCounter(counter, output, offset);
+        writeCounter(counter, sealNonce, NONCE_LENGTH-COUNTER_LENGTH);
+        encrypterCipher.init(Cipher.ENCRYPT_MODE, key, getParameterSpec(sealNonce));
+        return COUNTER_LENGTH + encrypterCipher.doFinal(
+                plainText, 0, plainText.length, output, offset+COUNTER_LENGTH);
+    }
+
+    /**
+     * Verifies and decrypts a message sealed by an AEADCipher with the same key.
+     * A message whose counter has already been opened, or is too old to tell,
+     * is dropped before it is decrypted.
+     *
+     * @param input  The buffer holding the sealed message
+     * @param offset The offset of the sealed message in the buffer
+     * @param length The length of the sealed message
+     * @return       The plain text, null if the message is malformed,
+     *               has been tampered with or is a replay
+     */
+    public byte[] open(byte[] input, int offset, int length) {
+        if (length < OVERHEAD)
+            return null;
+        int counter = SecurityHelper.readInt(input, offset);
+        if (replayWindow.isFresh(counter)==false)
+            return null;
+        try {
+            System.arraycopy(input, offset, openNonce, NONCE_LENGTH-COUNTER_LENGTH, COUNTER_LENGTH);
+            decrypterCipher.init(Cipher.DECRYPT_MODE, key, getParameterSpec(openNonce));
+            byte[] plainText = decrypterCipher.doFinal(input, offset+COUNTER_LENGTH, length-COUNTER_LENGTH);
+
+            // Only registered once verified, so forged counters cannot slide the window
+            replayWindow.register(counter);
+            return plainText;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a counter as 4 big endian bytes
+     */
+    private static void writeCounter(int counter, byte[] output, int offset) {
+        output[offset  ] = (byte)(counter >>> 24);
+        output[offset+1] = (byte)(counter >>> 16);
+        output[offset+2] = (byte)(counter >>>  8);
+        output[offset+3] = (byte) counter;
+    }
+
+    /**
+     * @param nonce The nonce
+     * @return      The parameters of the GCM cipher for the nonce
+     */
+    private static AlgorithmParameterSpec getParameterSpec(byte[] nonce) {
+        if (GCM_PARAMETER_SPEC_AVAILABLE)
+            return new GCMParameterSpec(TAG_LENGTH*8, nonce);
+        return new IvParameterSpec(nonce);
+    }
+
+    private static boolean isGCMParameterSpecAvailable() {
+        try {
+            Class.forName("javax.crypto.spec.GCMParameterSpec");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.vengestudios.sortme.security;
+
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The reusable cryptographic primitives of a single thread
+ *
+ * Responsible for:
+ *
+ *  - Holding an MD5 and a SHA-256 MessageDigest, created once per thread
+ *    instead of once per message
+ *
+ *  - Hashing several segments by updating the digests with each in turn,
+ *    without joining them into a new array first
+ *
+ *  - Writing digests into caller supplied buffers, or into a buffer
+ *    owned by the context that is reused for every digest
+ *
+ *  - Holding a SecureRandom, seeded once per thread
+ *
+ *  - Holding an HMAC-SHA256 Mac keyed with the common password,
+ *    which tags the ballots of T8
+ *
+ * Messages are prepared on the network thread of the OutboundMessagePipeline
+ * and verified on the worker thread of the InboundMessagePipeline, so each
+ * thread gets its own CryptoContext through get() and none of it is locked.
+ * A CryptoContext must never be handed to another thread.
+ */
+public class CryptoContext {
+
+    // The lengths in bytes of the digests
+    public static final int MD5_LENGTH     = 16;
+    public static final int SHA256_LENGTH  = 32;
+    public static final int HMAC_LENGTH    = 32;
+
+    private static final ThreadLocal<CryptoContext> CRYPTO_CONTEXTS =
+            new ThreadLocal<CryptoContext>() {
+                @Override
+                protected CryptoContext initialValue() {
+                    return new CryptoContext();
+                }
+            };
+
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+    private final SecureRandom  secureRandom;
+    private final Mac           passwordMac;
+
+    // Reused for the digests that are not written into a caller supplied buffer
+    private final byte[]        md5Buffer;
+    private final byte[]        sha256Buffer;
+    private final byte[]        passwordMacBuffer;
+
+    /**
+     * @return The CryptoContext of the calling thread
+     */
+    public static CryptoContext get() {
+        return CRYPTO_CONTEXTS.get();
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates the digests, the SecureRandom and the Mac of the thread
+     */
+    private CryptoContext() {
+        try {
+            md5         = MessageDigest.getInstance("MD5");
+            sha256      = MessageDigest.getInstance("SHA-256");
+            passwordMac = Mac.getInstance(SecurityDefaults.BALLOT_MAC_FLAG);
+            passwordMac.init(new SecretKeySpec(SecurityDefaults.COMMON_PASSWORD,
+                    SecurityDefaults.BALLOT_MAC_FLAG));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        secureRandom      = new SecureRandom();
+        md5Buffer         = new byte[MD5_LENGTH];
+        sha256Buffer      = new byte[SHA256_LENGTH];
+        passwordMacBuffer = new byte[HMAC_LENGTH];
+    }
+
+    /**
+     * Adds a segment to the MD5 digest being computed
+     * @param input The segment
+     */
+    public void updateMD5(byte[] input) {
+        md5.update(input);
+    }
+
+    /**
+     * Adds a segment to the MD5 digest being computed
+     * @param input  The buffer holding the segment
+     * @param offset The offset of the segment in the buffer
+     * @param length The length of the segment
+     */
+    public void updateMD5(byte[] input, int offset, int length) {
+        md5.update(input, offset, length);
+    }
+
+    /**
+     * Completes the MD5 digest of the segments added so far,
+     * writing it into a caller supplied buffer
+     * @param output The buffer to write into, with at least MD5_LENGTH bytes after the offset
+     * @param offset The offset to write the digest at
+     * @return       The number of bytes written
+     */
+    public int finishMD5(byte[] output, int offset) {
+        try {
+            return md5.digest(output, offset, MD5_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Completes the MD5 digest of the segments added so far
+     * @return The digest, held in a buffer of the context that is
+     *         overwritten by the next MD5 digest of the thread
+     */
+    public byte[] finishMD5() {
+        finishMD5(md5Buffer, 0);
+        return md5Buffer;
+    }
+
+    /**
+     * Adds a segment to the SHA-256 digest being computed
+     * @param input The segment
+     */
+    public void updateSHA256(byte[] input) {
+        sha256.update(input);
+    }
+
+    /**
+     * Adds a segment to the SHA-256 digest being computed
+     * @param input  The buffer holding the segment
+     * @param offset The offset of the segment in the buffer
+     * @param length The length of the segment
+     */
+    public void updateSHA256(byte[] input, int offset, int length) {
+        sha256.update(input, offset, length);
+    }
+
+    /**
+     * Completes the SHA-256 digest of the segments added so far,
+     * writing it into a caller supplied buffer
+     * @param output The buffer to write into, with at least SHA256_LENGTH bytes after the offset
+     * @param offset The offset to write the digest at
+     * @return       The number of bytes written
+     */
+    public int finishSHA256(byte[] output, int offset) {
+        try {
+            return sha256.digest(output, offset, SHA256_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Completes the SHA-256 digest of the segments added so far
+     * @return The digest, held in a buffer of the context that is
+     *         overwritten by the next SHA-256 digest of the thread
+     */
+    public byte[] finishSHA256() {
+        finishSHA256(sha256Buffer, 0);
+        return sha256Buffer;
+    }
+
+    /**
+     * Adds a segment to the MAC keyed with the common password being computed
+     * @param input The segment
+     */
+    public void updatePasswordMAC(byte[] input) {
+        passwordMac.update(input);
+    }
+
+    /**
+     * Completes the MAC keyed with the common password of the segments added so far
+     * @return The MAC, held in a buffer of the context that is
+     *         overwritten by the next MAC of the thread
+     */
+    public byte[] finishPasswordMAC() {
+        try {
+            passwordMac.doFinal(passwordMacBuffer, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        return passwordMacBuffer;
+    }
+
+    /**
+     * @return The SecureRandom of the thread
+     */
+    public SecureRandom getSecureRandom() {
+        return secureRandom;
+    }
+
+    /**
+     * Fills a caller supplied buffer with random bytes
+     * @param output The buffer
+     */
+    public void nextBytes(byte[] output) {
+        secureRandom.nextBytes(output);
+    }
+
+    /**
+     * @param bound The upper bound, exclusive
+     * @return      A random int between 0 and the bound
+     */
+    public int nextInt(int bound) {
+        return secureRandom.nextInt(bound);
+    }
+}
@@ -1,7 +1,6 @@
 package com.vengestudios.sortme.security;
 
 import java.security.Key;
-import java.security.SecureRandom;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -42,9 +41,8 @@ public class DESCipher {
      * Initializes a DESCipher using a randomly generated DES key
      */
     public DESCipher() throws Exception {
-        KeyGenerator keyGen       = KeyGenerator.getInstance("DES");
-        SecureRandom secureRandom = new SecureRandom();
-        keyGen.init(KEY_SIZE, secureRandom);
+        KeyGenerator keyGen = KeyGenerator.getInstance("DES");
+        keyGen.init(KEY_SIZE, CryptoContext.get().getSecureRandom());
         key = keyGen.generateKey();
 
         initCiphers();
@@ -86,4 +84,53 @@ public class DESCipher {
         return decrypterCipher.doFinal(cipherText);
     }
 
+    /**
+     * Get the plain text decrypted using the DES key in the cipher
+     * @param input  The buffer holding the text to decrypt
+     * @param offset The offset of the text in the buffer
+     * @param length The length of the text
+     * @return       The decrypted text
+     */
+    public byte[] getPlainText(byte[] input, int offset, int length) throws Exception {
+        return decrypterCipher.doFinal(input, offset, length);
+    }
+
+    /**
+     * @param plainTextLength The length of a plain text
+     * @return                The length of its cipher text
+     */
+    public int getCipherTextLength(int plainTextLength) {
+        return encrypterCipher.getOutputSize(plainTextLength);
+    }
+
+    /**
+     * Encrypts using the DES key in the cipher, writing into a caller supplied buffer
+     * @param input        The buffer holding the text to encrypt
+     * @param inputOffset  The offset of the text in the buffer
+     * @param inputLength  The length of the text
+     * @param output       The buffer to write into, with at least
+     *                     getCipherTextLength(inputLength) bytes after the offset
+     * @param outputOffset The offset to write the cipher text at
+     * @return             The number of bytes written
+     */
+    public int getCipherText(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset) throws Exception {
+        return encrypterCipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+    }
+
+    /**
+     * Decrypts using the DES key in the cipher, writing into a caller supplied buffer
+     * @param input        The buffer holding the text to decrypt
+     * @param inputOffset  The offset of the text in the buffer
+     * @param inputLength  The length of the text
+     * @param output       The buffer to write into, with at least
+     *                     inputLength bytes after the offset
+     * @param outputOffset The offset to write the plain text at
+     * @return             The number of bytes written
+     */
+    public int getPlainText(byte[] input, int inputOffset, int inputLength,
+            byte[] output, int outputOffset) throws Exception {
+        return decrypterCipher.doFinal(input, inputOffset, inputLength, output, outputOffset);
+    }
+
 }
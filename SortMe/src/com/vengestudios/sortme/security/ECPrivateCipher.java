@@ -0,0 +1,81 @@
+package com.vengestudios.sortme.security;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+
+/**
+ * An ECPrivateCipher provides signing and key agreement using
+ * an elliptic curve private key on the P-256 curve
+ *
+ * The EC Public and Private Keys are generated randomly,
+ * which takes a fraction of the time of generating RSA keys.
+ *
+ * It provides methods to get the EC public key as the raw uncompressed point.
+ *
+ * To reinforce the secrecy of the private key,
+ * no method is provided for getting the EC private key.
+ */
+public class ECPrivateCipher {
+
+    private PrivateKey   privateKey;
+    private PublicKey    publicKey;
+    private Signature    signer;
+    private KeyAgreement keyAgreement;
+
+    /**
+     * Constructor
+     * Creates an instance of ECPrivateCipher with a new key pair
+     */
+    public ECPrivateCipher() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(SecurityDefaults.EC_FLAG);
+        keyGen.initialize(new ECGenParameterSpec(SecurityDefaults.EC_CURVE),
+                CryptoContext.get().getSecureRandom());
+
+        KeyPair keyPair = keyGen.genKeyPair();
+        privateKey      = keyPair.getPrivate();
+        publicKey       = keyPair.getPublic();
+
+        signer = Signature.getInstance(SecurityDefaults.EC_SIGNATURE_FLAG);
+        signer.initSign(privateKey);
+
+        keyAgreement = KeyAgreement.getInstance(SecurityDefaults.EC_KEY_AGREEMENT_FLAG);
+    }
+
+    /**
+     * @return The EC public key as the uncompressed point,
+     *         without the X.509 header that is the same for every P-256 key
+     */
+    public byte[] getPublicKeyBytes() {
+        byte[] encoded = publicKey.getEncoded();
+        return Arrays.copyOfRange(encoded, encoded.length-ECPublicCipher.POINT_LENGTH, encoded.length);
+    }
+
+    /**
+     * Get the signature of a message using the EC private key
+     * @param message  The message to sign
+     * @return         The signature
+     */
+    public byte[] getSignature(byte[] message) throws Exception {
+        signer.update(message);
+        return signer.sign();
+    }
+
+    /**
+     * Get the secret shared with the holder of another EC key pair,
+     * which the holder gets by calling this with the user's public key
+     * @param clientECCipher  The ECPublicCipher holding the other public key
+     * @return                The shared secret
+     */
+    public byte[] getSharedSecret(ECPublicCipher clientECCipher) throws Exception {
+        keyAgreement.init(privateKey);
+        keyAgreement.doPhase(clientECCipher.getPublicKey(), true);
+        return keyAgreement.generateSecret();
+    }
+}
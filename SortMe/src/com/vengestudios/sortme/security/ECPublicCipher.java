@@ -0,0 +1,63 @@
+package com.vengestudios.sortme.security;
+
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * An ECPublicCipher provides signature verification using
+ * an elliptic curve public key on the P-256 curve
+ *
+ * It has no methods provided for generating EC key pairs,
+ * since this class is only intended for use with a public EC key.
+ */
+public class ECPublicCipher {
+
+    // The length of an uncompressed P-256 point
+    public static final int POINT_LENGTH = 65;
+
+    // The X.509 header of every P-256 public key, in front of the point
+    private static final byte[] X509_HEADER = {
+        0x30, 0x59, 0x30, 0x13, 0x06, 0x07, 0x2a, (byte)0x86, 0x48, (byte)0xce,
+        0x3d, 0x02, 0x01, 0x06, 0x08, 0x2a, (byte)0x86, 0x48, (byte)0xce, 0x3d,
+        0x03, 0x01, 0x07, 0x03, 0x42, 0x00
+    };
+
+    private PublicKey publicKey;
+    private Signature verifier;
+
+    /**
+     * Constructor
+     * Creates an instance of ECPublicCipher with the EC public key
+     * @param publicKey The EC public key as the uncompressed point
+     */
+    public ECPublicCipher(byte[] publicKey) throws Exception {
+        if (publicKey.length!=POINT_LENGTH)
+            throw new IllegalArgumentException("Invalid EC public key length: "+publicKey.length);
+
+        this.publicKey = KeyFactory.getInstance(SecurityDefaults.EC_FLAG).generatePublic(
+                new X509EncodedKeySpec(SecurityHelper.concat(X509_HEADER, publicKey)));
+
+        verifier = Signature.getInstance(SecurityDefaults.EC_SIGNATURE_FLAG);
+        verifier.initVerify(this.publicKey);
+    }
+
+    /**
+     * @return The EC public key
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Verifies that a signature of a message was made with the matching EC private key
+     * @param message    The message
+     * @param signature  The signature
+     * @return           Whether the signature is valid
+     */
+    public boolean verify(byte[] message, byte[] signature) throws Exception {
+        verifier.update(message);
+        return verifier.verify(signature);
+    }
+}
@@ -0,0 +1,259 @@
+package com.vengestudios.sortme.security;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pre-generates the key material of the user on a background thread,
+ * so that setting up security never waits on generating keys
+ *
+ * Responsible for:
+ *
+ *  - Keeping small pools of DES keys, nonces, AEAD secrets and EC key pairs,
+ *    and an RSA key pair while one is wanted
+ *
+ *  - Handing out the pregenerated material in O(1). If a pool has run dry,
+ *    waiting for the material being generated in the background,
+ *    or generating it inline if there is none
+ *
+ *  - Refilling the pools asynchronously after material is taken
+ *
+ * The take methods may be called from any thread.
+ */
+public class KeyMaterialPool {
+
+    private static final Logger LOG = Logger.getLogger("Key Material Pool");
+
+    // The number of each kind of material kept ready
+    public static final int DEFAULT_CAPACITY = 2;
+
+    // The longest time to wait for material being generated in the background
+    private static final int GENERATION_WAIT_TIMEOUT = 10000;
+
+    // The pools of each kind of material
+    private final Pool<DESCipher>        desCiphers;
+    private final Pool<byte[]>           nonces;
+    private final Pool<byte[]>           aeadSecrets;
+    private final Pool<ECPrivateCipher>  ecPrivateCiphers;
+    private final Pool<RSAPrivateCipher> rsaPrivateCiphers;
+    private final Pool<?>[]              pools;
+
+    // Whether an RSA key pair should be kept ready
+    private volatile boolean             rsaKeysWanted;
+
+    // The background thread, and whether a refill is pending on it
+    private final ExecutorService        executor;
+    private final AtomicBoolean          refillPending;
+
+    /**
+     * Constructor
+     *
+     * Creates the KeyMaterialPool with the default capacity
+     * and starts filling it on the background thread
+     */
+    public KeyMaterialPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates the KeyMaterialPool and starts filling it on the background thread
+     *
+     * @param capacity The number of each kind of material kept ready
+     */
+    public KeyMaterialPool(int capacity) {
+        desCiphers = new Pool<DESCipher>(capacity) {
+            @Override
+            protected DESCipher generate() throws Exception {
+                return new DESCipher();
+            }
+        };
+        nonces = new Pool<byte[]>(capacity) {
+            @Override
+            protected byte[] generate() {
+                return generateRandomBytes(SecurityDefaults.NONCE_LENGTH);
+            }
+        };
+        aeadSecrets = new Pool<byte[]>(capacity) {
+            @Override
+            protected byte[] generate() {
+                return generateRandomBytes(SecurityDefaults.AEAD_SECRET_LENGTH);
+            }
+        };
+        ecPrivateCiphers = new Pool<ECPrivateCipher>(capacity) {
+            @Override
+            protected ECPrivateCipher generate() throws Exception {
+                return new ECPrivateCipher();
+            }
+        };
+
+        // Only a single RSA key pair is ever needed,
+        // so it is no longer wanted once it has been taken
+        rsaPrivateCiphers = new Pool<RSAPrivateCipher>(1) {
+            @Override
+            protected RSAPrivateCipher generate() throws Exception {
+                return new RSAPrivateCipher();
+            }
+            @Override
+            protected boolean isWanted() {
+                return rsaKeysWanted;
+            }
+            @Override
+            public RSAPrivateCipher take() throws Exception {
+                rsaKeysWanted = false;
+                return super.take();
+            }
+        };
+        pools = new Pool<?>[] {nonces, aeadSecrets, desCiphers, ecPrivateCiphers, rsaPrivateCiphers};
+
+        refillPending = new AtomicBoolean(false);
+        executor      = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "KeyMaterialPool");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        requestRefill();
+    }
+
+    /**
+     * Sets whether an RSA key pair should be generated ahead of time,
+     * which takes long enough that it is only done if it will be used
+     * @param rsaKeysWanted
+     */
+    public void setRSAKeysWanted(boolean rsaKeysWanted) {
+        this.rsaKeysWanted = rsaKeysWanted;
+        if (rsaKeysWanted)
+            requestRefill();
+    }
+
+    public DESCipher takeDESCipher() throws Exception {
+        return desCiphers.take();
+    }
+
+    public byte[] takeNonce() throws Exception {
+        return nonces.take();
+    }
+
+    public byte[] takeAEADSecret() throws Exception {
+        return aeadSecrets.take();
+    }
+
+    public ECPrivateCipher takeECPrivateCipher() throws Exception {
+        return ecPrivateCiphers.take();
+    }
+
+    public RSAPrivateCipher takeRSAPrivateCipher() throws Exception {
+        return rsaPrivateCiphers.take();
+    }
+
+    /**
+     * Stops the background thread once it has finished the material it is generating.
+     * Material taken after this is generated inline.
+     */
+    public void quit() {
+        executor.shutdown();
+    }
+
+    /**
+     * Posts a refill of every pool to the background thread,
+     * if one is not already pending
+     */
+    private void requestRefill() {
+        if (executor.isShutdown() || refillPending.compareAndSet(false, true)==false)
+            return;
+        executor.execute(new RefillRunnable());
+    }
+
+    private byte[] generateRandomBytes(int length) {
+        byte[] bytes = new byte[length];
+        CryptoContext.get().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A Runnable to fill every pool up to its capacity on the background thread
+     */
+    private class RefillRunnable implements Runnable {
+        @Override
+        public void run() {
+
+            // Cleared before filling, so that material taken
+            // during the refill requests another one
+            refillPending.set(false);
+            try {
+                for (Pool<?> pool:pools)
+                    pool.fill();
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Failed to refill the key material", e);
+            }
+        }
+    }
+
+    /**
+     * A pool of a single kind of material
+     */
+    private abstract class Pool<E> {
+
+        private final ArrayBlockingQueue<E> queue;
+
+        // Whether material is being generated for the pool in the background
+        private volatile boolean            generating;
+
+        public Pool(int capacity) {
+            queue = new ArrayBlockingQueue<E>(capacity);
+        }
+
+        /**
+         * @return Newly generated material
+         */
+        protected abstract E generate() throws Exception;
+
+        /**
+         * @return Whether the pool should be kept filled
+         */
+        protected boolean isWanted() {
+            return true;
+        }
+
+        /**
+         * Takes pregenerated material, or waits for the material being generated
+         * if the pool has run dry, or generates it inline if there is none,
+         * then requests a refill
+         * @return The material
+         */
+        public E take() throws Exception {
+            E material = queue.poll();
+            if (material==null && generating)
+                material = queue.poll(GENERATION_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (material==null)
+                material = generate();
+            requestRefill();
+            return material;
+        }
+
+        /**
+         * Generates material until the pool is full
+         */
+        public void fill() throws Exception {
+            while (isWanted() && queue.remainingCapacity()>0) {
+                generating = true;
+                try {
+                    queue.offer(generate());
+                } finally {
+                    generating = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.vengestudios.sortme.security;
+
+/**
+ * An interface used by the SecureClientSenders to order and trim the
+ * normal messages queued while the mutual authentication is in progress.
+ *
+ * The SecurityMessageLayer does not know the contents of the messages it
+ * carries, so the layer above it registers a MessagePriorityClassifier
+ * that does.
+ */
+public interface MessagePriorityClassifier {
+
+    // The priority classes, from the first to be sent to the last
+    public static final int PRIORITY_HIGH    = 0;
+    public static final int PRIORITY_LOW     = 1;
+    public static final int TOTAL_PRIORITIES = 2;
+
+    // Returned by getSupersedeKey for messages that are never superseded
+    public static final int NOT_SUPERSEDED   = -1;
+
+    /**
+     * @param message An outgoing normal message
+     * @return        The priority class of the message,
+     *                PRIORITY_HIGH or PRIORITY_LOW
+     */
+    public int getPriority(byte[] message);
+
+    /**
+     * A queued message is replaced by a newer message with the same key,
+     * for messages where only the latest one is of any use
+     *
+     * @param message An outgoing normal message
+     * @return        A non-negative key, or NOT_SUPERSEDED
+     */
+    public int getSupersedeKey(byte[] message);
+}
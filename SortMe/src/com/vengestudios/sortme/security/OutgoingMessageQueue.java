@@ -0,0 +1,114 @@
+package com.vengestudios.sortme.security;
+
+import java.util.Arrays;
+
+/**
+ * A bounded first in first out queue of outgoing messages,
+ * backed by a ring buffer
+ *
+ * When the queue is full, a new message either evicts the oldest
+ * queued message or is dropped itself.
+ * A message with a supersede key replaces the queued message
+ * with the same key in place, instead of being added.
+ */
+public class OutgoingMessageQueue {
+
+    // The ring buffer of messages and their supersede keys
+    private byte[][] messages;
+    private int[]    supersedeKeys;
+    private int      head;
+    private int      size;
+
+    // Whether a full queue evicts its oldest message for a new one
+    private boolean  dropOldest;
+
+    // Counters of the messages lost to the queue being full,
+    // and replaced by newer messages
+    private long     droppedCount;
+    private long     supersededCount;
+
+    /**
+     * Constructor
+     *
+     * Creates an empty OutgoingMessageQueue
+     *
+     * @param capacity   The maximum number of messages held
+     * @param dropOldest Whether to evict the oldest message when full,
+     *                   rather than dropping the new message
+     */
+    public OutgoingMessageQueue(int capacity, boolean dropOldest) {
+        messages        = new byte[capacity][];
+        supersedeKeys   = new int[capacity];
+        this.dropOldest = dropOldest;
+    }
+
+    /**
+     * Adds a message to the back of the queue
+     * @param message      The message
+     * @param supersedeKey The key of the message,
+     *                     MessagePriorityClassifier.NOT_SUPERSEDED if it has none
+     */
+    public void add(byte[] message, int supersedeKey) {
+        if (supersedeKey!=MessagePriorityClassifier.NOT_SUPERSEDED) {
+            for (int i=0; i<size; ++i) {
+                int index = (head+i) % messages.length;
+                if (supersedeKeys[index]==supersedeKey) {
+                    messages[index] = message;
+                    ++supersededCount;
+                    return;
+                }
+            }
+        }
+
+        if (size==messages.length) {
+            ++droppedCount;
+            if (dropOldest==false || size==0)
+                return;
+            remove();
+        }
+
+        int tail = (head+size) % messages.length;
+        messages     [tail] = message;
+        supersedeKeys[tail] = supersedeKey;
+        ++size;
+    }
+
+    /**
+     * @return The message at the front of the queue, which is removed,
+     *         null if the queue is empty
+     */
+    public byte[] remove() {
+        if (size==0)
+            return null;
+        byte[] message = messages[head];
+        messages[head] = null;
+        head = (head+1) % messages.length;
+        --size;
+        return message;
+    }
+
+    public boolean isEmpty() {
+        return size==0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every message without counting them as dropped
+     */
+    public void clear() {
+        Arrays.fill(messages, null);
+        head = 0;
+        size = 0;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getSupersededCount() {
+        return supersededCount;
+    }
+}
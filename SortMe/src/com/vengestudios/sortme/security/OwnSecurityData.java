@@ -4,33 +4,56 @@ package com.vengestudios.sortme.security;
  * Holds the information for the user for the security message layer
  *
  * Responsible for:
- *  - Generating the user's RSA Public and Private keys, DES key, and nonce
+ *  - Generating the user's RSA Public and Private keys, EC Public and Private keys,
+ *    DES key, AEAD secret, group secret and nonce
  *  - Encryption and Decryption using the user's RSA private key
+ *  - Signing and key agreement using the user's EC private key
  *  - Encryption and Decryption using the user's DES key
+ *  - Sealing the messages the user broadcasts to the whole room with the group secret
  *  - Holding the choice of security protocol the user choose
+ *
+ * The methods are synchronized, as incoming messages are decrypted on the
+ * worker thread of the InboundMessagePipeline, the keys are regenerated on
+ * the UI thread and outgoing messages are prepared on the network thread
+ * of the OutboundMessagePipeline.
+ *
+ * The RSA and EC keys are only taken the first time they are used,
+ * and the EC keys are taken again for every session. All the key material
+ * is pregenerated in the background by a KeyMaterialPool, so neither
+ * startup nor setting up a new session waits on generating keys.
  */
 public class OwnSecurityData {
 
 	private SecurityProtocolType securityProtocolType;
+    private KeyMaterialPool      keyMaterialPool;
     private DESCipher            desCipher;
     private RSAPrivateCipher     rsaPrivateCipher;
+    private ECPrivateCipher      ecPrivateCipher;
     private byte[]               nonce;
+    private byte[]               aeadSecret;
+    private byte[]               groupSecret;
+    private AEADCipher           groupAEADCipher;
 
     /**
      * Constructor
      * Creates an instance of OwnSecurityData
+     * @param keyMaterialPool The KeyMaterialPool to take the key material from
      */
-    public OwnSecurityData() throws Exception {
-        securityProtocolType = SecurityDefaults.SECURITY_PROTOCOL_TYPE;
-        rsaPrivateCipher     = new RSAPrivateCipher();
+    public OwnSecurityData(KeyMaterialPool keyMaterialPool) throws Exception {
+        this.keyMaterialPool = keyMaterialPool;
+        setSecurityProtocolType(SecurityDefaults.SECURITY_PROTOCOL_TYPE);
         regenerateForNewSession();
     }
 
     /**
-     * Regenerates a new DES key and nonce
+     * Regenerates a new DES key, AEAD secret, group secret and nonce,
+     * and discards the EC keys of the last session
      */
-    public void regenerateForNewSession() throws Exception {
+    public synchronized void regenerateForNewSession() throws Exception {
+        ecPrivateCipher = null;
         regenerateDESKey();
+        regenerateAEADSecret();
+        regenerateGroupSecret();
         regenerateNounce();
     }
 
@@ -38,75 +61,148 @@ public class OwnSecurityData {
      * Sets the user's choice of SecurityProtocolType
      * @param securityProtocolType
      */
-    public void setSecurityProtocolType(SecurityProtocolType securityProtocolType) {
+    public synchronized void setSecurityProtocolType(SecurityProtocolType securityProtocolType) {
         this.securityProtocolType = securityProtocolType;
+
+        // Have the RSA keys ready ahead of the first session that uses them
+        keyMaterialPool.setRSAKeysWanted(rsaPrivateCipher==null && securityProtocolType.usesRSA());
     }
 
     /**
      * @return The user's choice of SecurityProtocolType
      */
-    public SecurityProtocolType getSecurityProtocolType() {
+    public synchronized SecurityProtocolType getSecurityProtocolType() {
         return securityProtocolType;
     }
 
     /**
      * @return The nonce generated by the user
      */
-    public byte[] getNonce() {
+    public synchronized byte[] getNonce() {
         return nonce;
     }
 
     /**
      * Regenerates the user's nonce
      */
-    public void regenerateNounce() throws Exception {
-        nonce = SecurityHelper.generateNonce(SecurityDefaults.NONCE_LENGTH);
+    public synchronized void regenerateNounce() throws Exception {
+        nonce = keyMaterialPool.takeNonce();
     }
 
     /**
-     * Regenerates the user's RSA Public and Private keys
+     * Regenerates the user's DES key
      */
-    public void regenerateRSAKeys() throws Exception {
-        rsaPrivateCipher = new RSAPrivateCipher();
+    public synchronized void regenerateDESKey() throws Exception {
+        desCipher = keyMaterialPool.takeDESCipher();
     }
 
     /**
-     * Regenerates the user's DES key
+     * Regenerates the user's AEAD secret, which the keys of the messages
+     * sent to the user are derived from under T6
+     */
+    public synchronized void regenerateAEADSecret() throws Exception {
+        aeadSecret = keyMaterialPool.takeAEADSecret();
+    }
+
+    /**
+     * @return The user's AEAD secret
+     */
+    public synchronized byte[] getAEADSecretBytes() {
+        return aeadSecret;
+    }
+
+    /**
+     * Regenerates the user's group secret, the key the user seals
+     * the messages broadcasted to the whole room with
+     */
+    public synchronized void regenerateGroupSecret() throws Exception {
+        groupSecret     = keyMaterialPool.takeAEADSecret();
+        groupAEADCipher = new AEADCipher(groupSecret);
+    }
+
+    /**
+     * @return The user's group secret
+     */
+    public synchronized byte[] getGroupSecretBytes() {
+        return groupSecret;
+    }
+
+    /**
+     * Seals a message with the user's group secret, once for all the clients it is broadcasted to
+     * @param message  The body of the message
+     * @param reliable Whether the message is sent reliably
+     * @return         A message labeled as a group message
      */
-    public void regenerateDESKey() throws Exception {
-        desCipher = new DESCipher();
+    public synchronized byte[] getSealedGroupMessage(byte[] message, boolean reliable) throws Exception {
+        return SecurityMessageType.getSealedGroupMessage(groupAEADCipher, message, reliable);
     }
 
     /**
      * @return The user's DES keys encoded in bytes
      */
-    public byte[] getDESKeyBytes() {
+    public synchronized byte[] getDESKeyBytes() {
         return desCipher.getkey().getEncoded();
     }
 
+    /**
+     * @return The user's RSAPrivateCipher, generating the RSA keys if they do not yet exist
+     */
+    private RSAPrivateCipher getRSAPrivateCipher() throws Exception {
+        if (rsaPrivateCipher==null)
+            rsaPrivateCipher = keyMaterialPool.takeRSAPrivateCipher();
+        return rsaPrivateCipher;
+    }
+
+    /**
+     * @return The user's ECPrivateCipher, generating the EC keys if they do not yet exist
+     */
+    private ECPrivateCipher getECPrivateCipher() throws Exception {
+        if (ecPrivateCipher==null)
+            ecPrivateCipher = keyMaterialPool.takeECPrivateCipher();
+        return ecPrivateCipher;
+    }
+
     /**
      * @return The user's RSA Public key encoded in bytes
      */
-    public byte[] getRSAPublicKeyBytes() {
-        return rsaPrivateCipher.getPublicKey().getEncoded();
+    public synchronized byte[] getRSAPublicKeyBytes() throws Exception {
+        return getRSAPrivateCipher().getPublicKey().getEncoded();
     }
 
     /**
-     * Get the cipher text encrypted using the user's DES key
-     * @param plainText  The text to encrypt
-     * @return           The encrypted text
+     * @return The user's EC Public key as the uncompressed point
      */
-    public byte[] getCipherTextWithDES(byte[] plainText) throws Exception {
-        return desCipher.getCipherText(plainText);
+    public synchronized byte[] getECPublicKeyBytes() throws Exception {
+        return getECPrivateCipher().getPublicKeyBytes();
+    }
+
+    /**
+     * Get the signature of a message using the user's EC private key
+     * @param message  The message to sign
+     * @return         The signature
+     */
+    public synchronized byte[] getSignatureWithEC(byte[] message) throws Exception {
+        return getECPrivateCipher().getSignature(message);
+    }
+
+    /**
+     * Get the secret shared with a client using the user's EC private key
+     * @param clientECCipher  The ECPublicCipher of the client
+     * @return                The shared secret
+     */
+    public synchronized byte[] getSharedSecretWithEC(ECPublicCipher clientECCipher) throws Exception {
+        return getECPrivateCipher().getSharedSecret(clientECCipher);
     }
 
     /**
      * Get the plain text decrypted using the user's DES key
-     * @param cipherText  The text to decrypt
-     * @return            The decrypted text
+     * @param input  The buffer holding the text to decrypt
+     * @param offset The offset of the text in the buffer
+     * @param length The length of the text
+     * @return       The decrypted text
      */
-    public byte[] getPlainTextWithDES(byte[] cipherText) throws Exception {
-        return desCipher.getPlainText(cipherText);
+    public synchronized byte[] getPlainTextWithDES(byte[] input, int offset, int length) throws Exception {
+        return desCipher.getPlainText(input, offset, length);
     }
 
     /**
@@ -114,8 +210,8 @@ public class OwnSecurityData {
      * @param plainText  The text to encrypt
      * @return           The encrypted text
      */
-    public byte[] getCipherTextWithRSA(byte[] plainText) throws Exception {
-        return rsaPrivateCipher.getCipherText(plainText);
+    public synchronized byte[] getCipherTextWithRSA(byte[] plainText) throws Exception {
+        return getRSAPrivateCipher().getCipherText(plainText);
     }
 
     /**
@@ -123,8 +219,8 @@ public class OwnSecurityData {
      * @param cipherText  The text to decrypt
      * @return            The decrypted text
      */
-    public byte[] getPlainTextWithRSA(byte[] cipherText) throws Exception {
-        return rsaPrivateCipher.getPlainText(cipherText);
+    public synchronized byte[] getPlainTextWithRSA(byte[] cipherText) throws Exception {
+        return getRSAPrivateCipher().getPlainText(cipherText);
     }
 
 }
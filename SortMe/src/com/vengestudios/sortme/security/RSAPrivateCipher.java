@@ -4,7 +4,6 @@ import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 
 import javax.crypto.Cipher;
 
@@ -41,7 +40,7 @@ public class RSAPrivateCipher {
      */
     public RSAPrivateCipher(int keySize) throws Exception {
         KeyPairGenerator keyGen = KeyPairGenerator.getInstance(SecurityDefaults.RSA_FLAG);
-        keyGen.initialize(keySize, new SecureRandom());
+        keyGen.initialize(keySize, CryptoContext.get().getSecureRandom());
 
         KeyPair keyPair = keyGen .genKeyPair();
         privateKey      = keyPair.getPrivate();
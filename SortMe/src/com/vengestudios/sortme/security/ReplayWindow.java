@@ -0,0 +1,107 @@
+package com.vengestudios.sortme.security;
+
+/**
+ * A sliding window over the sequence numbers of the messages received
+ * from a single sender, used to reject replayed messages
+ *
+ * Responsible for:
+ *
+ *  - Accepting every sequence number at most once
+ *
+ *  - Accepting sequence numbers that arrive out of order, as long as they
+ *    are no more than WINDOW_SIZE behind the highest one accepted
+ *
+ *  - Rejecting sequence numbers that are too old to be tracked
+ *
+ * Reliable and unreliable messages are delivered independently of each other,
+ * so a reliable message may arrive long after the unreliable messages sent
+ * after it. Each therefore has its own sequence space, told apart by
+ * RELIABLE_SPACE, and its own window.
+ *
+ * Both checking and registering a sequence number take O(1), as each window
+ * is a single long, with a bit for each of the sequence numbers behind the highest.
+ *
+ * A ReplayWindow is not synchronized, and must only be used by the
+ * thread that receives the messages.
+ */
+public class ReplayWindow {
+
+    // The length in bytes of a sequence number
+    public static final int SEQUENCE_NUMBER_LENGTH = 4;
+
+    // The number of sequence numbers tracked behind the highest one accepted
+    public static final int WINDOW_SIZE            = 64;
+
+    // The bit marking a sequence number of the reliable sequence space
+    public static final int RELIABLE_SPACE         = 0x80000000;
+
+    // The highest sequence number accepted in each space, -1 if none
+    private long[] highestSequenceNumbers;
+
+    // The sequence numbers accepted behind the highest in each space,
+    // bit i being set if highest-i has been accepted
+    private long[] windows;
+
+    /**
+     * Constructor
+     *
+     * Creates a ReplayWindow that has yet to accept any sequence number
+     */
+    public ReplayWindow() {
+        highestSequenceNumbers = new long[] {-1, -1};
+        windows                = new long[2];
+    }
+
+    /**
+     * @param counter  The number of messages sent before in the sequence space
+     * @param reliable Whether the message is sent reliably
+     * @return         The sequence number of the message
+     */
+    public static int getSequenceNumber(int counter, boolean reliable) {
+        return reliable ? counter | RELIABLE_SPACE : counter & ~RELIABLE_SPACE;
+    }
+
+    /**
+     * Checks a sequence number without registering it, so that a
+     * replayed message can be dropped before it is verified
+     * @param sequenceNumber The sequence number
+     * @return               Whether the sequence number would be accepted
+     */
+    public boolean isFresh(int sequenceNumber) {
+        int  space    = getSpace(sequenceNumber);
+        long number   = sequenceNumber & ~RELIABLE_SPACE;
+        long highest  = highestSequenceNumbers[space];
+        if (number > highest)
+            return true;
+        long behind   = highest - number;
+        return behind < WINDOW_SIZE && (windows[space] & (1L << behind))==0;
+    }
+
+    /**
+     * Registers the sequence number of a message that has been verified,
+     * sliding the window forward if it is the highest so far
+     * @param sequenceNumber The sequence number
+     * @return               Whether the sequence number was accepted,
+     *                       false if it is a replay or too old
+     */
+    public boolean register(int sequenceNumber) {
+        if (isFresh(sequenceNumber)==false)
+            return false;
+
+        int  space    = getSpace(sequenceNumber);
+        long number   = sequenceNumber & ~RELIABLE_SPACE;
+        long highest  = highestSequenceNumbers[space];
+        if (number > highest) {
+            long ahead = number - highest;
+            windows[space] = ahead < WINDOW_SIZE ? windows[space] << ahead | 1L : 1L;
+            highestSequenceNumbers[space] = number;
+        } else {
+            windows[space] |= 1L << (highest - number);
+        }
+        return true;
+    }
+
+    private static int getSpace(int sequenceNumber) {
+        return (sequenceNumber & RELIABLE_SPACE)==0 ? 0 : 1;
+    }
+}
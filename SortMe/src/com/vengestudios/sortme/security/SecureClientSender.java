@@ -1,11 +1,9 @@
 package com.vengestudios.sortme.security;
 
+import java.security.MessageDigest;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Random;
-
-import android.util.Log;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.vengestudios.sortme.MessageSender;
 
@@ -18,16 +16,27 @@ import com.vengestudios.sortme.MessageSender;
  *
  *  - Establishing a mutually authenticated status with the user and the other client
  *
- *  - Performing the security protocols T2, T3, T4, T5
+ *  - Performing the security protocols T2, T3, T4, T5, T6, T7, T8
  *
  *  - Encryption of outgoing messages to the client if requested by the protocol
  *
  *  - Prepare the outgoing messages for integrity checks
+ *
+ *  - Exchanging group secrets with the client, so that messages broadcasted
+ *    to the whole room are sealed once rather than once per client
+ *
+ * The public methods are synchronized, as the messages from the client
+ * are registered on the worker thread of the InboundMessagePipeline,
+ * while outgoing messages are broadcasted from the network thread
+ * of the OutboundMessagePipeline.
  */
 public class SecureClientSender {
 
-	// The ID of the other client
-    private String               id;
+    // Shares the logger of the SecurityMessageLayer
+    private static final Logger LOG = Logger.getLogger("Security Message Layer");
+
+	// The slot of the other client in the ParticipantRegistry
+    private int                  slot;
 
     // Fields used for Balloting whether the user or other client
     // gets to be the first sender for the mutual authentication protocol
@@ -50,6 +59,30 @@ public class SecureClientSender {
     // Ciphers used for secure communication with the client
     private DESCipher            clientDESCipher;
     private RSAPublicCipher      clientRSACipher;
+    private ECPublicCipher       clientECCipher;
+    private byte[]               ecSharedSecret;
+
+    // AEADCipher to seal outgoing messages if the client has chosen T6 or T7,
+    // and to open incoming messages if the user has chosen T6 or T7.
+    // The latter is used without the lock, from the worker thread.
+    private AEADCipher           clientAEADCipher;
+    private volatile AEADCipher  ownAEADCipher;
+
+    // Whether group secrets are exchanged with the client,
+    // the AEADCipher to open the messages the client broadcasts to the whole room,
+    // used without the lock from the worker thread,
+    // and whether the client has acknowledged receiving the user's group secret
+    private boolean              groupSessionEnabled;
+    private volatile AEADCipher  clientGroupAEADCipher;
+    private boolean              groupKeyAcknowledged;
+
+    // The counters of the next reliable and unreliable normal messages
+    // sent under T2 to T5, and the window over the sequence numbers of those
+    // received, used without the lock from the worker thread.
+    // Under T6, T7 and T8, the AEADCiphers keep their own.
+    private int                  reliableSequenceCounter;
+    private int                  unreliableSequenceCounter;
+    private ReplayWindow         replayWindow;
 
     // The "layer" to pass outgoing messages to
     private MessageSender        messageSender;
@@ -58,10 +91,14 @@ public class SecureClientSender {
     private OwnSecurityData      ownSecurityData;
 
     // Queues to buffer outgoing messages when the mutual authentication
-    // protocol is still in progress.
+    // protocol is still in progress, indexed by priority class.
     // The queues will be flushed when the client has authenticated him/herself.
-    private Queue<byte[]>        reliableMessageQueue;
-    private Queue<byte[]>        unreliableMessageQueue;
+    private OutgoingMessageQueue[]    reliableMessageQueues;
+    private OutgoingMessageQueue[]    unreliableMessageQueues;
+
+    // Classifies the queued messages into priority classes,
+    // null to queue every message as high priority
+    private MessagePriorityClassifier messagePriorityClassifier;
 
     // Whether the normal outgoing messages can be sent over and
     // need not be queued
@@ -73,28 +110,63 @@ public class SecureClientSender {
      *
      * Creates an instance of SecureClientSender
      *
-     * @param id              The ID of the other client
-     * @param messageSender   The message sending "layer" to pass outgoing messages to
-     * @param ownSecurityData The user's  OwnSecurityData
+     * @param slot                      The slot of the other client
+     * @param messageSender             The message sending "layer" to pass outgoing messages to
+     * @param ownSecurityData           The user's  OwnSecurityData
+     * @param messagePriorityClassifier The MessagePriorityClassifier for queued messages, may be null
+     * @param queueCapacity             The maximum number of messages held by each outgoing queue
+     * @param groupSessionEnabled       Whether group secrets are exchanged with the client
      */
-    public SecureClientSender(String id, MessageSender messageSender,
-            OwnSecurityData ownSecurityData) {
+    public SecureClientSender(int slot, MessageSender messageSender,
+            OwnSecurityData ownSecurityData,
+            MessagePriorityClassifier messagePriorityClassifier, int queueCapacity,
+            boolean groupSessionEnabled) {
 
         clientSecurityProtocolType = SecurityProtocolType.NONE;
-        this.id                     = id;
-        this.messageSender          = messageSender;
-        this.ownSecurityData        = ownSecurityData;
-        this.reliableMessageQueue   = new LinkedList<byte[]>();
-        this.unreliableMessageQueue = new LinkedList<byte[]>();
-        sendBallotMessage();
+        this.slot                      = slot;
+        this.messageSender             = messageSender;
+        this.ownSecurityData           = ownSecurityData;
+        this.messagePriorityClassifier = messagePriorityClassifier;
+        this.groupSessionEnabled       = groupSessionEnabled;
+        replayWindow                   = new ReplayWindow();
+
+        // Reliable messages are never evicted for newer ones,
+        // while unreliable messages follow a drop oldest policy
+        reliableMessageQueues   = new OutgoingMessageQueue[MessagePriorityClassifier.TOTAL_PRIORITIES];
+        unreliableMessageQueues = new OutgoingMessageQueue[MessagePriorityClassifier.TOTAL_PRIORITIES];
+        for (int priority=0; priority<MessagePriorityClassifier.TOTAL_PRIORITIES; ++priority) {
+            reliableMessageQueues  [priority] = new OutgoingMessageQueue(queueCapacity, false);
+            unreliableMessageQueues[priority] = new OutgoingMessageQueue(queueCapacity, true);
+        }
+        try {
+            sendBallotMessage();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to send the ballot to slot " + slot, e);
+        }
 
     }
 
     /**
-     * @return The ID of the other client
+     * @return The slot of the other client
      */
-    public String getId() {
-        return id;
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return Whether the other client has authenticated him/herself
+     *         and normal messages are sent without being queued
+     */
+    public synchronized boolean isReadyToSend() {
+        return readyToSend;
+    }
+
+    /**
+     * @return Whether the other client has acknowledged receiving the user's group secret,
+     *         so that messages broadcasted to the whole room can be sealed with it
+     */
+    public synchronized boolean isGroupKeyAcknowledged() {
+        return groupKeyAcknowledged;
     }
 
     /**
@@ -102,12 +174,28 @@ public class SecureClientSender {
      * Balloting will determine whether the user or the other client
      * gets to be the first sender in the mutual authentication protocols.
      *
-     * The ballot is a pseudo-randomly generated int
+     * The ballot is a pseudo-randomly generated int,
+     * sent together with the user's choice of security protocol
+     *
+     * If the user has chosen T8, the ballot also carries the user's nonce
+     * and EC public key, which is all the other client needs to set up
+     * the keys of T8 if he/she has chosen it too, and a tag over both
+     * keyed with the common password
      */
-    private void sendBallotMessage() {
-        ownFirstSenderBallot = new Random().nextInt(10000);
-        byte[] handshakeMessage = SecurityMessageType.getBallotMessage(ownFirstSenderBallot);
-        messageSender.broadcastReliableMessageToId(handshakeMessage, id);
+    private void sendBallotMessage() throws Exception {
+        ownFirstSenderBallot = CryptoContext.get().nextInt(10000);
+        SecurityProtocolType ownSecurityProtocolType = ownSecurityData.getSecurityProtocolType();
+        byte[] handshakeMessage;
+        if (ownSecurityProtocolType == SecurityProtocolType.T8)
+            handshakeMessage = SecurityMessageType.getBallotMessage(ownFirstSenderBallot,
+                    ownSecurityProtocolType, SecurityHelper.compose(
+                            ownSecurityData.getNonce(), ownSecurityData.getECPublicKeyBytes(),
+                            getT8BallotTag(ownSecurityData.getNonce(),
+                                    ownSecurityData.getECPublicKeyBytes())));
+        else
+            handshakeMessage = SecurityMessageType.getBallotMessage(ownFirstSenderBallot,
+                    ownSecurityProtocolType);
+        messageSender.broadcastReliableMessageToSlot(handshakeMessage, slot);
     }
 
     /**
@@ -118,15 +206,26 @@ public class SecureClientSender {
      *
      * The person with the lower ballot gets to be the 1st sender
      *
+     * The client's choice of security protocol is taken from the ballot, so that
+     * the 1st authentication message only carries the keys both protocols need.
+     *
+     * If both the user and the client have chosen T8, there is no 1st sender,
+     * and the mutual authentication is concluded with the ballot instead.
+     *
      * @param message  The incoming ballot message
      */
-    private void registerBallotMessage(byte[] message) {
+    private void registerBallotMessage(byte[] message) throws Exception {
         if (firstSenderDecided)
             return;
 
         int clientFirstSenderBallot = SecurityMessageType.getBallotMessageValue(message);
+        clientSecurityProtocolType  = SecurityMessageType.getBallotMessageSecurityProtocolType(message);
 
-        if (clientFirstSenderBallot == ownFirstSenderBallot) {
+        if (clientSecurityProtocolType == SecurityProtocolType.T8 &&
+                ownSecurityData.getSecurityProtocolType() == SecurityProtocolType.T8) {
+            firstSenderDecided = true;
+            concludeAuthenticationForT8Client(SecurityMessageType.getBallotMessageBody(message));
+        } else if (clientFirstSenderBallot == ownFirstSenderBallot) {
             sendBallotMessage();
         } else if (clientFirstSenderBallot > ownFirstSenderBallot) {
             firstSenderDecided = true;
@@ -140,11 +239,63 @@ public class SecureClientSender {
      * Registers an incoming message received from the other client
      * @param message  The incoming message
      */
-    public void registerMessage(byte[] message) {
-        if (message[0] == SecurityMessageType.BALLOT.token)
-            registerBallotMessage(message);
-        else if (message[0] == SecurityMessageType.AUTHENTICATION.token)
-            try { registerAuthenticationMessage(message); } catch (Exception e) {}
+    public synchronized void registerMessage(byte[] message) {
+        try {
+            if (message[0] == SecurityMessageType.BALLOT.token)
+                registerBallotMessage(message);
+            else if (message[0] == SecurityMessageType.AUTHENTICATION.token)
+                registerAuthenticationMessage(message);
+            else if (message[0] == SecurityMessageType.GROUP_KEY.token)
+                registerGroupKeyMessage(message);
+            else if (message[0] == SecurityMessageType.GROUP_KEY_ACK.token)
+                registerGroupKeyAckMessage(message);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Dropped a security message from slot " + slot, e);
+        }
+    }
+
+    /**
+     * Sends the user's group secret to the other client, sealed with
+     * the key of the messages sent to him/her.
+     *
+     * Only done if the other client has chosen a protocol that seals the messages,
+     * as the group secret needs the same confidentiality.
+     */
+    private void sendGroupKeyMessage() throws Exception {
+        if (groupSessionEnabled==false || clientAEADCipher==null)
+            return;
+        messageSender.broadcastReliableMessageToSlot(SecurityMessageType.getSealedGroupKeyMessage(
+                clientAEADCipher, ownSecurityData.getGroupSecretBytes()), slot);
+    }
+
+    /**
+     * Register the group secret of the other client, then acknowledge it
+     * with its digest, which proves that it has been received without revealing it
+     * @param message The incoming group key message
+     */
+    private void registerGroupKeyMessage(byte[] message) throws Exception {
+        AEADCipher aeadCipher = ownAEADCipher;
+        if (groupSessionEnabled==false || aeadCipher==null)
+            return;
+
+        byte[] clientGroupSecret = SecurityMessageType.getOpenedMessageBody(aeadCipher, message);
+        if (clientGroupSecret==null || clientGroupSecret.length!=AEADCipher.KEY_LENGTH)
+            failAuthentication();
+
+        clientGroupAEADCipher = new AEADCipher(clientGroupSecret);
+        messageSender.broadcastReliableMessageToSlot(SecurityMessageType.getGroupKeyAckMessage(
+                SecurityHelper.getMD5Hash(clientGroupSecret)), slot);
+    }
+
+    /**
+     * Register the acknowledgement of the user's group secret,
+     * if it carries the digest of the secret
+     * @param message The incoming group key acknowledgement
+     */
+    private void registerGroupKeyAckMessage(byte[] message) throws Exception {
+        if (Arrays.equals(SecurityMessageType.getGroupKeyAckMessageBody(message),
+                SecurityHelper.getMD5Hash(ownSecurityData.getGroupSecretBytes())))
+            groupKeyAcknowledged = true;
     }
 
     /**
@@ -221,6 +372,46 @@ public class SecureClientSender {
             // And the whole cipher text to the 2nd outgoing interlock message
             interlockSendMessages[1] = getAuthenticationMessage(messageCipherText);
 
+        } else if (ownSecurityData.getSecurityProtocolType() == SecurityProtocolType.T6) {
+
+            interlockSendMessages = new byte[2][];
+
+        	// If T6, encrypt the user's AEAD secret and the other client's nonce
+            // using the other client's RSA public key
+            byte[] encryptedSecretAndNonce =
+                    composeEncryptedMessageWithClientRSAPublicKey(
+                            ownSecurityData.getAEADSecretBytes(), clientNonce);
+
+            // Create an MD5 digest of the whole cipher text,
+            // and sign it with the user's own RSA private key
+            byte[] signedDigest = getEncryptedMessageWithOwnRSAPrivateKey(
+                    SecurityHelper.getMD5Hash(encryptedSecretAndNonce));
+
+            // As with T5, only the 1st outgoing interlock message is meaningful
+            interlockSendMessages[0] = getAuthenticationMessage(
+                    SecurityHelper.compose(encryptedSecretAndNonce, signedDigest));
+            interlockSendMessages[1] = getAuthenticationMessage(" ".getBytes());
+
+            // Derive the key of the messages the other client will send to the user
+            ownAEADCipher = new AEADCipher(AEADCipher.deriveKey(
+                    ownSecurityData.getAEADSecretBytes(), ownSecurityData.getNonce(), clientNonce));
+
+        } else if (ownSecurityData.getSecurityProtocolType() == SecurityProtocolType.T7 ||
+                   ownSecurityData.getSecurityProtocolType() == SecurityProtocolType.T8) {
+
+            interlockSendMessages = new byte[2][];
+
+            // If T7, or T8 with a client who has not chosen T8, sign the other client's nonce with the user's EC private key.
+            // No key needs to be sent, as both sides agree on the same secret
+            // from their EC keys exchanged in the 1st authentication messages
+            interlockSendMessages[0] = getAuthenticationMessage(
+                    ownSecurityData.getSignatureWithEC(clientNonce));
+            interlockSendMessages[1] = getAuthenticationMessage(" ".getBytes());
+
+            // Derive the key of the messages the other client will send to the user
+            ownAEADCipher = new AEADCipher(AEADCipher.deriveKey(
+                    getECSharedSecret(), ownSecurityData.getNonce(), clientNonce));
+
         } else if (ownSecurityData.getSecurityProtocolType() == SecurityProtocolType.T5) {
 
             interlockSendMessages = new byte[2][];
@@ -262,7 +453,7 @@ public class SecureClientSender {
         if (authenticationReceivedCount == 0) {
 
         	// If it is the 1st message received, extract the other client's
-        	// RSA public key, nonce, and choice of security protocol from it
+        	// nonce, RSA and EC public keys if any, and choice of security protocol from it
 
             clientSecurityProtocolType = SecurityMessageType
                     .getSecurityProtocolType(message);
@@ -270,8 +461,11 @@ public class SecureClientSender {
             byte[][] messageFields = SecurityHelper
                     .decompose(getAuthenticationMessageBody(message));
 
-            clientNonce     = messageFields[0];
-            clientRSACipher = new RSAPublicCipher(messageFields[1]);
+            clientNonce = messageFields[0];
+            if (messageFields[1].length>0)
+                clientRSACipher = new RSAPublicCipher(messageFields[1]);
+            if (messageFields[2].length>0)
+                clientECCipher  = new ECPublicCipher(messageFields[2]);
 
             // Prepare the interlock messages once we have set up the
             // ClientRSACipher using the other client's RSA public key
@@ -294,10 +488,17 @@ public class SecureClientSender {
             // received interlock message
             interlockReceivedMessages[0] = getAuthenticationMessageBody(message);
 
-            // If the client has choosen T5, we can release the lock
+            // If the client has choosen T5, T6 or T7, we can release the lock
             // on the outgoing message queues now and start sending messages over.
+            // A client who has chosen T8 authenticates him/herself as with T7
+            // if the user has not chosen T8.
             if (clientSecurityProtocolType == SecurityProtocolType.T5)
                 concludeAuthenticationForT5Client();
+            else if (clientSecurityProtocolType == SecurityProtocolType.T6)
+                concludeAuthenticationForT6Client();
+            else if (clientSecurityProtocolType == SecurityProtocolType.T7 ||
+                     clientSecurityProtocolType == SecurityProtocolType.T8)
+                concludeAuthenticationForT7Client();
 
             // Proceed to send the next authentication message.
             sendAuthenticationMessage();
@@ -483,29 +684,174 @@ public class SecureClientSender {
         }
     }
 
+    /**
+     *  - Verify the integrity of the 1st received interlock message
+     *  - Derive the AEAD key to seal outgoing messages to the other client
+     *  - Releases the bar on the outgoing message queues
+     */
+    private void concludeAuthenticationForT6Client() throws Exception {
+
+        byte[][] fields = SecurityHelper.decompose(interlockReceivedMessages[0]);
+        byte[] encryptedSecretAndNonce = fields[0];
+        byte[] signedDigest            = fields[1];
+
+        // Verify that digest is truly signed by the other client,
+        // the same way as T5
+        if (Arrays.equals(
+                SecurityHelper.getMD5Hash(encryptedSecretAndNonce),
+                getDecryptedMessageWithClientRSAPublicKey(signedDigest))) {
+
+            byte[][] subFields = decomposeEncryptedMessageWithOwnRSAPrivateKey(encryptedSecretAndNonce);
+            byte[] clientSecret  = subFields[0];
+            byte[] receivedNonce = subFields[1];
+
+            // Verify that the nonce received is the same as the user's own nonce.
+            if (Arrays.equals(receivedNonce, ownSecurityData.getNonce())) {
+
+                // Derive the AEAD key for the other client from his/her secret
+                // and both nonces, the same way he/she derives it.
+                clientAEADCipher = new AEADCipher(AEADCipher.deriveKey(
+                        clientSecret, clientNonce, ownSecurityData.getNonce()));
+
+                // Release the lock on the outgoing message queues
+                setReadyToSend();
+
+            } else {
+                failAuthentication();
+            }
+        } else {
+            failAuthentication();
+        }
+    }
+
+    /**
+     *  - Verify that the 1st received interlock message was signed by the
+     *    holder of the EC key pair in the other client's 1st authentication message
+     *  - Derive the AEAD key to seal outgoing messages to the other client
+     *  - Releases the bar on the outgoing message queues
+     */
+    private void concludeAuthenticationForT7Client() throws Exception {
+
+        byte[] signedNonce = interlockReceivedMessages[0];
+
+        // Verify that the user's own nonce is truly signed by the other client
+        if (clientECCipher.verify(ownSecurityData.getNonce(), signedNonce)) {
+
+            // Derive the AEAD key for the other client from the secret agreed on
+            // with his/her EC public key and both nonces, the same way he/she derives it.
+            clientAEADCipher = new AEADCipher(AEADCipher.deriveKey(
+                    getECSharedSecret(), clientNonce, ownSecurityData.getNonce()));
+
+            // Release the lock on the outgoing message queues
+            setReadyToSend();
+
+        } else {
+            failAuthentication();
+        }
+    }
+
+    /**
+     *  - Verify that the nonce and EC public key in the other client's ballot
+     *    were tagged with the common password
+     *  - Derive the AEAD keys of both directions from the secret agreed on with the key
+     *  - Releases the bar on the outgoing message queues
+     *
+     * The EC keys are taken again for every session and nothing vouches for them,
+     * so a signature made with them would prove nothing about who sent the ballot.
+     * The tag only shows that the ballot was made by someone holding the common
+     * password, the same guarantee T2 to T4 get from it. As the password ships in
+     * every client, this protects only against attackers without the client binary:
+     * anyone who has extracted it can tag an EC key of his/her own and sit in the
+     * middle. No protocol in this tree does better, as none of them has a key
+     * that something outside the clients vouches for.
+     *
+     * The mutual authentication still takes a single message each way. Both sides
+     * send their ballots at once, and each derives the key of a direction from
+     * the receiver's nonce first, so no roles are needed. Both nonces go into the
+     * keys, so a ballot replayed from an earlier session leads to keys nobody can use.
+     *
+     * @param ballotMessageBody The body of the ballot, holding the client's
+     *                          nonce, EC public key and their tag
+     */
+    private void concludeAuthenticationForT8Client(byte[] ballotMessageBody) throws Exception {
+
+        byte[][] fields = SecurityHelper.decompose(ballotMessageBody);
+        if (fields.length != 3 ||
+                !MessageDigest.isEqual(fields[2], getT8BallotTag(fields[0], fields[1]))) {
+            failAuthentication();
+        }
+        clientNonce     = fields[0];
+        clientECCipher  = new ECPublicCipher(fields[1]);
+
+        // Derive the key of the messages the other client will send to the user
+        ownAEADCipher    = new AEADCipher(AEADCipher.deriveKey(
+                getECSharedSecret(), ownSecurityData.getNonce(), clientNonce));
+
+        // Derive the key of the messages the user will send to the other client,
+        // the same way he/she derives it
+        clientAEADCipher = new AEADCipher(AEADCipher.deriveKey(
+                getECSharedSecret(), clientNonce, ownSecurityData.getNonce()));
+
+        // Release the lock on the outgoing message queues
+        setReadyToSend();
+    }
+
+    /**
+     * Get the tag of the nonce and EC public key carried in a T8 ballot,
+     * keyed with the common password. The nonce has a fixed length,
+     * so the two are tagged one after the other without being composed.
+     * @param nonce       The nonce of the sender of the ballot
+     * @param ecPublicKey The EC public key of the sender of the ballot
+     * @return            The tag, held in a buffer of the CryptoContext
+     *                    of the calling thread until its next tag
+     */
+    private byte[] getT8BallotTag(byte[] nonce, byte[] ecPublicKey) {
+        CryptoContext cryptoContext = CryptoContext.get();
+        cryptoContext.updatePasswordMAC(nonce);
+        cryptoContext.updatePasswordMAC(ecPublicKey);
+        return cryptoContext.finishPasswordMAC();
+    }
+
+    /**
+     * @return The secret agreed on with the other client's EC public key,
+     *         computed once and used for the keys of both directions
+     */
+    private byte[] getECSharedSecret() throws Exception {
+        if (ecSharedSecret==null)
+            ecSharedSecret = ownSecurityData.getSharedSecretWithEC(clientECCipher);
+        return ecSharedSecret;
+    }
+
     /**
      * Prints out a message to the Log console that the client has failed
      * to authenticate him/herself
      * @throws Exception
      */
     private void failAuthentication() throws Exception {
-        Log.e("Security Message Layer", "The client has failed to authenticate him/herself!");
+        LOG.severe("The client has failed to authenticate him/herself!");
         throw new Exception();
     }
 
     /**
      * Sends the next authentication message over to the other client
      */
-    private void sendAuthenticationMessage() {
+    private void sendAuthenticationMessage() throws Exception {
         byte[] authenticationMessage = {};
 
         if (authenticationSentCount == 0) {
 
-        	// The 1st message would contain the user's nonce
-        	// and the user's RSA public key.
+        	// The 1st message would contain the user's nonce,
+        	// and the user's RSA and EC public keys if the protocols
+        	// of either the user or the other client need them.
+            SecurityProtocolType ownSecurityProtocolType = ownSecurityData.getSecurityProtocolType();
+            boolean rsaNeeded = ownSecurityProtocolType.usesRSA() ||
+                    (clientSecurityProtocolType!=null && clientSecurityProtocolType.usesRSA());
+            boolean ecNeeded  = ownSecurityProtocolType.usesEC() ||
+                    (clientSecurityProtocolType!=null && clientSecurityProtocolType.usesEC());
             authenticationMessage = getAuthenticationMessage(SecurityHelper
                     .compose(ownSecurityData.getNonce(),
-                            ownSecurityData.getRSAPublicKeyBytes()));
+                            rsaNeeded ? ownSecurityData.getRSAPublicKeyBytes() : new byte[0],
+                            ecNeeded  ? ownSecurityData.getECPublicKeyBytes()  : new byte[0]));
 
         } else if (authenticationSentCount == 1) {
 
@@ -526,7 +872,7 @@ public class SecureClientSender {
         ++authenticationSentCount;
 
         // Sends the outgoing message to the other client
-        messageSender.broadcastReliableMessageToId(authenticationMessage, id);
+        messageSender.broadcastReliableMessageToSlot(authenticationMessage, slot);
     }
 
     /**
@@ -595,24 +941,132 @@ public class SecureClientSender {
         return SecurityMessageType.getAuthenticationMessageBody(message);
     }
 
+    /**
+     * Opens an incoming normal message sealed by the other client under T6, T7 or T8.
+     * Not synchronized, so that opening never waits on outgoing messages.
+     * @param message The incoming normal message
+     * @return        The opened message,
+     *                null if the key has yet to be derived or the message fails verification
+     */
+    public byte[] getOpenedNormalMessage(byte[] message) {
+        AEADCipher aeadCipher = ownAEADCipher;
+        if (aeadCipher==null)
+            return null;
+        return SecurityMessageType.getOpenedNormalMessageBody(aeadCipher, message);
+    }
+
+    /**
+     * Checks the sequence number of an incoming normal message sent under T2 to T5
+     * without registering it, so that a replay is dropped before it is verified.
+     * Not synchronized, and only called from the worker thread.
+     * @param sequenceNumber The sequence number of the message
+     * @return               Whether the message is not a replay
+     */
+    public boolean isFreshSequenceNumber(int sequenceNumber) {
+        return replayWindow.isFresh(sequenceNumber);
+    }
+
+    /**
+     * Registers the sequence number of an incoming normal message sent under T2 to T5
+     * once the message has been verified.
+     * Not synchronized, and only called from the worker thread.
+     * @param sequenceNumber The sequence number of the message
+     * @return               Whether the message is not a replay
+     */
+    public boolean registerSequenceNumber(int sequenceNumber) {
+        return replayWindow.register(sequenceNumber);
+    }
+
+    /**
+     * Opens an incoming group message sealed with the other client's group secret.
+     * Not synchronized, so that opening never waits on outgoing messages.
+     * @param message The incoming group message
+     * @return        The opened message,
+     *                null if the group secret has yet to be received or the message fails verification
+     */
+    public byte[] getOpenedGroupMessage(byte[] message) {
+        AEADCipher aeadCipher = clientGroupAEADCipher;
+        if (aeadCipher==null)
+            return null;
+        return SecurityMessageType.getOpenedMessageBody(aeadCipher, message);
+    }
+
     /**
      * Releases the lock on the outgoing message queues for normal messages
      */
     private void setReadyToSend() {
         readyToSend = true;
+
+        // The group secret goes out first, so that broadcasts
+        // are sealed once as early as possible
+        try {
+            sendGroupKeyMessage();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to send the group secret to slot " + slot, e);
+        }
         flushQueues();
     }
 
     /**
      * Sends out all the normal messages that have been queued in the
-     * outgoing message queues
+     * outgoing message queues, highest priority class first
      */
-    public void flushQueues() {
-        while (reliableMessageQueue.isEmpty() == false)
-            broadcastReliableMessage(reliableMessageQueue.remove());
+    public synchronized void flushQueues() {
+        for (int priority=0; priority<MessagePriorityClassifier.TOTAL_PRIORITIES; ++priority) {
+            while (reliableMessageQueues[priority].isEmpty() == false)
+                broadcastReliableMessage(reliableMessageQueues[priority].remove());
 
-        while (unreliableMessageQueue.isEmpty() == false)
-            broadcastUnreliableMessage(unreliableMessageQueue.remove());
+            while (unreliableMessageQueues[priority].isEmpty() == false)
+                broadcastUnreliableMessage(unreliableMessageQueues[priority].remove());
+        }
+    }
+
+    /**
+     * Adds an outgoing normal message to the queue of its priority class
+     * @param queues  The reliable or unreliable queues
+     * @param message The message
+     */
+    private void enqueue(OutgoingMessageQueue[] queues, byte[] message) {
+        if (messagePriorityClassifier==null) {
+            queues[MessagePriorityClassifier.PRIORITY_HIGH]
+                    .add(message, MessagePriorityClassifier.NOT_SUPERSEDED);
+            return;
+        }
+        queues[messagePriorityClassifier.getPriority(message)]
+                .add(message, messagePriorityClassifier.getSupersedeKey(message));
+    }
+
+    /**
+     * @return The number of normal messages waiting for the
+     *         mutual authentication to complete
+     */
+    public synchronized int getQueuedMessageCount() {
+        int count = 0;
+        for (int priority=0; priority<MessagePriorityClassifier.TOTAL_PRIORITIES; ++priority)
+            count += reliableMessageQueues[priority].size() + unreliableMessageQueues[priority].size();
+        return count;
+    }
+
+    /**
+     * @return The number of normal messages dropped due to full queues
+     */
+    public synchronized long getDroppedMessageCount() {
+        long count = 0;
+        for (int priority=0; priority<MessagePriorityClassifier.TOTAL_PRIORITIES; ++priority)
+            count += reliableMessageQueues[priority].getDroppedCount()
+                   + unreliableMessageQueues[priority].getDroppedCount();
+        return count;
+    }
+
+    /**
+     * @return The number of queued normal messages replaced by newer ones
+     */
+    public synchronized long getSupersededMessageCount() {
+        long count = 0;
+        for (int priority=0; priority<MessagePriorityClassifier.TOTAL_PRIORITIES; ++priority)
+            count += reliableMessageQueues[priority].getSupersededCount()
+                   + unreliableMessageQueues[priority].getSupersededCount();
+        return count;
     }
 
     /**
@@ -623,9 +1077,10 @@ public class SecureClientSender {
      * The message is then labeled as an normal message
      *
      * @param message
+     * @param reliable Whether the message is sent reliably
      * @return The prepared normal message.
      */
-    private byte[] getNormalMessage(byte[] message) {
+    private byte[] getNormalMessage(byte[] message, boolean reliable) {
 
         if (clientSecurityProtocolType==SecurityProtocolType.NONE) {
             return SecurityMessageType.getNormalMessage(message);
@@ -634,9 +1089,6 @@ public class SecureClientSender {
         try{
             if (clientSecurityProtocolType==SecurityProtocolType.T2) {
 
-                byte[] passwordNonceMessageHash =
-                        SecurityHelper.getMD5Hash(clientPassword, clientNonce, message);
-
                 // For T2, we try to add a digest that is made
                 // with the shared password, client's nonce, and message
                 //
@@ -647,64 +1099,113 @@ public class SecureClientSender {
                 //
                 // He would need to know the other client's nonce and password.
                 // To be able to do so
-                message = SecurityHelper.compose(passwordNonceMessageHash, message);
+                return getDigestedNormalMessage(clientPassword, message, null, reliable);
 
             } else if (clientSecurityProtocolType==SecurityProtocolType.T3 ||
                        clientSecurityProtocolType==SecurityProtocolType.T4) {
 
             	// Here, we give the message a digest using the other client's
-            	// password, nonce and message again to provide the message with
-            	// "freshness" to prevent replay attacks
-                byte[] passwordNonceMessageHash =
-                        SecurityHelper.getMD5Hash(clientPassword, clientNonce, message);
-
+            	// password, nonce and message again to make sure the message
+            	// comes from the client.
+                //
                 // As requested by the protocol, we would encrypt the message
                 // with the other client's DES key as well
-                byte[] encryptedMesage = clientDESCipher.getCipherText(message);
+                return getDigestedNormalMessage(clientPassword, message, clientDESCipher, reliable);
+
+            } else if (clientSecurityProtocolType==SecurityProtocolType.T6 ||
+                       clientSecurityProtocolType==SecurityProtocolType.T7 ||
+                       clientSecurityProtocolType==SecurityProtocolType.T8) {
 
-                message = SecurityHelper.compose(passwordNonceMessageHash, encryptedMesage);
+            	// For T6, T7 and T8, the message is encrypted and authenticated in a single
+            	// pass, with a counter as the nonce that doubles as its sequence number.
+            	// The label is written into the same buffer, so no composing is needed.
+                return SecurityMessageType.getSealedNormalMessage(clientAEADCipher, message, reliable);
 
             } else if (clientSecurityProtocolType==SecurityProtocolType.T5) {
 
             	// Here, we give the message a digest using the other client's
-            	// nonce and the message to provide the meessage with "freshness"
-            	// to prevent replay attacks
-                byte[] nonceMessageHash =
-                        SecurityHelper.getMD5Hash(clientNonce, message);
-
+            	// nonce and the message to make sure the message comes from the client.
+                //
                 // As requested by the protocol, we would encrypt the message
                 // with the other client's DES key as well
-                byte[] encryptedMessage = clientDESCipher.getCipherText(message);
-
-                message = SecurityHelper.compose(nonceMessageHash, encryptedMessage);
+                return getDigestedNormalMessage(null, message, clientDESCipher, reliable);
 
             } else {
                 return null;
             }
-            return SecurityMessageType.getNormalMessage(message);
         } catch (Exception e) {
             return null;
         }
     }
 
-    public void broadcastReliableMessage(byte[] message) {
+    /**
+     * Prepares a normal message holding the sequence number of the message,
+     * followed by the digest of the message composed with the message,
+     * encrypted if a DESCipher is given.
+     *
+     * The sequence number is part of the digest, so it cannot be changed
+     * to replay the message under another.
+     *
+     * The normal message is allocated once, and the digest and the message
+     * are written straight into it behind the label and the header of the fields.
+     *
+     * @param password  The password to start the digest with, null for none
+     * @param message   The message
+     * @param desCipher The DESCipher to encrypt the message with, null to leave it unencrypted
+     * @param reliable  Whether the message is sent reliably
+     * @return          The prepared normal message
+     */
+    private byte[] getDigestedNormalMessage(byte[] password, byte[] message,
+            DESCipher desCipher, boolean reliable) throws Exception {
+
+        int bodyLength = desCipher==null ?
+                message.length : desCipher.getCipherTextLength(message.length);
+        byte[] normalMessage = SecurityMessageType.allocateNormalMessage(
+                ReplayWindow.SEQUENCE_NUMBER_LENGTH +
+                SecurityHelper.getComposedLength(CryptoContext.MD5_LENGTH, bodyLength));
+
+        int offset = SecurityMessageType.HEADER_LENGTH;
+        SecurityHelper.writeInt(ReplayWindow.getSequenceNumber(
+                reliable ? reliableSequenceCounter++ : unreliableSequenceCounter++, reliable),
+                normalMessage, offset);
+
+        // The digest is streamed through the CryptoContext of the network thread
+        CryptoContext cryptoContext = CryptoContext.get();
+        if (password!=null)
+            cryptoContext.updateMD5(password);
+        cryptoContext.updateMD5(clientNonce);
+        cryptoContext.updateMD5(normalMessage, offset, ReplayWindow.SEQUENCE_NUMBER_LENGTH);
+        cryptoContext.updateMD5(message);
+
+        offset = SecurityHelper.writeComposedHeader(normalMessage,
+                offset + ReplayWindow.SEQUENCE_NUMBER_LENGTH, CryptoContext.MD5_LENGTH, bodyLength);
+
+        offset += cryptoContext.finishMD5(normalMessage, offset);
+        if (desCipher==null)
+            System.arraycopy(message, 0, normalMessage, offset, message.length);
+        else
+            desCipher.getCipherText(message, 0, message.length, normalMessage, offset);
+        return normalMessage;
+    }
+
+    public synchronized void broadcastReliableMessage(byte[] message) {
         if (readyToSend == false) {
-            reliableMessageQueue.add(message);
+            enqueue(reliableMessageQueues, message);
             return;
         }
-        message = getNormalMessage(message);
+        message = getNormalMessage(message, true);
         if (message!=null)
-            messageSender.broadcastReliableMessageToId(message, id);
+            messageSender.broadcastReliableMessageToSlot(message, slot);
     }
 
-    public void broadcastUnreliableMessage(byte[] message) {
+    public synchronized void broadcastUnreliableMessage(byte[] message) {
         if (readyToSend == false) {
-            unreliableMessageQueue.add(message);
+            enqueue(unreliableMessageQueues, message);
             return;
         }
-        message = getNormalMessage(message);
+        message = getNormalMessage(message, false);
         if (message!=null)
-            messageSender.broadcastUnreliableMessageToId(message, id);
+            messageSender.broadcastUnreliableMessageToSlot(message, slot);
     }
 
 }
@@ -9,9 +9,30 @@ public class SecurityDefaults {
     public static final int    RSA_KEY_LENGTH  = 1024;
     public static final byte[] COMMON_PASSWORD = "s3cr3T".getBytes();
     public static final int    NONCE_LENGTH    = 5;
+    public static final int    AEAD_SECRET_LENGTH = 16;
+
+    public static final String EC_FLAG               = "EC";
+    public static final String EC_CURVE              = "secp256r1";
+    public static final String EC_SIGNATURE_FLAG     = "SHA256withECDSA";
+    public static final String EC_KEY_AGREEMENT_FLAG = "ECDH";
+
+    public static final String BALLOT_MAC_FLAG       = "HmacSHA256";
 
     public static final int    TOTAL_SEND_AUTHENTICATION_MESSAGES = 3;
 
+    public static final int    OUTGOING_QUEUE_CAPACITY            = 64;
+
+    public static final boolean GROUP_SESSION_ENABLED             = true;
+
+    // None of the protocols authenticates a client against a man in the middle
+    // who has the client binary: the RSA and EC keys are made by the clients with
+    // nothing vouching for them, and the common password ships in every client.
+    // The default is therefore chosen on cost and on what holds against eavesdroppers.
+    // T7 seals messages faster and with half the overhead of the DES based protocols,
+    // and its EC keys are taken anew every session, so a session recorded now cannot
+    // be opened later. T8 has a cheaper handshake with the same keys, but clients
+    // released before it cannot read its ballot, so T7 stays the default.
+    // See SecuritySetupBenchmark and SecurityThroughputBenchmark.
     public static final SecurityProtocolType SECURITY_PROTOCOL_TYPE
-        = SecurityProtocolType.T5;
+        = SecurityProtocolType.T7;
 }
@@ -1,22 +1,30 @@
 package com.vengestudios.sortme.security;
 
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.SecureRandom;
 import java.util.Arrays;
 
 /**
  * A helper class to assist in various security tasks, and handling
  * byte array based messages
+ *
+ * The digests and random numbers come from the CryptoContext of the calling
+ * thread, so none of them creates a MessageDigest or SecureRandom.
+ *
+ * Besides compose and decompose, which copy every field, composed messages
+ * can be written field by field into a buffer the caller has allocated,
+ * and read as offsets and lengths into the buffer they arrived in.
  */
 public class SecurityHelper {
 
 	/**
 	 * @param messages An array of messages
-	 * @return A MD5 hash created from combining the messages
+	 * @return A MD5 hash created from combining the messages,
+	 *         which are hashed in turn rather than joined
 	 */
     public static byte[] getMD5Hash(byte[] ... messages) throws Exception {
-        return getMD5Hash(join(messages));
+        CryptoContext cryptoContext = CryptoContext.get();
+        for (byte[] message:messages)
+            cryptoContext.updateMD5(message);
+        return cryptoContext.finishMD5().clone();
     }
 
 	/**
@@ -24,8 +32,9 @@ public class SecurityHelper {
 	 * @return A MD5 hash created from the message
 	 */
     public static byte[] getMD5Hash(byte[] message) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        return md.digest(message);
+        CryptoContext cryptoContext = CryptoContext.get();
+        cryptoContext.updateMD5(message);
+        return cryptoContext.finishMD5().clone();
     }
 
     /**
@@ -34,8 +43,7 @@ public class SecurityHelper {
      */
     public static byte[] generateNonce (int length) throws Exception {
         byte[] nonce = new byte[length];
-        SecureRandom rand = SecureRandom.getInstance("SHA1PRNG");
-        rand.nextBytes(nonce);
+        CryptoContext.get().nextBytes(nonce);
         return nonce;
     }
 
@@ -72,7 +80,7 @@ public class SecurityHelper {
      * @return  The int representation of the array of 4 bytes
      */
     public static int fourBytesToInt(byte[] b) {
-        return ByteBuffer.wrap(b).getInt();
+        return readInt(b, 0);
     }
 
     /**
@@ -80,7 +88,35 @@ public class SecurityHelper {
      * @return  An array of 4 bytes representing the int
      */
     public static byte[] intToFourBytes(int i) {
-        return ByteBuffer.allocate(4).putInt(i).array();
+        byte[] b = new byte[4];
+        writeInt(i, b, 0);
+        return b;
+    }
+
+    /**
+     * Reads an int from 4 big endian bytes
+     * @param b      The byte array
+     * @param offset The offset of the 4 bytes in the array
+     * @return       The int
+     */
+    public static int readInt(byte[] b, int offset) {
+        return  (b[offset  ]       ) << 24 |
+                (b[offset+1] & 0xff) << 16 |
+                (b[offset+2] & 0xff) <<  8 |
+                (b[offset+3] & 0xff);
+    }
+
+    /**
+     * Writes an int as 4 big endian bytes
+     * @param i      The int
+     * @param b      The byte array to write into
+     * @param offset The offset to write the 4 bytes at
+     */
+    public static void writeInt(int i, byte[] b, int offset) {
+        b[offset  ] = (byte)(i >>> 24);
+        b[offset+1] = (byte)(i >>> 16);
+        b[offset+2] = (byte)(i >>>  8);
+        b[offset+3] = (byte) i;
     }
 
     /**
@@ -130,9 +166,9 @@ public class SecurityHelper {
 
         // Note that we take the negative of arr.length here, so that the MSB of the int is 1
         // This is to prevent Android RSA from removing leading zeros.
-        System.arraycopy(intToFourBytes(-fields.length), 0, composed, 0, 4);
+        writeInt(-fields.length, composed, 0);
         for (int i=0; i<fields.length; ++i) {
-            System.arraycopy(intToFourBytes(fieldLengths[i]), 0, composed, (i+1)*4, 4);
+            writeInt(fieldLengths[i], composed, (i+1)*4);
         }
         for (byte[] b:fields) {
             System.arraycopy(b, 0, composed, offSet, b.length);
@@ -148,38 +184,110 @@ public class SecurityHelper {
      * @return    The original array of byte arrays
      */
     public static byte[][] decompose(byte[] arr) {
-        int minArrayLength = 4;
+        int numberOfFields = getComposedFieldCount(arr, 0, arr.length);
+        if (numberOfFields < 0)
+            return null;
+
+        byte[][] fields = new byte[numberOfFields][];
+        int offSet = 4 + numberOfFields*4;
+        for (int i=0; i<numberOfFields; ++i) {
+            fields[i] = Arrays.copyOfRange(arr, offSet, offSet += readInt(arr, 4*i + 4));
+        }
+        return fields;
+    }
 
+    /**
+     * @param fieldLength0 The length of the 1st field
+     * @param fieldLength1 The length of the 2nd field
+     * @return             The length of the two fields once composed
+     */
+    public static int getComposedLength(int fieldLength0, int fieldLength1) {
+        return 4 + 2*4 + fieldLength0 + fieldLength1;
+    }
 
-        if (arr.length < minArrayLength)
-            return null;
+    /**
+     * Writes the header of two composed fields into a caller supplied buffer,
+     * laid out the same way as compose(byte[] ... fields), so that the fields
+     * can be written directly after it instead of being composed from copies
+     * @param composed     The buffer, with getComposedLength(fieldLength0, fieldLength1)
+     *                     bytes after the offset
+     * @param offset       The offset to write the header at
+     * @param fieldLength0 The length of the 1st field
+     * @param fieldLength1 The length of the 2nd field
+     * @return             The offset to write the 1st field at,
+     *                     which is directly followed by the 2nd field
+     */
+    public static int writeComposedHeader(byte[] composed, int offset,
+            int fieldLength0, int fieldLength1) {
+        writeInt(-2,           composed, offset);
+        writeInt(fieldLength0, composed, offset+4);
+        writeInt(fieldLength1, composed, offset+8);
+        return offset+12;
+    }
 
-        int numberOfFields = Math.abs(fourBytesToInt(Arrays.copyOfRange(arr, 0, 4)));
-        minArrayLength += numberOfFields*4;
+    /**
+     * Validates a message composed using compose(byte[] ... fields)
+     * without copying any of its fields
+     * @param arr    The buffer holding the composed message
+     * @param offset The offset of the composed message in the buffer
+     * @param length The length of the composed message
+     * @return       The number of fields, -1 if the message is malformed
+     */
+    public static int getComposedFieldCount(byte[] arr, int offset, int length) {
+        if (length < 4)
+            return -1;
 
-        if (arr.length < minArrayLength)
-            return null;
+        int numberOfFields = Math.abs(readInt(arr, offset));
+        if (numberOfFields < 0 || numberOfFields > (length-4)/4)
+            return -1;
 
-        int fieldLengths[] = new int[numberOfFields];
-        int totalFieldLength = 0;
+        long totalLength = 4 + numberOfFields*4;
         for (int i=0; i<numberOfFields; ++i) {
-            int startIndex   = 4*i + 4;
-            int endIndex     = startIndex + 4;
-            int fieldLength  = fourBytesToInt(Arrays.copyOfRange(arr, startIndex, endIndex));
-            fieldLengths[i]  = fieldLength;
-            totalFieldLength += fieldLength;
+            int fieldLength = readInt(arr, offset + 4*i + 4);
+            if (fieldLength < 0)
+                return -1;
+            totalLength += fieldLength;
         }
-        int offSet = minArrayLength;
-        minArrayLength += totalFieldLength;
+        return totalLength > length ? -1 : numberOfFields;
+    }
 
-        if (arr.length < minArrayLength)
-            return null;
+    /**
+     * @param arr    The buffer holding a composed message validated by getComposedFieldCount
+     * @param offset The offset of the composed message in the buffer
+     * @param index  The index of the field
+     * @return       The length of the field
+     */
+    public static int getComposedFieldLength(byte[] arr, int offset, int index) {
+        return readInt(arr, offset + 4*index + 4);
+    }
 
-        byte[][] fields = new byte[numberOfFields][];
-        for (int i=0; i<numberOfFields; ++i) {
-            fields[i] = Arrays.copyOfRange(arr, offSet, offSet += fieldLengths[i]);
-        }
-        return fields;
+    /**
+     * @param arr    The buffer holding a composed message validated by getComposedFieldCount
+     * @param offset The offset of the composed message in the buffer
+     * @param index  The index of the field
+     * @return       The offset of the field in the buffer
+     */
+    public static int getComposedFieldOffset(byte[] arr, int offset, int index) {
+        int numberOfFields = Math.abs(readInt(arr, offset));
+        int fieldOffset    = offset + 4 + numberOfFields*4;
+        for (int i=0; i<index; ++i)
+            fieldOffset += readInt(arr, offset + 4*i + 4);
+        return fieldOffset;
+    }
+
+    /**
+     * @param a       The 1st buffer
+     * @param aOffset The offset of the range in the 1st buffer
+     * @param b       The 2nd buffer
+     * @param bOffset The offset of the range in the 2nd buffer
+     * @param length  The length of the ranges
+     * @return        Whether the ranges hold the same bytes
+     */
+    public static boolean rangeEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i=0; i<length; ++i)
+            if (a[aOffset+i] != b[bOffset+i])
+                return false;
+        return true;
     }
 
 }
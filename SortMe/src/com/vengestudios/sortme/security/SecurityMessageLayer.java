@@ -1,12 +1,12 @@
 package com.vengestudios.sortme.security;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.vengestudios.sortme.MessageReceiver;
 import com.vengestudios.sortme.MessageSender;
+import com.vengestudios.sortme.ParticipantRegistry;
 
 /**
  * The "layer" that acts as an intermediary between the
@@ -24,15 +24,28 @@ import com.vengestudios.sortme.MessageSender;
  *
  *  - Decryption and verification of incoming messages
  *
+ *  - Sealing messages broadcasted to the whole room once with the user's
+ *    group secret, for the clients who have acknowledged receiving it
+ *
  *  - Redirecting incoming messages to the
  *    > relevant SecureClientSender
  *      (for balloting and authentication messages)
  *    > MessageReceiver
  *      (for normal messages)
  *
+ * Incoming messages are registered on the worker thread of the
+ * InboundMessagePipeline, while outgoing messages are broadcasted from
+ * the network thread of the OutboundMessagePipeline. The SecureClientSenders
+ * are set up and looked up under the lock of the layer, while incoming normal
+ * messages are verified and decrypted without it, so that sending never
+ * waits on their decryption.
  */
 public class SecurityMessageLayer implements MessageReceiver, MessageSender {
 
+    // Logs through java.util.logging, which reaches the Android log on a device,
+    // so the security classes also run on a plain JVM
+    private static final Logger LOG = Logger.getLogger("Security Message Layer");
+
 	// The MessageReceiver is the "layer"
 	// where all incoming normal messages need to be passed to
     private MessageReceiver messageReceiver;
@@ -41,8 +54,14 @@ public class SecurityMessageLayer implements MessageReceiver, MessageSender {
 	// where all outgoing messages need to be passed to
     private MessageSender   messageSender;
 
-    // A HashMap to manage and store the different SecureClientSenders
-    private HashMap<String, SecureClientSender> secureClientSenders;
+    // The SecureClientSenders indexed by the slots of their clients,
+    // and the bitmask of the slots that have a SecureClientSender
+    private SecureClientSender[] secureClientSenders;
+    private long                 clientSlots;
+
+    // The bitmask of the slots of the clients who hold the user's group secret,
+    // so that messages broadcasted to them are sealed only once
+    private long                 groupSlots;
 
     // The OwnSecurtyData, which stores the user's security
     // credentials.
@@ -50,19 +69,84 @@ public class SecurityMessageLayer implements MessageReceiver, MessageSender {
     // RSA private key and user's DES key
     private OwnSecurityData ownSecurityData;
 
+    // Pregenerates the key material of the OwnSecurityData
+    private KeyMaterialPool keyMaterialPool;
+
+    // Settings for the queues of the SecureClientSenders
+    private MessagePriorityClassifier messagePriorityClassifier;
+    private int                       queueCapacity;
+
+    // Whether group secrets are exchanged with the clients
+    private boolean                   groupSessionEnabled;
+
     /**
      * Constructor
      *
-     * Creates the SecurityMessageLayer
+     * Creates the SecurityMessageLayer with its own KeyMaterialPool
      *
      * @param messageSender
      * @param messageReceiver
      */
     public SecurityMessageLayer(MessageSender messageSender, MessageReceiver messageReceiver) throws Exception {
+        this(messageSender, messageReceiver, new KeyMaterialPool());
+    }
+
+    /**
+     * Constructor
+     *
+     * Creates the SecurityMessageLayer
+     *
+     * @param messageSender   The MessageSender to pass outgoing messages to
+     * @param messageReceiver The MessageReceiver to pass incoming normal messages to
+     * @param keyMaterialPool The KeyMaterialPool to take the user's key material from
+     */
+    public SecurityMessageLayer(MessageSender messageSender, MessageReceiver messageReceiver,
+            KeyMaterialPool keyMaterialPool) throws Exception {
         this.messageSender   = messageSender;
         this.messageReceiver = messageReceiver;
-        ownSecurityData      = new OwnSecurityData();
-        secureClientSenders = new HashMap<String, SecureClientSender>();
+        this.keyMaterialPool = keyMaterialPool;
+        ownSecurityData      = new OwnSecurityData(keyMaterialPool);
+        secureClientSenders  = new SecureClientSender[ParticipantRegistry.MAX_PARTICIPANTS];
+        queueCapacity        = SecurityDefaults.OUTGOING_QUEUE_CAPACITY;
+        groupSessionEnabled  = SecurityDefaults.GROUP_SESSION_ENABLED;
+    }
+
+    /**
+     * Stops pregenerating key material in the background
+     */
+    public void quit() {
+        keyMaterialPool.quit();
+    }
+
+    /**
+     * Registers the MessagePriorityClassifier used to order and trim the
+     * messages queued during the mutual authentication.
+     * Applies to the SecureClientSenders set up from the next session onwards.
+     * @param messagePriorityClassifier
+     */
+    public synchronized void registerMessagePriorityClassifier(MessagePriorityClassifier messagePriorityClassifier) {
+        this.messagePriorityClassifier = messagePriorityClassifier;
+    }
+
+    /**
+     * Sets the maximum number of messages held by each queue of a SecureClientSender.
+     * Applies to the SecureClientSenders set up from the next session onwards.
+     * @param queueCapacity
+     */
+    public synchronized void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets whether group secrets are exchanged with the clients once they have
+     * authenticated themselves, so that messages broadcasted to the whole room
+     * are sealed once, while messages to a single client keep using the key of the pair.
+     * Only clients who have chosen T6, T7 or T8 receive the group secret.
+     * Applies to the SecureClientSenders set up from the next session onwards.
+     * @param groupSessionEnabled
+     */
+    public synchronized void setGroupSessionEnabled(boolean groupSessionEnabled) {
+        this.groupSessionEnabled = groupSessionEnabled;
     }
 
     /**
@@ -70,34 +154,103 @@ public class SecurityMessageLayer implements MessageReceiver, MessageSender {
      * is later following by message sending between the different clients
      * and the user.
      *
-     * Calls the OwnSecurityData to generate a new DES key and nonce
-     * for "freshness" of messages to prevent replay attacks.
+     * Calls the OwnSecurityData to take a new DES key and nonce
+     * for "freshness" of messages to prevent replay attacks,
+     * which have been pregenerated by the KeyMaterialPool.
      */
-    public void prepareForNextSession() {
-        secureClientSenders.clear();
+    public synchronized void prepareForNextSession() {
+
+        // Report the messages that never made it out of the queues,
+        // which happens when a client stalls the mutual authentication
+        int  queuedMessageCount  = getQueuedMessageCount();
+        long droppedMessageCount = getDroppedMessageCount();
+        if (queuedMessageCount>0 || droppedMessageCount>0)
+            LOG.warning("Session ended with " + queuedMessageCount +
+                    " messages still queued and " + droppedMessageCount + " dropped");
+
+        Arrays.fill(secureClientSenders, null);
+        clientSlots = 0;
+        groupSlots  = 0;
         try {
             ownSecurityData.regenerateForNewSession();
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.log(Level.WARNING, "Failed to regenerate the key material for the next session", e);
         }
     }
 
     /**
-     * Register a List of client IDs for a new session,
+     * Register the slots of the clients for a new session,
      * setting up the required SecureClientSenders
      *
-     * @param ids The List of client IDs
+     * @param slots The bitmask of the slots of the clients, excluding the user's own
      */
-    public void registerIdsForNewSession(List<String> ids) {
-        for (String id:ids) {
-            if (secureClientSenders.containsKey(id)==false) {
-
-            	// The constructor will link up the SecureClientSender with the
-            	// MessageSender that all outgoing messages will need to go to
-                SecureClientSender secureClient = new SecureClientSender(id, messageSender, ownSecurityData);
-                secureClientSenders.put(id, secureClient);
-            }
+    public synchronized void registerSlotsForNewSession(long slots) {
+        for (long remaining=slots; remaining!=0; remaining&=remaining-1)
+            getSecureClientSender(Long.numberOfTrailingZeros(remaining));
+    }
+
+    /**
+     * Returns the SecureClientSender of a client, setting it up if it does not yet exist
+     * @param slot The slot of the client
+     * @return     The SecureClientSender
+     */
+    private synchronized SecureClientSender getSecureClientSender(int slot) {
+        SecureClientSender secureClientSender = secureClientSenders[slot];
+        if (secureClientSender==null) {
+
+        	// The constructor will link up the SecureClientSender with the
+        	// MessageSender that all outgoing messages will need to go to
+            secureClientSender = new SecureClientSender(slot, messageSender, ownSecurityData,
+                    messagePriorityClassifier, queueCapacity, groupSessionEnabled);
+            secureClientSenders[slot] = secureClientSender;
+            clientSlots |= ParticipantRegistry.getMask(slot);
         }
+        return secureClientSender;
+    }
+
+    /**
+     * @return The bitmask of the slots of the clients that have authenticated
+     *         themselves, so that normal messages to them are no longer queued
+     */
+    public synchronized long getReadySlots() {
+        long readySlots = 0;
+        for (long remaining=clientSlots; remaining!=0; remaining&=remaining-1) {
+            int slot = Long.numberOfTrailingZeros(remaining);
+            if (secureClientSenders[slot].isReadyToSend())
+                readySlots |= ParticipantRegistry.getMask(slot);
+        }
+        return readySlots;
+    }
+
+    /**
+     * @return The number of normal messages waiting for
+     *         the mutual authentication with their client to complete
+     */
+    public synchronized int getQueuedMessageCount() {
+        int count = 0;
+        for (long remaining=clientSlots; remaining!=0; remaining&=remaining-1)
+            count += secureClientSenders[Long.numberOfTrailingZeros(remaining)].getQueuedMessageCount();
+        return count;
+    }
+
+    /**
+     * @return The number of normal messages dropped this session due to full queues
+     */
+    public synchronized long getDroppedMessageCount() {
+        long count = 0;
+        for (long remaining=clientSlots; remaining!=0; remaining&=remaining-1)
+            count += secureClientSenders[Long.numberOfTrailingZeros(remaining)].getDroppedMessageCount();
+        return count;
+    }
+
+    /**
+     * @return The number of queued normal messages replaced by newer ones this session
+     */
+    public synchronized long getSupersededMessageCount() {
+        long count = 0;
+        for (long remaining=clientSlots; remaining!=0; remaining&=remaining-1)
+            count += secureClientSenders[Long.numberOfTrailingZeros(remaining)].getSupersededMessageCount();
+        return count;
     }
 
     /**
@@ -122,10 +275,10 @@ public class SecurityMessageLayer implements MessageReceiver, MessageSender {
      * delivery, but has slightly higher data overhead.
      */
     @Override
-    public void broadcastReliableMessageToId(byte[] message, String toId) {
-        for (SecureClientSender secureClientSender:secureClientSenders.values())
-            if (secureClientSender.getId().equals(toId))
-                secureClientSender.broadcastReliableMessage(message);
+    public synchronized void broadcastReliableMessageToSlot(byte[] message, int toSlot) {
+        SecureClientSender secureClientSender = secureClientSenders[toSlot];
+        if (secureClientSender!=null)
+            secureClientSender.broadcastReliableMessage(message);
     }
 
     /**
@@ -136,55 +289,78 @@ public class SecurityMessageLayer implements MessageReceiver, MessageSender {
      * the message.
      */
     @Override
-    public void broadcastUnreliableMessageToId(byte[] message, String toId) {
-        for (SecureClientSender secureClientSender:secureClientSenders.values())
-            if (secureClientSender.getId().equals(toId))
-                secureClientSender.broadcastUnreliableMessage(message);
+    public synchronized void broadcastUnreliableMessageToSlot(byte[] message, int toSlot) {
+        SecureClientSender secureClientSender = secureClientSenders[toSlot];
+        if (secureClientSender!=null)
+            secureClientSender.broadcastUnreliableMessage(message);
     }
 
     /**
      * Passes the message to the relevant SecureClientSender to be broadcasted
      */
     @Override
-    public void broadcastMessageToId(byte[] message, String toId,
+    public void broadcastMessageToSlot(byte[] message, int toSlot,
             boolean reliable) {
-        if (reliable) broadcastReliableMessageToId  (message, toId);
-        else          broadcastUnreliableMessageToId(message, toId);
+        if (reliable) broadcastReliableMessageToSlot  (message, toSlot);
+        else          broadcastUnreliableMessageToSlot(message, toSlot);
     }
 
     /**
-     * Passes the unreliable message to every SecureClientSender to be
-     * broadcasted
+     * Seals the reliable message once for the clients who hold the user's
+     * group secret, and passes it to the SecureClientSenders of the rest
+     * to be broadcasted
      *
      * A reliable message implements the mechanisms to guarantee successful
      * delivery, but has slightly higher data overhead.
      */
     @Override
-    public void broadcastReliableMessageToAll(byte[] message,
-            HashSet<String> excludedIds) {
-        for (SecureClientSender secureClientSender:secureClientSenders.values())
-            if (excludedIds==null)
-                secureClientSender.broadcastReliableMessage(message);
-            else if (excludedIds.contains(secureClientSender.getId())==false)
-                secureClientSender.broadcastReliableMessage(message);
+    public synchronized void broadcastReliableMessageToAll(byte[] message,
+            long excludedSlots) {
+        long slots = broadcastGroupMessage(message, clientSlots&~excludedSlots, true);
+        for (long remaining=slots; remaining!=0; remaining&=remaining-1)
+            secureClientSenders[Long.numberOfTrailingZeros(remaining)]
+                    .broadcastReliableMessage(message);
     }
 
     /**
-     * Passes the unreliable message to every SecureClientSender to be
-     * broadcasted
+     * Seals the unreliable message once for the clients who hold the user's
+     * group secret, and passes it to the SecureClientSenders of the rest
+     * to be broadcasted
      *
      * An unreliable message has lower data overheads, but it does not
      * implement the mechanisms to guarantee successful delivery of
      * the message.
      */
     @Override
-    public void broadcastUnreliableMessageToAll(byte[] message,
-            HashSet<String> excludedIds) {
-        for (SecureClientSender secureClientSender:secureClientSenders.values())
-            if (excludedIds==null)
-                secureClientSender.broadcastUnreliableMessage(message);
-            else if (excludedIds.contains(secureClientSender.getId())==false)
-                secureClientSender.broadcastUnreliableMessage(message);
+    public synchronized void broadcastUnreliableMessageToAll(byte[] message,
+            long excludedSlots) {
+        long slots = broadcastGroupMessage(message, clientSlots&~excludedSlots, false);
+        for (long remaining=slots; remaining!=0; remaining&=remaining-1)
+            secureClientSenders[Long.numberOfTrailingZeros(remaining)]
+                    .broadcastUnreliableMessage(message);
+    }
+
+    /**
+     * Seals a message once with the user's group secret and broadcasts
+     * the same message to every client of the given slots who holds the secret
+     * @param message  The message
+     * @param slots    The bitmask of the slots of the clients to broadcast to
+     * @param reliable Whether the message needs to be reliably sent
+     * @return         The bitmask of the slots of the clients the message
+     *                 still needs to be broadcasted to
+     */
+    private long broadcastGroupMessage(byte[] message, long slots, boolean reliable) {
+        long toGroupSlots = slots & groupSlots;
+        if (toGroupSlots==0)
+            return slots;
+        try {
+            messageSender.broadcastMessageToAll(ownSecurityData.getSealedGroupMessage(message, reliable),
+                    ~toGroupSlots, reliable);
+            return slots & ~toGroupSlots;
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to seal a group message, sending it per client", e);
+            return slots;
+        }
     }
 
     /**
@@ -192,107 +368,173 @@ public class SecurityMessageLayer implements MessageReceiver, MessageSender {
      */
     @Override
     public void broadcastMessageToAll(byte[] message,
-            HashSet<String> excludedIds, boolean reliable) {
-        if (reliable) broadcastReliableMessageToAll  (message, excludedIds);
-        else          broadcastUnreliableMessageToAll(message, excludedIds);
+            long excludedSlots, boolean reliable) {
+        if (reliable) broadcastReliableMessageToAll  (message, excludedSlots);
+        else          broadcastUnreliableMessageToAll(message, excludedSlots);
     }
 
     /**
      * Takes in an incoming message and directs it to the MessageReceiver
-     * if it is a normal message,
+     * if it is a normal or group message,
      * else directs it to the relevant SecureClientSender.
      *
-     * Attempts to decrypt and verify all incoming normal messages
+     * Attempts to decrypt and verify all incoming normal and group messages
      * before passing to the MessageReceiver.
      *
      * Sets up a new instance of SecureClientSender for the corresponding
-     * client ID if it does not yet exist.
+     * client slot if it does not yet exist.
      */
     @Override
-    public void registerMessage(String fromId, byte[] message) {
+    public void registerMessage(int fromSlot, byte[] message) {
         if (message[0]==SecurityMessageType.NORMAL.token) {
-            message = getVerifiedAndDecryptedNormalMessage(message);
+            message = getVerifiedAndDecryptedNormalMessage(fromSlot, message);
+            if (message!=null)
+                messageReceiver.registerMessage(fromSlot, message);
+        } else if (message[0]==SecurityMessageType.GROUP.token) {
+            message = getOpenedGroupMessage(fromSlot, message);
             if (message!=null)
-                messageReceiver.registerMessage(fromId, message);
+                messageReceiver.registerMessage(fromSlot, message);
         } else {
-            if (secureClientSenders.containsKey(fromId)==false) {
-
-            	// The constructor will link up the SecureClientSender with the
-            	// MessageSender that all outgoing messages will need to go to
-                SecureClientSender secureClient = new SecureClientSender(fromId, messageSender, ownSecurityData);
-                secureClientSenders.put(fromId, secureClient);
-                secureClient.registerMessage(message);
-            } else {
-                secureClientSenders.get(fromId).registerMessage(message);
+            SecureClientSender secureClientSender = getSecureClientSender(fromSlot);
+            secureClientSender.registerMessage(message);
+
+            // Broadcasts to the client are sealed with the group secret
+            // from the moment he/she acknowledges receiving it
+            if (message[0]==SecurityMessageType.GROUP_KEY_ACK.token &&
+                    secureClientSender.isGroupKeyAcknowledged()) {
+                synchronized (this) {
+                    if (secureClientSenders[fromSlot]==secureClientSender)
+                        groupSlots |= ParticipantRegistry.getMask(fromSlot);
+                }
             }
         }
     }
 
+    /**
+     * Opens an incoming group message with the group secret of the client who sent it
+     * @param fromSlot The slot of the client who sent the message
+     * @param message  The incoming group message
+     * @return         The opened message,
+     *                 null if the client's group secret is unknown or the message fails verification
+     */
+    private byte[] getOpenedGroupMessage(int fromSlot, byte[] message) {
+        SecureClientSender secureClientSender;
+        synchronized (this) {
+            secureClientSender = secureClientSenders[fromSlot];
+        }
+        if (secureClientSender==null)
+            return null;
+        return secureClientSender.getOpenedGroupMessage(message);
+    }
+
     /**
      * Verifies an incoming normal message and decrypts it if required by the
      * choice of security protocol chosen by the user
-     * @param message The incoming normal message
-     * @return        The verified and decrypted message,
-     *                null if the verification or decryption has failed.
+     * @param fromSlot The slot of the client who sent the message
+     * @param message  The incoming normal message
+     * @return         The verified and decrypted message,
+     *                 null if the verification or decryption has failed.
      */
-    public byte[] getVerifiedAndDecryptedNormalMessage(byte[] message) {
+    public byte[] getVerifiedAndDecryptedNormalMessage(int fromSlot, byte[] message) {
         SecurityProtocolType ownSecurityProtocolType = ownSecurityData.getSecurityProtocolType();
 
         if (ownSecurityProtocolType==SecurityProtocolType.NONE) {
             return SecurityMessageType.getNormalMessageBody(message);
         }
 
-        try {
-            byte[][] fields = SecurityHelper.decompose(SecurityMessageType.getNormalMessageBody(message));
+        SecureClientSender secureClientSender;
+        synchronized (this) {
+            secureClientSender = secureClientSenders[fromSlot];
+        }
+        if (secureClientSender==null)
+            return null;
 
-            byte[] clientHash = fields[0];
+        if (ownSecurityProtocolType==SecurityProtocolType.T6 ||
+            ownSecurityProtocolType==SecurityProtocolType.T7 ||
+            ownSecurityProtocolType==SecurityProtocolType.T8) {
 
-            // Sets message to the message body
-            byte[] messageBody = fields[1];
+            // For T6, T7 and T8, open the message with the key derived for
+            // the client during the mutual authentication,
+            // which also rejects replays by their counters
+            return secureClientSender.getOpenedNormalMessage(message);
+        }
+
+        try {
+            // For T2 to T5, drop a replayed message by its sequence number
+            // before spending any time on verifying it
+            int sequenceNumberOffset = SecurityMessageType.HEADER_LENGTH;
+            int offset               = sequenceNumberOffset + ReplayWindow.SEQUENCE_NUMBER_LENGTH;
+            if (message.length < offset)
+                return null;
+            int sequenceNumber = SecurityHelper.readInt(message, sequenceNumberOffset);
+            if (secureClientSender.isFreshSequenceNumber(sequenceNumber)==false)
+                return null;
+
+            // The digest and the message body are read where they are in the message,
+            // rather than decomposed into copies of their own
+            if (SecurityHelper.getComposedFieldCount(message, offset, message.length-offset)!=2 ||
+                SecurityHelper.getComposedFieldLength(message, offset, 0)!=CryptoContext.MD5_LENGTH)
+                return null;
+
+            int clientHashOffset  = SecurityHelper.getComposedFieldOffset(message, offset, 0);
+            int messageBodyOffset = SecurityHelper.getComposedFieldOffset(message, offset, 1);
+            int messageBodyLength = SecurityHelper.getComposedFieldLength(message, offset, 1);
+
+            CryptoContext cryptoContext = CryptoContext.get();
 
             if (ownSecurityProtocolType==SecurityProtocolType.T2) {
 
             	// For T2, verify that the MD5 digest in the message
             	// matches the one created using
-            	// the user's password, the user's nonce and the message body
-
-                byte[] ownHash = SecurityHelper.getMD5Hash(
-                        SecurityDefaults.COMMON_PASSWORD,
-                        ownSecurityData.getNonce(),
-                        messageBody);
-                if (Arrays.equals(clientHash, ownHash))
-                    return messageBody;
+            	// the user's password, the user's nonce, the sequence number and the message body
+
+                cryptoContext.updateMD5(SecurityDefaults.COMMON_PASSWORD);
+                cryptoContext.updateMD5(ownSecurityData.getNonce());
+                cryptoContext.updateMD5(message, sequenceNumberOffset, ReplayWindow.SEQUENCE_NUMBER_LENGTH);
+                cryptoContext.updateMD5(message, messageBodyOffset, messageBodyLength);
+                if (SecurityHelper.rangeEquals(message, clientHashOffset,
+                        cryptoContext.finishMD5(), 0, CryptoContext.MD5_LENGTH) &&
+                    secureClientSender.registerSequenceNumber(sequenceNumber))
+                    return Arrays.copyOfRange(message, messageBodyOffset,
+                            messageBodyOffset+messageBodyLength);
 
             } else if (ownSecurityProtocolType==SecurityProtocolType.T3 ||
                        ownSecurityProtocolType==SecurityProtocolType.T4) {
 
             	// For T3 and T4, decrypt the message body with the user's DES key.
-                messageBody = ownSecurityData.getPlainTextWithDES(messageBody);
+                byte[] messageBody = ownSecurityData.getPlainTextWithDES(
+                        message, messageBodyOffset, messageBodyLength);
 
                 // Then verify that the MD5 digest in the message
             	// matches the one created using
-            	// the user's password, the user's nonce and the decrypted message body
-
-                byte[] ownHash = SecurityHelper.getMD5Hash(
-                        SecurityDefaults.COMMON_PASSWORD,
-                        ownSecurityData.getNonce(),
-                        messageBody);
-                if (Arrays.equals(clientHash, ownHash))
+            	// the user's password, the user's nonce, the sequence number
+            	// and the decrypted message body
+
+                cryptoContext.updateMD5(SecurityDefaults.COMMON_PASSWORD);
+                cryptoContext.updateMD5(ownSecurityData.getNonce());
+                cryptoContext.updateMD5(message, sequenceNumberOffset, ReplayWindow.SEQUENCE_NUMBER_LENGTH);
+                cryptoContext.updateMD5(messageBody);
+                if (SecurityHelper.rangeEquals(message, clientHashOffset,
+                        cryptoContext.finishMD5(), 0, CryptoContext.MD5_LENGTH) &&
+                    secureClientSender.registerSequenceNumber(sequenceNumber))
                     return messageBody;
 
             } else if (ownSecurityProtocolType==SecurityProtocolType.T5) {
 
             	// For T5, decrypt the message with the user's DES key.
-                messageBody = ownSecurityData.getPlainTextWithDES(messageBody);
+                byte[] messageBody = ownSecurityData.getPlainTextWithDES(
+                        message, messageBodyOffset, messageBodyLength);
 
                 // Then verify that the MD5 digest in the message
             	// matches the one created using
-            	// the user's nonce and the decrypted message body
-
-                byte[] ownHash = SecurityHelper.getMD5Hash(
-                        ownSecurityData.getNonce(),
-                        messageBody);
-                if (Arrays.equals(clientHash, ownHash))
+            	// the user's nonce, the sequence number and the decrypted message body
+
+                cryptoContext.updateMD5(ownSecurityData.getNonce());
+                cryptoContext.updateMD5(message, sequenceNumberOffset, ReplayWindow.SEQUENCE_NUMBER_LENGTH);
+                cryptoContext.updateMD5(messageBody);
+                if (SecurityHelper.rangeEquals(message, clientHashOffset,
+                        cryptoContext.finishMD5(), 0, CryptoContext.MD5_LENGTH) &&
+                    secureClientSender.registerSequenceNumber(sequenceNumber))
                     return messageBody;
 
             }
@@ -8,7 +8,13 @@ import java.util.Arrays;
 public enum SecurityMessageType {
     BALLOT         (0),
     AUTHENTICATION (1),
-    NORMAL         (2);
+    NORMAL         (2),
+    GROUP          (3),
+    GROUP_KEY      (4),
+    GROUP_KEY_ACK  (5);
+
+    // The length of the label in front of the body of a message
+    public static final int HEADER_LENGTH = 1;
 
     public int token;
 
@@ -31,12 +37,36 @@ public enum SecurityMessageType {
     }
 
     /**
-     * @param firstSenderBallot An int representing a ballot to be the 1st sender
-     * @return                  A message labeled as a ballot message
+     * @param firstSenderBallot    An int representing a ballot to be the 1st sender
+     * @param securityProtocolType The choice of security protocol, so that the keys
+     *                             it needs can be sent in the 1st authentication message
+     * @return                     A message labeled as a ballot message
+     */
+    public static byte[] getBallotMessage(int firstSenderBallot, SecurityProtocolType securityProtocolType) {
+        byte[] message = new byte[6];
+        message[0] = (byte)BALLOT.token;
+        SecurityHelper.writeInt(firstSenderBallot, message, 1);
+        message[5] = (byte)securityProtocolType.token;
+        return message;
+    }
+
+    /**
+     * @param firstSenderBallot    An int representing a ballot to be the 1st sender
+     * @param securityProtocolType The choice of security protocol
+     * @param message              The body of the message, carried after the choice of protocol
+     * @return                     A message labeled as a ballot message
      */
-    public static byte[] getBallotMessage(int firstSenderBallot) {
-        return SecurityHelper.appendToStart(
-                (byte)BALLOT.token, SecurityHelper.intToFourBytes(firstSenderBallot));
+    public static byte[] getBallotMessage(int firstSenderBallot, SecurityProtocolType securityProtocolType,
+            byte[] message) {
+        return SecurityHelper.concat(getBallotMessage(firstSenderBallot, securityProtocolType), message);
+    }
+
+    /**
+     * @param message A message labeled as a ballot message
+     * @return        The body of the message, empty if there is none
+     */
+    public static byte[] getBallotMessageBody(byte[] message) {
+        return Arrays.copyOfRange(message, 6, message.length);
     }
 
     /**
@@ -44,7 +74,15 @@ public enum SecurityMessageType {
      * @return        The int representing the ballot value
      */
     public static int getBallotMessageValue(byte[] message) {
-        return SecurityHelper.fourBytesToInt(Arrays.copyOfRange(message, 1, message.length));
+        return SecurityHelper.readInt(message, 1);
+    }
+
+    /**
+     * @param message A message labeled as a ballot message
+     * @return        The security protocol chosen by the sender of the ballot
+     */
+    public static SecurityProtocolType getBallotMessageSecurityProtocolType(byte[] message) {
+        return SecurityProtocolType.getSecurityMessageTypeFromToken((int)message[5]);
     }
 
     /**
@@ -83,12 +121,120 @@ public enum SecurityMessageType {
         return SecurityHelper.appendToStart((byte)NORMAL.token, message);
     }
 
+    /**
+     * Seals the body of a message with an AEADCipher, writing it directly
+     * after the label so the message is only copied once
+     * @param aeadCipher The AEADCipher to seal the body with
+     * @param message    The body of the message
+     * @param reliable   Whether the message is sent reliably
+     * @return           A message labeled as an normal message
+     */
+    public static byte[] getSealedNormalMessage(AEADCipher aeadCipher, byte[] message,
+            boolean reliable) throws Exception {
+        return getSealedMessage(NORMAL, aeadCipher, message, reliable);
+    }
+
+    /**
+     * @param aeadCipher The AEADCipher the body was sealed for
+     * @param message    A message labeled as an normal message with a sealed body
+     * @return           The opened body of the message,
+     *                   null if it is malformed or has been tampered with
+     */
+    public static byte[] getOpenedNormalMessageBody(AEADCipher aeadCipher, byte[] message) {
+        return getOpenedMessageBody(aeadCipher, message);
+    }
+
+    /**
+     * @param aeadCipher The AEADCipher of the sender's group secret
+     * @param message    The body of the message
+     * @param reliable   Whether the message is sent reliably
+     * @return           A message labeled as a group message,
+     *                   which every client holding the sender's group secret can open
+     */
+    public static byte[] getSealedGroupMessage(AEADCipher aeadCipher, byte[] message,
+            boolean reliable) throws Exception {
+        return getSealedMessage(GROUP, aeadCipher, message, reliable);
+    }
+
+    /**
+     * @param aeadCipher  The AEADCipher of the messages sent to the client
+     * @param groupSecret The sender's group secret
+     * @return            A message labeled as a group key message
+     */
+    public static byte[] getSealedGroupKeyMessage(AEADCipher aeadCipher, byte[] groupSecret) throws Exception {
+        return getSealedMessage(GROUP_KEY, aeadCipher, groupSecret, true);
+    }
+
+    /**
+     * Allocates a normal message with the label written and room for the body
+     * after it, so the body can be written in place at HEADER_LENGTH
+     * instead of being copied behind the label afterwards
+     * @param bodyLength The length of the body
+     * @return           A message labeled as an normal message
+     */
+    public static byte[] allocateNormalMessage(int bodyLength) {
+        return allocateMessage(NORMAL, bodyLength);
+    }
+
+    /**
+     * @param securityMessageType The label of the message
+     * @param bodyLength          The length of the body
+     * @return                    The labeled message with room for the body
+     */
+    private static byte[] allocateMessage(SecurityMessageType securityMessageType, int bodyLength) {
+        byte[] message = new byte[HEADER_LENGTH + bodyLength];
+        message[0] = (byte)securityMessageType.token;
+        return message;
+    }
+
+    /**
+     * Seals the body of a message with an AEADCipher, writing it directly
+     * after the label so the message is only copied once
+     * @param securityMessageType The label of the message
+     * @param aeadCipher          The AEADCipher to seal the body with
+     * @param message             The body of the message
+     * @param reliable            Whether the message is sent reliably
+     * @return                    The labeled message
+     */
+    private static byte[] getSealedMessage(SecurityMessageType securityMessageType,
+            AEADCipher aeadCipher, byte[] message, boolean reliable) throws Exception {
+        byte[] sealedMessage = allocateMessage(securityMessageType, message.length + AEADCipher.OVERHEAD);
+        aeadCipher.seal(message, sealedMessage, HEADER_LENGTH, reliable);
+        return sealedMessage;
+    }
+
+    /**
+     * @param aeadCipher The AEADCipher the body was sealed for
+     * @param message    A labeled message with a sealed body
+     * @return           The opened body of the message,
+     *                   null if it is malformed or has been tampered with
+     */
+    public static byte[] getOpenedMessageBody(AEADCipher aeadCipher, byte[] message) {
+        return aeadCipher.open(message, HEADER_LENGTH, message.length-HEADER_LENGTH);
+    }
+
+    /**
+     * @param groupSecretDigest The digest of the group secret received
+     * @return                  A message labeled as a group key acknowledgement
+     */
+    public static byte[] getGroupKeyAckMessage(byte[] groupSecretDigest) {
+        return SecurityHelper.appendToStart((byte)GROUP_KEY_ACK.token, groupSecretDigest);
+    }
+
+    /**
+     * @param message A message labeled as a group key acknowledgement
+     * @return        The digest of the group secret received
+     */
+    public static byte[] getGroupKeyAckMessageBody(byte[] message) {
+        return Arrays.copyOfRange(message, 1, message.length);
+    }
+
     /**
      * @param message A message labeled as an normal message
      * @return        The body of the message
      */
     public static byte[] getNormalMessageBody(byte[] message) {
-        return Arrays.copyOfRange(message, 1, message.length);
+        return Arrays.copyOfRange(message, HEADER_LENGTH, message.length);
     }
 
 }
@@ -8,7 +8,10 @@ public enum SecurityProtocolType {
     T2   (1),
     T3   (2),
     T4   (3),
-    T5   (4);
+    T5   (4),
+    T6   (5),
+    T7   (6),
+    T8   (7);
 
 
     public int token;
@@ -18,6 +21,20 @@ public enum SecurityProtocolType {
         this.token = token;
     }
 
+    /**
+     * @return Whether the protocol needs the RSA keys of the user and the client
+     */
+    public boolean usesRSA() {
+        return this!=NONE && this!=T7 && this!=T8;
+    }
+
+    /**
+     * @return Whether the protocol needs the EC keys of the user and the client
+     */
+    public boolean usesEC() {
+        return this==T7 || this==T8;
+    }
+
     /**
      * @param token An int representing the token of the SecurityProtocolType
      * @return      The corresponding SecurityProtocolType,
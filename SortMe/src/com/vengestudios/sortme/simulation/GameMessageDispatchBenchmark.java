@@ -0,0 +1,191 @@
+package com.vengestudios.sortme.simulation;
+
+import com.vengestudios.sortme.game.GameMessageCallback;
+import com.vengestudios.sortme.game.GameMessageDecoder;
+import com.vengestudios.sortme.game.GameMessageDecoders;
+import com.vengestudios.sortme.game.GameMessageReader;
+import com.vengestudios.sortme.game.GameMessageReceiver;
+import com.vengestudios.sortme.game.GameMessageType;
+import com.vengestudios.sortme.game.GameMessageWriter;
+import com.vengestudios.sortme.game.PowerupType;
+
+/**
+ * A command line benchmark of the cost of dispatching received game messages,
+ * to be run on a plain JVM alongside SecurityThroughputBenchmark
+ *
+ * For each GameMessageType it measures:
+ *
+ *  - The mean nanoseconds taken to read the type and decode the fields
+ *    of a message by calling its GameMessageDecoder directly
+ *
+ *  - The mean nanoseconds taken to pass the same message through
+ *    GameMessageReceiver.registerMessage() up to its GameMessageCallback,
+ *    and the difference between the two, which is the cost of the dispatch
+ *
+ * A last line does the same for a stream cycling through every type, which
+ * shows that the cost of dispatching a message does not grow with the number
+ * of types. The callbacks are called directly, without a callback loop.
+ * Every type is run once before measuring, so the JIT has compiled the paths measured.
+ *
+ * Usage: GameMessageDispatchBenchmark [messages per type]
+ */
+public class GameMessageDispatchBenchmark {
+
+    // Defaults of the benchmark
+    private static final int DEFAULT_MESSAGES = 1000000;
+    private static final int WARM_UP_MESSAGES = 200000;
+
+    // The slot the messages are received from
+    private static final int FROM_SLOT        = 1;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_MESSAGES;
+
+        GameMessageDecoder<?>[] decoders       = new GameMessageDecoder<?>[GameMessageType.TOTAL_TYPES];
+        byte[][]                sampleMessages = new byte[GameMessageType.TOTAL_TYPES][];
+        CountingCallback        callback       = new CountingCallback();
+        GameMessageReceiver     receiver       = new GameMessageReceiver();
+        registerSamples(receiver, callback, decoders, sampleMessages);
+
+        // Warm up
+        for (int i=0; i<2; ++i) {
+            for (GameMessageType gameMessageType:GameMessageType.values()) {
+                byte[][] stream = {sampleMessages[gameMessageType.id]};
+                runDecode(decoders, stream, WARM_UP_MESSAGES);
+                runDispatch(receiver, stream, WARM_UP_MESSAGES);
+            }
+            runDecode(decoders, sampleMessages, WARM_UP_MESSAGES);
+            runDispatch(receiver, sampleMessages, WARM_UP_MESSAGES);
+        }
+
+        System.out.println("messages="+messages);
+        System.out.println("type                           bytes  decode(avg ns)  " +
+                "dispatch(avg ns)  overhead(avg ns)");
+        callback.reset();
+        for (GameMessageType gameMessageType:GameMessageType.values()) {
+            byte[][] stream = {sampleMessages[gameMessageType.id]};
+            printResult(gameMessageType.toString(), stream[0].length,
+                    runDecode(decoders, stream, messages),
+                    runDispatch(receiver, stream, messages));
+        }
+
+        int totalBytes = 0;
+        for (byte[] message:sampleMessages)
+            totalBytes += message.length;
+        printResult("ALL", totalBytes/sampleMessages.length,
+                runDecode(decoders, sampleMessages, messages),
+                runDispatch(receiver, sampleMessages, messages));
+
+        long expected = (GameMessageType.TOTAL_TYPES+1L)*messages;
+        if (callback.getMessagesReceived()!=expected)
+            throw new IllegalStateException("Dispatched "+callback.getMessagesReceived()+
+                    " of "+expected+" messages");
+    }
+
+    /**
+     * Registers the decoder of every GameMessageType with the receiver,
+     * all calling the same callback, and composes a sample message of every type
+     */
+    private static void registerSamples(GameMessageReceiver receiver, CountingCallback callback,
+            GameMessageDecoder<?>[] decoders, byte[][] sampleMessages) {
+
+        GameMessageWriter writer = new GameMessageWriter();
+        decoders[GameMessageType.PERSONAL_ATTACK.id]           = GameMessageDecoders.POWERUP_TYPE;
+        decoders[GameMessageType.PERSONAL_ATTACK_SUCCEEDED.id] = GameMessageDecoders.POWERUP_TYPE;
+        decoders[GameMessageType.PERSONAL_ATTACK_BLOCKED.id]   = GameMessageDecoders.POWERUP_TYPE;
+        decoders[GameMessageType.OTHERS_TO_OTHERS_ATTACK.id]   = GameMessageDecoders.ATTACK_ANNOUNCEMENT;
+        decoders[GameMessageType.OTHERS_TO_OTHERS_BLOCK.id]    = GameMessageDecoders.ATTACK_ANNOUNCEMENT;
+        decoders[GameMessageType.UPDATE_PARTICIPANT_INFO.id]   = GameMessageDecoders.PARTICIPANT_INFO;
+        decoders[GameMessageType.UPDATE_SCORE_AND_LINES_SORTED.id] = GameMessageDecoders.SCORE_UPDATE;
+        decoders[GameMessageType.PING.id]                      = GameMessageDecoders.PING;
+        decoders[GameMessageType.PONG.id]                      = GameMessageDecoders.PONG;
+
+        sampleMessages[GameMessageType.PERSONAL_ATTACK.id] =
+                GameMessageType.getPersonalAttackMessage(writer, PowerupType.RANDOMIZE);
+        sampleMessages[GameMessageType.PERSONAL_ATTACK_SUCCEEDED.id] =
+                GameMessageType.getSelfToOthersAttackMessage(writer, PowerupType.RANDOMIZE);
+        sampleMessages[GameMessageType.PERSONAL_ATTACK_BLOCKED.id] =
+                GameMessageType.getSelfToOtherBlockMessage(writer, PowerupType.RANDOMIZE);
+        sampleMessages[GameMessageType.OTHERS_TO_OTHERS_ATTACK.id] =
+                GameMessageType.getOtherToOtherAttackMessage(writer, "Participant", PowerupType.UPSIZE);
+        sampleMessages[GameMessageType.OTHERS_TO_OTHERS_BLOCK.id] =
+                GameMessageType.getOtherToOtherBlockMessage(writer, "Participant", PowerupType.UPSIZE);
+        sampleMessages[GameMessageType.UPDATE_PARTICIPANT_INFO.id] =
+                GameMessageType.getUpdateParticipantInfoMessage(writer, "Participant",
+                        "content://com.google.android.gms.games.background/images/0");
+        sampleMessages[GameMessageType.UPDATE_SCORE_AND_LINES_SORTED.id] =
+                GameMessageType.getUpdateScoreAndLinesSortedMessage(writer, 120, 4500, 30);
+        sampleMessages[GameMessageType.PING.id] =
+                GameMessageType.getPingMessage(writer, System.currentTimeMillis());
+        sampleMessages[GameMessageType.PONG.id] =
+                GameMessageType.getPongMessage(writer, System.currentTimeMillis(),
+                        System.currentTimeMillis());
+
+        for (GameMessageType gameMessageType:GameMessageType.values())
+            registerHandler(receiver, gameMessageType, decoders[gameMessageType.id], callback);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> void registerHandler(GameMessageReceiver receiver,
+            GameMessageType gameMessageType, GameMessageDecoder<E> decoder,
+            CountingCallback callback) {
+        receiver.registerHandler(gameMessageType, decoder, (GameMessageCallback<E>)callback);
+    }
+
+    /**
+     * Reads the type and decodes the fields of every message of the stream in turn
+     * @return The mean nanoseconds taken per message
+     */
+    private static double runDecode(GameMessageDecoder<?>[] decoders, byte[][] stream, int messages) {
+        GameMessageReader reader = new GameMessageReader();
+        int decoded = 0;
+        long startNanos = System.nanoTime();
+        for (int i=0; i<messages; ++i) {
+            reader.wrap(stream[i%stream.length]);
+            if (decoders[reader.readByte()].decode(reader)!=null)
+                ++decoded;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        if (decoded!=messages)
+            throw new IllegalStateException("Decoded "+decoded+" of "+messages+" messages");
+        return nanos/(double)messages;
+    }
+
+    /**
+     * Passes every message of the stream in turn to the GameMessageReceiver
+     * @return The mean nanoseconds taken per message
+     */
+    private static double runDispatch(GameMessageReceiver receiver, byte[][] stream, int messages) {
+        long startNanos = System.nanoTime();
+        for (int i=0; i<messages; ++i)
+            receiver.registerMessage(FROM_SLOT, stream[i%stream.length]);
+        return (System.nanoTime()-startNanos)/(double)messages;
+    }
+
+    private static void printResult(String type, int bytes, double decodeNanos, double dispatchNanos) {
+        System.out.println(String.format("%-29s  %5d  %14.1f  %16.1f  %16.1f",
+                type, bytes, decodeNanos, dispatchNanos, dispatchNanos-decodeNanos));
+    }
+
+    /**
+     * Counts the decoded values passed to it by the GameMessageReceiver
+     */
+    private static class CountingCallback implements GameMessageCallback<Object> {
+
+        private long messagesReceived;
+
+        @Override
+        public void onGameMessage(int fromParticipantSlot, Object message) {
+            if (message!=null)
+                ++messagesReceived;
+        }
+
+        public void reset() {
+            messagesReceived = 0;
+        }
+
+        public long getMessagesReceived() {
+            return messagesReceived;
+        }
+    }
+}
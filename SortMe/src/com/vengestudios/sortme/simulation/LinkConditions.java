@@ -0,0 +1,45 @@
+package com.vengestudios.sortme.simulation;
+
+/**
+ * The network conditions of a one way link between two
+ * virtual participants in a SimulatedRoom
+ *
+ * Latency and jitter apply to every message sent over the link.
+ * Loss and reordering only apply to unreliable messages, since reliable
+ * messages are always delivered, and in the order they were sent.
+ */
+public class LinkConditions {
+
+    // A link that delivers every message right away
+    public static final LinkConditions PERFECT = new LinkConditions(0, 0, 0.f, 0.f);
+
+    // The milliseconds every message spends in flight
+    public final int   latency;
+
+    // The maximum random milliseconds added on top of the latency
+    public final int   jitter;
+
+    // The chance, between 0 and 1, that an unreliable message is dropped
+    public final float lossRate;
+
+    // The chance, between 0 and 1, that an unreliable message is held back
+    // for an extra latency so that the messages after it overtake it
+    public final float reorderRate;
+
+    /**
+     * Constructor
+     *
+     * Creates the LinkConditions
+     *
+     * @param latency     The milliseconds every message spends in flight
+     * @param jitter      The maximum random milliseconds added to the latency
+     * @param lossRate    The chance that an unreliable message is dropped
+     * @param reorderRate The chance that an unreliable message is overtaken
+     */
+    public LinkConditions(int latency, int jitter, float lossRate, float reorderRate) {
+        this.latency     = latency;
+        this.jitter      = jitter;
+        this.lossRate    = lossRate;
+        this.reorderRate = reorderRate;
+    }
+}
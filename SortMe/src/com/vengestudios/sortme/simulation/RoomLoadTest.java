@@ -0,0 +1,145 @@
+package com.vengestudios.sortme.simulation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.vengestudios.sortme.security.SecurityProtocolType;
+
+/**
+ * A command line load test of the messaging stack over SimulatedRooms
+ * of increasing sizes, to be run on a plain JVM
+ *
+ * For each room size it:
+ *
+ *  - Starts a session for every participant and waits for the mutual
+ *    authentication between every pair of participants to complete
+ *
+ *  - Has every participant send a probe score update to every other
+ *    participant at a fixed interval for the length of the test
+ *
+ *  - Prints the messages delivered per second, the handshake times and
+ *    the end to end latency of the probes
+ *
+ * Usage: RoomLoadTest [security protocol] [seconds per room] [probe interval in ms]
+ */
+public class RoomLoadTest {
+
+    // Defaults of the test
+    private static final int[] ROOM_SIZES             = {2, 4, 8, 16, 32, 64};
+    private static final int   DEFAULT_DURATION       = 5;
+    private static final int   DEFAULT_PROBE_INTERVAL = 50;
+    private static final int   HANDSHAKE_TIMEOUT      = 60;
+    private static final int   HANDSHAKE_POLL_DELAY   = 10;
+
+    // The conditions of every link, resembling a mobile connection
+    private static final LinkConditions LINK_CONDITIONS =
+            new LinkConditions(40, 20, .02f, .05f);
+
+    public static void main(String[] args) throws Exception {
+        SecurityProtocolType securityProtocolType = args.length>0 ?
+                SecurityProtocolType.valueOf(args[0]) : SecurityProtocolType.NONE;
+        int duration      = args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_DURATION;
+        int probeInterval = args.length>2 ? Integer.parseInt(args[2]) : DEFAULT_PROBE_INTERVAL;
+
+        System.out.println("protocol="+securityProtocolType+" duration="+duration+
+                "s probeInterval="+probeInterval+"ms");
+        System.out.println("players  handshake(avg/max ms)  messages/s  KB/s  " +
+                "flight(avg/max ms)  probe latency(avg/max ms)  dropped");
+
+        for (int roomSize:ROOM_SIZES)
+            runRoom(roomSize, securityProtocolType, duration, probeInterval);
+    }
+
+    /**
+     * Runs the load test for a single room size and prints a line of results
+     */
+    private static void runRoom(int roomSize, SecurityProtocolType securityProtocolType,
+            int duration, final int probeInterval) throws Exception {
+
+        final SimulatedRoom          simulatedRoom = new SimulatedRoom(roomSize, LINK_CONDITIONS, roomSize);
+        final SimulatedParticipant[] participants  = new SimulatedParticipant[roomSize];
+        long epochNanos = System.nanoTime();
+        for (int slot=0; slot<roomSize; ++slot)
+            participants[slot] = new SimulatedParticipant(
+                    simulatedRoom, slot, securityProtocolType, epochNanos);
+
+        // Start every session, then wait for every handshake to complete
+        // before starting the probes
+        final CountDownLatch handshakesComplete = new CountDownLatch(1);
+        simulatedRoom.start();
+        simulatedRoom.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SimulatedParticipant participant:participants)
+                    participant.startSession();
+            }
+        }, 0);
+        simulatedRoom.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SimulatedParticipant participant:participants)
+                    if (participant.isHandshakeComplete()==false) {
+                        simulatedRoom.post(this, HANDSHAKE_POLL_DELAY);
+                        return;
+                    }
+                simulatedRoom.resetStatistics();
+                for (SimulatedParticipant participant:participants)
+                    simulatedRoom.post(new ProbeRunnable(participant, probeInterval), 0);
+                handshakesComplete.countDown();
+            }
+        }, HANDSHAKE_POLL_DELAY);
+
+        boolean completed = handshakesComplete.await(HANDSHAKE_TIMEOUT, TimeUnit.SECONDS);
+        if (completed)
+            Thread.sleep(duration*1000L);
+        simulatedRoom.stop();
+        for (SimulatedParticipant participant:participants)
+            participant.quit();
+
+        if (completed==false) {
+            System.out.println(roomSize+"  handshakes did not complete in "+HANDSHAKE_TIMEOUT+"s");
+            return;
+        }
+
+        double totalHandshakeTime = 0, maxHandshakeTime = 0;
+        double totalProbeLatency  = 0, maxProbeLatency  = 0;
+        long   probesReceived     = 0;
+        for (SimulatedParticipant participant:participants) {
+            totalHandshakeTime += participant.getHandshakeTime();
+            maxHandshakeTime    = Math.max(maxHandshakeTime, participant.getHandshakeTime());
+            totalProbeLatency  += participant.getMeanProbeLatency()*participant.getProbesReceived();
+            maxProbeLatency     = Math.max(maxProbeLatency, participant.getMaxProbeLatency());
+            probesReceived     += participant.getProbesReceived();
+        }
+
+        System.out.println(String.format("%7d  %9.1f / %-9.1f  %10.0f  %4.0f  %7.1f / %-8.1f  %11.1f / %-11.1f  %7d",
+                roomSize,
+                totalHandshakeTime/roomSize, maxHandshakeTime,
+                simulatedRoom.getMessagesDelivered()/(double)duration,
+                simulatedRoom.getBytesDelivered()/1024.0/duration,
+                simulatedRoom.getMeanFlightTime(), simulatedRoom.getMaxFlightTime(),
+                probesReceived==0 ? 0 : totalProbeLatency/probesReceived, maxProbeLatency,
+                simulatedRoom.getMessagesDropped()));
+    }
+
+    /**
+     * A Runnable that has a participant send an unreliable probe
+     * to every other participant at a fixed interval
+     */
+    private static class ProbeRunnable implements Runnable {
+
+        private final SimulatedParticipant participant;
+        private final int                  probeInterval;
+
+        public ProbeRunnable(SimulatedParticipant participant, int probeInterval) {
+            this.participant   = participant;
+            this.probeInterval = probeInterval;
+        }
+
+        @Override
+        public void run() {
+            participant.sendProbe(false);
+            participant.getSimulatedRoom().post(this, probeInterval);
+        }
+    }
+}
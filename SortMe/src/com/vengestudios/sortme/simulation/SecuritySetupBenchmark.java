@@ -0,0 +1,132 @@
+package com.vengestudios.sortme.simulation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.vengestudios.sortme.security.SecurityProtocolType;
+
+/**
+ * A command line benchmark of the cost of setting up security between
+ * two participants, to be run on a plain JVM
+ *
+ * For each security protocol it measures:
+ *
+ *  - The cold start, the milliseconds taken to set up the
+ *    message "layers" of both participants
+ *
+ *  - The first handshake, which includes generating any keys
+ *    that are only generated when first used
+ *
+ *  - The mean of the handshakes after it, and the bytes and
+ *    messages exchanged per handshake
+ *
+ * The participants are connected over perfect links, so the times
+ * are the processing times of the handshakes rather than their round trips,
+ * plus the flush interval of the BatchingMessageLayer for each message.
+ * Every protocol is run once before measuring, so the classes of the
+ * security providers are already loaded.
+ *
+ * Usage: SecuritySetupBenchmark [handshakes per protocol] [security protocols...]
+ */
+public class SecuritySetupBenchmark {
+
+    // Defaults of the benchmark
+    private static final int                    DEFAULT_HANDSHAKES = 20;
+    private static final SecurityProtocolType[] DEFAULT_PROTOCOLS  = {
+        SecurityProtocolType.NONE, SecurityProtocolType.T2, SecurityProtocolType.T3,
+        SecurityProtocolType.T4,   SecurityProtocolType.T5, SecurityProtocolType.T6,
+        SecurityProtocolType.T7,   SecurityProtocolType.T8
+    };
+    private static final int                    HANDSHAKE_TIMEOUT  = 30;
+    private static final int                    SETTLE_DELAY       = 20;
+
+    public static void main(String[] args) throws Exception {
+        int handshakes = args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_HANDSHAKES;
+        SecurityProtocolType[] securityProtocolTypes = DEFAULT_PROTOCOLS;
+        if (args.length>1) {
+            securityProtocolTypes = new SecurityProtocolType[args.length-1];
+            for (int i=1; i<args.length; ++i)
+                securityProtocolTypes[i-1] = SecurityProtocolType.valueOf(args[i]);
+        }
+
+        // Warm up
+        for (SecurityProtocolType securityProtocolType:securityProtocolTypes)
+            runProtocol(securityProtocolType, 1, false);
+
+        System.out.println("handshakes="+handshakes);
+        System.out.println("protocol  cold start(ms)  first handshake(ms)  handshake(avg ms)  " +
+                "bytes/handshake  messages/handshake");
+        for (SecurityProtocolType securityProtocolType:securityProtocolTypes)
+            runProtocol(securityProtocolType, handshakes, true);
+    }
+
+    /**
+     * Runs the benchmark for a single security protocol and prints a line of results
+     */
+    private static void runProtocol(SecurityProtocolType securityProtocolType,
+            int handshakes, boolean print) throws Exception {
+
+        SimulatedRoom simulatedRoom = new SimulatedRoom(2, LinkConditions.PERFECT, 0);
+        SimulatedParticipant[] participants = new SimulatedParticipant[2];
+
+        long coldStartNanos = System.nanoTime();
+        for (int slot=0; slot<2; ++slot)
+            participants[slot] = new SimulatedParticipant(
+                    simulatedRoom, slot, securityProtocolType, coldStartNanos);
+        coldStartNanos = System.nanoTime() - coldStartNanos;
+
+        simulatedRoom.start();
+        double firstHandshakeTime = runHandshake(simulatedRoom, participants);
+
+        double totalHandshakeTime = 0;
+        simulatedRoom.resetStatistics();
+        for (int i=0; i<handshakes; ++i)
+            totalHandshakeTime += runHandshake(simulatedRoom, participants);
+        Thread.sleep(SETTLE_DELAY);
+        simulatedRoom.stop();
+        for (SimulatedParticipant participant:participants)
+            participant.quit();
+
+        if (print)
+            System.out.println(String.format("%8s  %14.2f  %19.2f  %17.2f  %15.0f  %18.1f",
+                    securityProtocolType,
+                    coldStartNanos/1000000.0,
+                    firstHandshakeTime,
+                    totalHandshakeTime/handshakes,
+                    simulatedRoom.getBytesDelivered()/(double)handshakes,
+                    simulatedRoom.getMessagesDelivered()/(double)handshakes));
+    }
+
+    /**
+     * Starts a new session for both participants and waits for their handshake to complete
+     * @return The milliseconds taken for both participants to complete the handshake
+     */
+    private static double runHandshake(final SimulatedRoom simulatedRoom,
+            final SimulatedParticipant[] participants) throws Exception {
+
+        final CountDownLatch handshakeComplete = new CountDownLatch(1);
+        final long startNanos = System.nanoTime();
+        simulatedRoom.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SimulatedParticipant participant:participants)
+                    participant.startSession();
+            }
+        }, 0);
+        simulatedRoom.post(new Runnable() {
+            @Override
+            public void run() {
+                for (SimulatedParticipant participant:participants)
+                    if (participant.isHandshakeComplete()==false) {
+                        simulatedRoom.post(this, 0);
+                        return;
+                    }
+                handshakeComplete.countDown();
+            }
+        }, 0);
+
+        if (handshakeComplete.await(HANDSHAKE_TIMEOUT, TimeUnit.SECONDS)==false)
+            throw new IllegalStateException("Handshake did not complete in "+HANDSHAKE_TIMEOUT+"s");
+        return (System.nanoTime()-startNanos)/1000000.0;
+    }
+}
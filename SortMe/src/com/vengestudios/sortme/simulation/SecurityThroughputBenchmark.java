@@ -0,0 +1,268 @@
+package com.vengestudios.sortme.simulation;
+
+import java.util.ArrayDeque;
+
+import com.vengestudios.sortme.MessageReceiver;
+import com.vengestudios.sortme.MessageSender;
+import com.vengestudios.sortme.ParticipantRegistry;
+import com.vengestudios.sortme.security.DESCipher;
+import com.vengestudios.sortme.security.ECPrivateCipher;
+import com.vengestudios.sortme.security.RSAPrivateCipher;
+import com.vengestudios.sortme.security.SecurityDefaults;
+import com.vengestudios.sortme.security.SecurityMessageLayer;
+import com.vengestudios.sortme.security.SecurityProtocolType;
+
+/**
+ * A command line benchmark of the cost of the security protocols once they
+ * have been set up, to be run on a plain JVM alongside SecuritySetupBenchmark
+ *
+ * It measures:
+ *
+ *  - The mean milliseconds taken to generate each kind of key,
+ *    without the KeyMaterialPool generating them ahead of time
+ *
+ *  - For each security protocol and payload size, the bytes added to every
+ *    message, and the mean microseconds taken to prepare a normal message
+ *    for sending and to verify and decrypt it on receipt
+ *
+ * The two SecurityMessageLayers are wired back to back on the calling thread,
+ * so the times are purely the processing times of the layers. Every protocol
+ * is run once before measuring, so the JIT has compiled the paths measured.
+ *
+ * Usage: SecurityThroughputBenchmark [messages per payload size] [security protocols...]
+ */
+public class SecurityThroughputBenchmark {
+
+    // Defaults of the benchmark
+    private static final int                    DEFAULT_MESSAGES  = 20000;
+    private static final SecurityProtocolType[] DEFAULT_PROTOCOLS = SecurityProtocolType.values();
+    private static final int[]                  PAYLOAD_SIZES     = {16, 64, 256, 1024};
+    private static final int                    WARM_UP_MESSAGES  = 5000;
+    private static final int                    HANDSHAKE_TIMEOUT = 30000;
+
+    // The number of keys generated to time each kind
+    private static final int                    RSA_KEYS          = 5;
+    private static final int                    OTHER_KEYS        = 50;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_MESSAGES;
+        SecurityProtocolType[] securityProtocolTypes = DEFAULT_PROTOCOLS;
+        if (args.length>1) {
+            securityProtocolTypes = new SecurityProtocolType[args.length-1];
+            for (int i=1; i<args.length; ++i)
+                securityProtocolTypes[i-1] = SecurityProtocolType.valueOf(args[i]);
+        }
+
+        runKeyGeneration();
+
+        // Warm up
+        for (SecurityProtocolType securityProtocolType:securityProtocolTypes)
+            runProtocol(securityProtocolType, WARM_UP_MESSAGES, false);
+
+        System.out.println();
+        System.out.println("messages="+messages);
+        System.out.println("protocol  payload(bytes)  overhead(bytes)  prepare(avg us)  " +
+                "verify(avg us)  messages/s");
+        for (SecurityProtocolType securityProtocolType:securityProtocolTypes)
+            runProtocol(securityProtocolType, messages, true);
+    }
+
+    /**
+     * Times the generation of each kind of key and prints a line for each
+     */
+    private static void runKeyGeneration() throws Exception {
+        System.out.println("key            generation(avg ms)");
+
+        long startNanos = System.nanoTime();
+        for (int i=0; i<OTHER_KEYS; ++i)
+            new DESCipher();
+        printKeyGeneration("DES", startNanos, OTHER_KEYS);
+
+        startNanos = System.nanoTime();
+        for (int i=0; i<OTHER_KEYS; ++i)
+            new ECPrivateCipher();
+        printKeyGeneration("EC "+SecurityDefaults.EC_CURVE,
+                startNanos, OTHER_KEYS);
+
+        startNanos = System.nanoTime();
+        for (int i=0; i<RSA_KEYS; ++i)
+            new RSAPrivateCipher();
+        printKeyGeneration("RSA "+SecurityDefaults.RSA_KEY_LENGTH,
+                startNanos, RSA_KEYS);
+    }
+
+    private static void printKeyGeneration(String key, long startNanos, int keys) {
+        System.out.println(String.format("%-13s  %18.2f",
+                key, (System.nanoTime()-startNanos)/1000000.0/keys));
+    }
+
+    /**
+     * Runs the benchmark for a single security protocol and prints a line
+     * of results for every payload size
+     */
+    private static void runProtocol(SecurityProtocolType securityProtocolType,
+            int messages, boolean print) throws Exception {
+
+        LoopbackLink           loopbackLink = new LoopbackLink();
+        CountingReceiver       receiver     = new CountingReceiver();
+        SecurityMessageLayer[] layers       = new SecurityMessageLayer[2];
+        for (int slot=0; slot<2; ++slot) {
+            layers[slot] = new SecurityMessageLayer(loopbackLink.getMessageSender(slot),
+                    slot==1 ? receiver : new CountingReceiver());
+            layers[slot].setSecurityProtocolType(securityProtocolType);
+        }
+        loopbackLink.setLayers(layers);
+
+        // Complete the mutual authentication before measuring anything
+        for (int slot=0; slot<2; ++slot) {
+            layers[slot].prepareForNextSession();
+            layers[slot].registerSlotsForNewSession(ParticipantRegistry.getMask(1-slot));
+        }
+        long handshakeDeadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+        while (layers[0].getReadySlots()==0 || layers[1].getReadySlots()==0) {
+            if (loopbackLink.deliverAll()==0)
+                Thread.sleep(1);
+            if (System.currentTimeMillis() > handshakeDeadline)
+                throw new IllegalStateException(securityProtocolType+
+                        " handshake did not complete in "+HANDSHAKE_TIMEOUT+"ms");
+        }
+        loopbackLink.deliverAll();
+
+        for (int payloadSize:PAYLOAD_SIZES) {
+            byte[] payload = new byte[payloadSize];
+
+            // Prepare every message, keeping them on the link
+            loopbackLink.setHolding(true);
+            long prepareNanos = System.nanoTime();
+            for (int i=0; i<messages; ++i)
+                layers[0].broadcastUnreliableMessageToSlot(payload, 1);
+            prepareNanos = System.nanoTime() - prepareNanos;
+            long bytesSent = loopbackLink.getBytesHeld();
+
+            // Then verify and decrypt all of them
+            receiver.reset();
+            loopbackLink.setHolding(false);
+            long verifyNanos = System.nanoTime();
+            loopbackLink.deliverAll();
+            verifyNanos = System.nanoTime() - verifyNanos;
+
+            if (receiver.getMessagesReceived()!=messages)
+                throw new IllegalStateException(securityProtocolType+" delivered "+
+                        receiver.getMessagesReceived()+" of "+messages+" messages");
+
+            if (print)
+                System.out.println(String.format("%8s  %14d  %15.1f  %15.2f  %14.2f  %10.0f",
+                        securityProtocolType,
+                        payloadSize,
+                        bytesSent/(double)messages - payloadSize,
+                        prepareNanos/1000.0/messages,
+                        verifyNanos/1000.0/messages,
+                        messages*1000000000.0/(prepareNanos+verifyNanos)));
+        }
+
+        for (SecurityMessageLayer layer:layers)
+            layer.quit();
+    }
+
+    /**
+     * Connects two SecurityMessageLayers on the calling thread
+     *
+     * Messages are kept on the link until they are delivered,
+     * so a layer never receives a message while it is sending one.
+     */
+    private static class LoopbackLink {
+
+        private final ArrayDeque<Integer> fromSlots = new ArrayDeque<Integer>();
+        private final ArrayDeque<byte[]> messages  = new ArrayDeque<byte[]>();
+        private SecurityMessageLayer[]   layers;
+
+        // Whether messages are held, and the bytes held so far
+        private boolean                  holding;
+        private long                     bytesHeld;
+
+        public void setLayers(SecurityMessageLayer[] layers) {
+            this.layers = layers;
+        }
+
+        public void setHolding(boolean holding) {
+            this.holding = holding;
+            bytesHeld    = 0;
+        }
+
+        public long getBytesHeld() {
+            return bytesHeld;
+        }
+
+        /**
+         * Delivers every message on the link, including those sent while delivering
+         * @return The number of messages delivered
+         */
+        public int deliverAll() {
+            int delivered = 0;
+            while (messages.isEmpty()==false) {
+                int fromSlot = fromSlots.remove();
+                layers[1-fromSlot].registerMessage(fromSlot, messages.remove());
+                ++delivered;
+            }
+            return delivered;
+        }
+
+        private void send(int fromSlot, byte[] message) {
+            fromSlots.add(fromSlot);
+            messages.add(message);
+            if (holding)
+                bytesHeld += message.length;
+        }
+
+        public MessageSender getMessageSender(final int slot) {
+            return new MessageSender() {
+                @Override
+                public void broadcastReliableMessageToSlot(byte[] message, int toSlot) {
+                    send(slot, message);
+                }
+                @Override
+                public void broadcastUnreliableMessageToSlot(byte[] message, int toSlot) {
+                    send(slot, message);
+                }
+                @Override
+                public void broadcastMessageToSlot(byte[] message, int toSlot, boolean reliable) {
+                    send(slot, message);
+                }
+                @Override
+                public void broadcastReliableMessageToAll(byte[] message, long excludedSlots) {
+                    broadcastMessageToAll(message, excludedSlots, true);
+                }
+                @Override
+                public void broadcastUnreliableMessageToAll(byte[] message, long excludedSlots) {
+                    broadcastMessageToAll(message, excludedSlots, false);
+                }
+                @Override
+                public void broadcastMessageToAll(byte[] message, long excludedSlots, boolean reliable) {
+                    if ((excludedSlots & ParticipantRegistry.getMask(1-slot))==0)
+                        send(slot, message);
+                }
+            };
+        }
+    }
+
+    /**
+     * Counts the messages passed up by a SecurityMessageLayer
+     */
+    private static class CountingReceiver implements MessageReceiver {
+
+        private long messagesReceived;
+
+        @Override
+        public void registerMessage(int fromSlot, byte[] message) {
+            ++messagesReceived;
+        }
+
+        public void reset() {
+            messagesReceived = 0;
+        }
+
+        public long getMessagesReceived() {
+            return messagesReceived;
+        }
+    }
+}
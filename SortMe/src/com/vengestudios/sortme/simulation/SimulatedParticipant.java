@@ -0,0 +1,218 @@
+package com.vengestudios.sortme.simulation;
+
+import com.vengestudios.sortme.MessageReceiver;
+import com.vengestudios.sortme.ParticipantRegistry;
+import com.vengestudios.sortme.game.GameMessageCallback;
+import com.vengestudios.sortme.game.GameMessageDecoders;
+import com.vengestudios.sortme.game.GameMessageDecoders.ScoreUpdate;
+import com.vengestudios.sortme.game.GameMessagePriorityClassifier;
+import com.vengestudios.sortme.game.GameMessageReceiver;
+import com.vengestudios.sortme.game.GameMessageType;
+import com.vengestudios.sortme.game.GameMessageWriter;
+import com.vengestudios.sortme.network.BatchingMessageLayer;
+import com.vengestudios.sortme.network.InboundMessagePipeline;
+import com.vengestudios.sortme.network.OutboundMessagePipeline;
+import com.vengestudios.sortme.security.SecurityMessageLayer;
+import com.vengestudios.sortme.security.SecurityProtocolType;
+
+/**
+ * A virtual participant in a SimulatedRoom, running the same
+ * message "layers" as MainActivity wires up on a device
+ *
+ * Responsible for:
+ *
+ *  - Recording when the mutual authentication with every other
+ *    participant has completed
+ *
+ *  - Sending probe score updates to every other participant, and
+ *    measuring the end to end latency of the probes received
+ *
+ * A probe is a normal UPDATE_SCORE_AND_LINES_SORTED message with the
+ * microseconds since the room was set up as its score, so it takes the
+ * exact path of a score update through the OutboundMessagePipeline,
+ * SecurityMessageLayer, BatchingMessageLayer and InboundMessagePipeline.
+ * The score wraps around after about 35 minutes, which is much longer than a load test.
+ *
+ * The scheduler thread of the room takes the place of the UI thread,
+ * and each pipeline runs on a ThreadMessageLoop of its own.
+ * All the methods must be called on the scheduler thread of the room.
+ */
+public class SimulatedParticipant implements MessageReceiver {
+
+    // The room and the slot of the participant in it
+    private final SimulatedRoom           simulatedRoom;
+    private final int                     slot;
+    private final long                    otherSlots;
+
+    // The "layers" of the participant, in the same order as MainActivity
+    private final OutboundMessagePipeline outboundMessagePipeline;
+    private final SecurityMessageLayer    securityMessageLayer;
+    private final BatchingMessageLayer    batchingMessageLayer;
+    private final InboundMessagePipeline  inboundMessagePipeline;
+    private final GameMessageReceiver     gameMessageReceiver;
+    private final GameMessageWriter       gameMessageWriter;
+
+    // The time the probes are measured from
+    private final long                    epochNanos;
+
+    // Fields to time the mutual authentication,
+    // completed on the worker thread of the InboundMessagePipeline
+    private volatile long                 handshakeStartNanos;
+    private volatile long                 handshakeCompletionNanos;
+
+    // Probe statistics
+    private int                           probeSequence;
+    private long                          probesReceived;
+    private long                          totalProbeLatencyMicros;
+    private long                          maxProbeLatencyMicros;
+
+    /**
+     * Constructor
+     *
+     * Creates the participant and registers it with the room
+     *
+     * @param simulatedRoom        The SimulatedRoom
+     * @param slot                 The slot of the participant in the room
+     * @param securityProtocolType The SecurityProtocolType chosen by the participant
+     * @param epochNanos           The System.nanoTime() the probes are measured from,
+     *                             which must be the same for every participant
+     */
+    public SimulatedParticipant(SimulatedRoom simulatedRoom, int slot,
+            SecurityProtocolType securityProtocolType, long epochNanos) throws Exception {
+        this.simulatedRoom = simulatedRoom;
+        this.slot          = slot;
+        this.epochNanos    = epochNanos;
+        otherSlots         = simulatedRoom.getAllSlots() & ~ParticipantRegistry.getMask(slot);
+
+        gameMessageWriter    = new GameMessageWriter();
+        gameMessageReceiver  = new GameMessageReceiver();
+        gameMessageReceiver.registerCallbackLoop(simulatedRoom.getMessageLoop());
+
+        batchingMessageLayer = new BatchingMessageLayer(
+                simulatedRoom.getMessageSender(slot), simulatedRoom.getMessageLoop());
+        securityMessageLayer = new SecurityMessageLayer(batchingMessageLayer, gameMessageReceiver);
+        securityMessageLayer.registerMessagePriorityClassifier(new GameMessagePriorityClassifier());
+        securityMessageLayer.setSecurityProtocolType(securityProtocolType);
+
+        outboundMessagePipeline = new OutboundMessagePipeline(securityMessageLayer,
+                new ThreadMessageLoop("OutboundMessagePipeline "+slot));
+        batchingMessageLayer.registerFlushLoop(outboundMessagePipeline.getMessageLoop());
+
+        batchingMessageLayer.registerMessageReceiver(this);
+        inboundMessagePipeline = new InboundMessagePipeline(batchingMessageLayer,
+                new ThreadMessageLoop("InboundMessagePipeline "+slot));
+
+        gameMessageReceiver.registerHandler(GameMessageType.UPDATE_SCORE_AND_LINES_SORTED,
+                GameMessageDecoders.SCORE_UPDATE, new GameMessageCallback<ScoreUpdate>() {
+            @Override
+            public void onGameMessage(int fromParticipantSlot, ScoreUpdate scoreUpdate) {
+                registerProbe(scoreUpdate.score);
+            }
+        });
+
+        simulatedRoom.registerMessageReceiver(slot, inboundMessagePipeline);
+    }
+
+    /**
+     * Starts a new session with every other participant in the room,
+     * which starts the mutual authentication with each of them
+     */
+    public void startSession() {
+        inboundMessagePipeline.prepareForNextSession();
+        outboundMessagePipeline.prepareForNextSession();
+        securityMessageLayer.prepareForNextSession();
+        batchingMessageLayer.prepareForNextSession();
+        handshakeCompletionNanos = 0;
+        handshakeStartNanos      = System.nanoTime();
+        securityMessageLayer.registerSlotsForNewSession(otherSlots);
+        batchingMessageLayer.registerSlotsForNewSession(otherSlots);
+    }
+
+    /**
+     * Stops the threads of the pipelines and of the SecurityMessageLayer
+     */
+    public void quit() {
+        inboundMessagePipeline.quit();
+        outboundMessagePipeline.quit();
+        securityMessageLayer.quit();
+    }
+
+    /**
+     * Sends a probe score update to every other participant.
+     * Probes sent before the mutual authentication has completed
+     * are queued by the SecurityMessageLayer.
+     * @param reliable Whether to send the probe reliably
+     */
+    public void sendProbe(boolean reliable) {
+        int elapsedMicros = (int)((System.nanoTime()-epochNanos)/1000L);
+        byte[] message = GameMessageType.getUpdateScoreAndLinesSortedMessage(
+                gameMessageWriter, ++probeSequence, elapsedMicros, slot);
+        outboundMessagePipeline.broadcastMessageToAll(message, 0, reliable);
+    }
+
+    /**
+     * Passes the unbatched message to the SecurityMessageLayer on the worker thread
+     * of the InboundMessagePipeline, then checks if the mutual authentication has completed
+     */
+    @Override
+    public void registerMessage(int fromSlot, byte[] message) {
+        securityMessageLayer.registerMessage(fromSlot, message);
+        if (handshakeCompletionNanos==0 && handshakeStartNanos!=0 &&
+                securityMessageLayer.getReadySlots()==otherSlots)
+            handshakeCompletionNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the latency of a received probe
+     * @param sentMicros The microseconds since the epoch the probe was sent at
+     */
+    private void registerProbe(int sentMicros) {
+        int latencyMicros = (int)((System.nanoTime()-epochNanos)/1000L) - sentMicros;
+        ++probesReceived;
+        totalProbeLatencyMicros += latencyMicros;
+        maxProbeLatencyMicros    = Math.max(maxProbeLatencyMicros, latencyMicros);
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public SimulatedRoom getSimulatedRoom() {
+        return simulatedRoom;
+    }
+
+    /**
+     * @return Whether the mutual authentication with every other participant has completed
+     */
+    public boolean isHandshakeComplete() {
+        return handshakeCompletionNanos!=0;
+    }
+
+    /**
+     * @return The milliseconds taken to complete the mutual authentication
+     *         with every other participant, -1 if it has not completed
+     */
+    public double getHandshakeTime() {
+        if (handshakeCompletionNanos==0)
+            return -1;
+        return (handshakeCompletionNanos-handshakeStartNanos)/1000000.0;
+    }
+
+    public long getProbesReceived() {
+        return probesReceived;
+    }
+
+    /**
+     * @return The mean end to end latency of the received probes in milliseconds
+     */
+    public double getMeanProbeLatency() {
+        return probesReceived==0 ? 0 : totalProbeLatencyMicros/1000.0/probesReceived;
+    }
+
+    /**
+     * @return The maximum end to end latency of the received probes in milliseconds
+     */
+    public double getMaxProbeLatency() {
+        return maxProbeLatencyMicros/1000.0;
+    }
+}
@@ -0,0 +1,485 @@
+package com.vengestudios.sortme.simulation;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.vengestudios.sortme.MessageLoop;
+import com.vengestudios.sortme.MessageReceiver;
+import com.vengestudios.sortme.MessageSender;
+import com.vengestudios.sortme.ParticipantRegistry;
+
+/**
+ * An in-process stand-in for a Google Game Services room,
+ * connecting N virtual participants over simulated links
+ *
+ * Responsible for:
+ *
+ *  - Giving each participant a MessageSender that takes the place of
+ *    MainActivity as the lowest message sending "layer"
+ *
+ *  - Delivering the sent messages to the MessageReceiver registered
+ *    for the recipient after the latency and jitter of the link,
+ *    dropping and reordering unreliable messages as configured
+ *
+ *  - Keeping count of the messages sent, dropped and delivered,
+ *    and of the time they spent in flight
+ *
+ * Every delivery and every Runnable posted to the room runs on a single
+ * scheduler thread, the same way every message reaches the layers on the
+ * UI thread of a device, so the layers need no extra synchronization as
+ * long as they are only called through post(). getMessageLoop() hands out
+ * the scheduler thread as the MessageLoop of the UI thread of the participants.
+ *
+ * The participants take the slots 0 to N-1, so the slots of the other
+ * participants of a participant are getAllSlots() without its own slot.
+ */
+public class SimulatedRoom {
+
+    // The number of virtual participants
+    private final int              participantCount;
+
+    // The conditions of each link, and the time the last reliable message
+    // on each link is delivered, indexed by (fromSlot*participantCount + toSlot)
+    private final LinkConditions[] linkConditions;
+    private final long[]           lastReliableDeliveryTimes;
+
+    // The MessageSenders handed out to the participants, and the
+    // MessageReceivers the messages to each participant are passed to
+    private final MessageSender[]   messageSenders;
+    private final MessageReceiver[] messageReceivers;
+
+    // The MessageLoop posting to the scheduler thread
+    private final MessageLoop       messageLoop;
+
+    // The pending deliveries and posted Runnables, ordered by the time
+    // they are due, then by the order they were scheduled in.
+    // Also used as the lock for the fields below it
+    private final PriorityQueue<Event> events;
+    private long                       nextEventOrder;
+    private final Random               random;
+
+    // Statistics
+    private long messagesSent;
+    private long messagesDropped;
+    private long messagesDelivered;
+    private long bytesDelivered;
+    private long totalFlightNanos;
+    private long maxFlightNanos;
+
+    // The scheduler thread running the events
+    private Thread           schedulerThread;
+    private volatile boolean running;
+
+    /**
+     * Constructor
+     *
+     * Creates the SimulatedRoom with the same conditions on every link
+     *
+     * @param participantCount  The number of virtual participants, at most MAX_PARTICIPANTS
+     * @param defaultConditions The LinkConditions of every link
+     * @param seed              The seed of the random loss, jitter and reordering
+     */
+    public SimulatedRoom(int participantCount, LinkConditions defaultConditions, long seed) {
+        if (participantCount<1 || participantCount>ParticipantRegistry.MAX_PARTICIPANTS)
+            throw new IllegalArgumentException("Invalid participant count: "+participantCount);
+
+        this.participantCount     = participantCount;
+        linkConditions            = new LinkConditions[participantCount*participantCount];
+        lastReliableDeliveryTimes = new long[participantCount*participantCount];
+        messageSenders            = new MessageSender[participantCount];
+        messageReceivers          = new MessageReceiver[participantCount];
+        events                    = new PriorityQueue<Event>();
+        random                    = new Random(seed);
+        messageLoop               = new SchedulerMessageLoop();
+
+        Arrays.fill(linkConditions, defaultConditions);
+        for (int slot=0; slot<participantCount; ++slot)
+            messageSenders[slot] = new SimulatedMessageSender(slot);
+    }
+
+    /**
+     * @return The number of virtual participants
+     */
+    public int getParticipantCount() {
+        return participantCount;
+    }
+
+    /**
+     * @return The bitmask of the slots of all the participants
+     */
+    public long getAllSlots() {
+        return participantCount==ParticipantRegistry.MAX_PARTICIPANTS ?
+                -1L : ParticipantRegistry.getMask(participantCount)-1;
+    }
+
+    /**
+     * Sets the conditions of the link from one participant to another
+     * @param fromSlot       The slot of the sender
+     * @param toSlot         The slot of the recipient
+     * @param linkConditions The LinkConditions
+     */
+    public void setLinkConditions(int fromSlot, int toSlot, LinkConditions linkConditions) {
+        synchronized (events) {
+            this.linkConditions[fromSlot*participantCount + toSlot] = linkConditions;
+        }
+    }
+
+    /**
+     * @param slot The slot of a participant
+     * @return     The MessageSender the participant sends its messages through
+     */
+    public MessageSender getMessageSender(int slot) {
+        return messageSenders[slot];
+    }
+
+    /**
+     * @return The MessageLoop that posts to the scheduler thread,
+     *         which the participants use in place of the UI thread.
+     *         Quitting it does nothing, the room is stopped with stop()
+     */
+    public MessageLoop getMessageLoop() {
+        return messageLoop;
+    }
+
+    /**
+     * Registers the MessageReceiver that messages to a participant are passed to
+     * @param slot            The slot of the participant
+     * @param messageReceiver The outermost MessageReceiver "layer" of the participant
+     */
+    public void registerMessageReceiver(int slot, MessageReceiver messageReceiver) {
+        synchronized (events) {
+            messageReceivers[slot] = messageReceiver;
+        }
+    }
+
+    /**
+     * Starts the scheduler thread
+     */
+    public void start() {
+        if (running)
+            return;
+        running         = true;
+        schedulerThread = new Thread(new SchedulerRunnable(), "SimulatedRoom");
+        schedulerThread.start();
+    }
+
+    /**
+     * Stops the scheduler thread, waiting for it to finish the running event.
+     * Pending events are kept and run if the room is started again.
+     */
+    public void stop() throws InterruptedException {
+        if (running==false)
+            return;
+        running = false;
+        synchronized (events) {
+            events.notifyAll();
+        }
+        schedulerThread.join();
+    }
+
+    /**
+     * Runs the Runnable on the scheduler thread
+     * @param runnable The Runnable
+     * @param delay    The milliseconds to wait before running it
+     */
+    public void post(Runnable runnable, long delay) {
+        schedule(new Event(System.nanoTime() + delay*1000000L, runnable));
+    }
+
+    /**
+     * Reset the statistics
+     */
+    public void resetStatistics() {
+        synchronized (events) {
+            messagesSent      = 0;
+            messagesDropped   = 0;
+            messagesDelivered = 0;
+            bytesDelivered    = 0;
+            totalFlightNanos  = 0;
+            maxFlightNanos    = 0;
+        }
+    }
+
+    // Getters for the statistics
+
+    public long getMessagesSent() {
+        synchronized (events) { return messagesSent; }
+    }
+
+    public long getMessagesDropped() {
+        synchronized (events) { return messagesDropped; }
+    }
+
+    public long getMessagesDelivered() {
+        synchronized (events) { return messagesDelivered; }
+    }
+
+    public long getBytesDelivered() {
+        synchronized (events) { return bytesDelivered; }
+    }
+
+    /**
+     * @return The mean milliseconds between a message being sent and being
+     *         passed to its MessageReceiver, including time queued behind other events
+     */
+    public double getMeanFlightTime() {
+        synchronized (events) {
+            return messagesDelivered==0 ? 0 : totalFlightNanos/1000000.0/messagesDelivered;
+        }
+    }
+
+    /**
+     * @return The maximum milliseconds between a message being sent
+     *         and being passed to its MessageReceiver
+     */
+    public double getMaxFlightTime() {
+        synchronized (events) {
+            return maxFlightNanos/1000000.0;
+        }
+    }
+
+    /**
+     * Applies the conditions of the link to a message and schedules its delivery
+     * @param fromSlot The slot of the sender
+     * @param toSlot   The slot of the recipient
+     * @param message  The message
+     * @param reliable Whether the message is reliable
+     */
+    private void send(int fromSlot, int toSlot, byte[] message, boolean reliable) {
+        if (toSlot<0 || toSlot>=participantCount || toSlot==fromSlot)
+            return;
+
+        long sentTime = System.nanoTime();
+
+        // Copy the message, as the sender is free to reuse its buffer
+        message = Arrays.copyOf(message, message.length);
+
+        synchronized (events) {
+            ++messagesSent;
+
+            int            link       = fromSlot*participantCount + toSlot;
+            LinkConditions conditions = linkConditions[link];
+            long           delay      = conditions.latency;
+            if (conditions.jitter>0)
+                delay += random.nextInt(conditions.jitter+1);
+
+            long deliveryTime;
+            if (reliable) {
+
+                // Never deliver a reliable message before the one sent before it
+                deliveryTime = Math.max(sentTime + delay*1000000L, lastReliableDeliveryTimes[link]);
+                lastReliableDeliveryTimes[link] = deliveryTime;
+
+            } else {
+                if (random.nextFloat() < conditions.lossRate) {
+                    ++messagesDropped;
+                    return;
+                }
+                if (random.nextFloat() < conditions.reorderRate)
+                    delay += Math.max(conditions.latency, 1);
+                deliveryTime = sentTime + delay*1000000L;
+            }
+
+            schedule(new Event(deliveryTime, fromSlot, toSlot, message, sentTime));
+        }
+    }
+
+    /**
+     * Adds an event to the queue and wakes up the scheduler thread
+     * @param event The Event
+     */
+    private void schedule(Event event) {
+        synchronized (events) {
+            event.order = nextEventOrder++;
+            events.add(event);
+            events.notifyAll();
+        }
+    }
+
+    /**
+     * Runs an event that is due on the scheduler thread
+     * @param event The Event
+     */
+    private void run(Event event) {
+        if (event.runnable!=null) {
+            event.runnable.run();
+            return;
+        }
+
+        MessageReceiver messageReceiver;
+        synchronized (events) {
+            messageReceiver = messageReceivers[event.toSlot];
+            if (messageReceiver==null) {
+                ++messagesDropped;
+                return;
+            }
+            long flightNanos = System.nanoTime() - event.sentTime;
+            ++messagesDelivered;
+            bytesDelivered   += event.message.length;
+            totalFlightNanos += flightNanos;
+            maxFlightNanos    = Math.max(maxFlightNanos, flightNanos);
+        }
+        messageReceiver.registerMessage(event.fromSlot, event.message);
+    }
+
+    /**
+     * A message in flight, or a Runnable posted to the room
+     */
+    private static class Event implements Comparable<Event> {
+
+        private final long     time;
+        private long           order;
+
+        private final Runnable runnable;
+
+        private final int      fromSlot;
+        private final int      toSlot;
+        private final byte[]   message;
+        private final long     sentTime;
+
+        public Event(long time, Runnable runnable) {
+            this.time     = time;
+            this.runnable = runnable;
+            fromSlot      = ParticipantRegistry.NO_SLOT;
+            toSlot        = ParticipantRegistry.NO_SLOT;
+            message       = null;
+            sentTime      = 0;
+        }
+
+        public Event(long time, int fromSlot, int toSlot, byte[] message, long sentTime) {
+            this.time     = time;
+            this.fromSlot = fromSlot;
+            this.toSlot   = toSlot;
+            this.message  = message;
+            this.sentTime = sentTime;
+            runnable      = null;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time!=other.time)
+                return time-other.time < 0 ? -1 : 1;
+            return order<other.order ? -1 : (order==other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * The MessageSender handed to a participant, which addresses
+     * the other participants by their slot in the room
+     */
+    private class SimulatedMessageSender implements MessageSender {
+
+        private final int slot;
+
+        public SimulatedMessageSender(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public void broadcastReliableMessageToSlot(byte[] message, int toSlot) {
+            send(slot, toSlot, message, true);
+        }
+
+        @Override
+        public void broadcastUnreliableMessageToSlot(byte[] message, int toSlot) {
+            send(slot, toSlot, message, false);
+        }
+
+        @Override
+        public void broadcastMessageToSlot(byte[] message, int toSlot,
+                boolean reliable) {
+            send(slot, toSlot, message, reliable);
+        }
+
+        @Override
+        public void broadcastReliableMessageToAll(byte[] message,
+                long excludedSlots) {
+            broadcastMessageToAll(message, excludedSlots, true);
+        }
+
+        @Override
+        public void broadcastUnreliableMessageToAll(byte[] message,
+                long excludedSlots) {
+            broadcastMessageToAll(message, excludedSlots, false);
+        }
+
+        @Override
+        public void broadcastMessageToAll(byte[] message,
+                long excludedSlots, boolean reliable) {
+            long toSlots = getAllSlots() & ~excludedSlots & ~ParticipantRegistry.getMask(slot);
+            for (long remaining=toSlots; remaining!=0; remaining&=remaining-1)
+                send(slot, Long.numberOfTrailingZeros(remaining), message, reliable);
+        }
+    }
+
+    /**
+     * The MessageLoop that posts the Runnables to the room as events
+     */
+    private class SchedulerMessageLoop implements MessageLoop {
+
+        @Override
+        public void post(Runnable runnable) {
+            SimulatedRoom.this.post(runnable, 0);
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delay) {
+            SimulatedRoom.this.post(runnable, delay);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            synchronized (events) {
+                for (Iterator<Event> iterator=events.iterator(); iterator.hasNext();)
+                    if (iterator.next().runnable==runnable)
+                        iterator.remove();
+            }
+        }
+
+        // Shared by every participant, so this removes the Runnables they all posted
+        @Override
+        public void removeAllCallbacks() {
+            synchronized (events) {
+                for (Iterator<Event> iterator=events.iterator(); iterator.hasNext();)
+                    if (iterator.next().runnable!=null)
+                        iterator.remove();
+            }
+        }
+
+        @Override
+        public void quit() {
+        }
+    }
+
+    /**
+     * A Runnable that runs the events on the scheduler thread as they become due
+     */
+    private class SchedulerRunnable implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    Event event;
+                    synchronized (events) {
+                        event = events.peek();
+                        if (event==null) {
+                            events.wait();
+                            continue;
+                        }
+                        long wait = event.time - System.nanoTime();
+                        if (wait>0) {
+                            events.wait(wait/1000000L, (int)(wait%1000000L));
+                            continue;
+                        }
+                        events.poll();
+                    }
+                    SimulatedRoom.this.run(event);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.vengestudios.sortme.simulation;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import com.vengestudios.sortme.MessageLoop;
+
+/**
+ * A MessageLoop running on a thread started for it, which takes the place
+ * of a HandlerMessageLoop on a HandlerThread when the message "layers"
+ * are run on a plain JVM
+ *
+ * The Runnables are run in the order they are due, then in the order
+ * they were posted in, the same way a Handler runs them.
+ */
+public class ThreadMessageLoop implements MessageLoop {
+
+    // The pending posts, ordered by the time they are due,
+    // then by the order they were posted in.
+    // Also used as the lock for the fields below it
+    private final PriorityQueue<Post> posts;
+    private long                      nextPostOrder;
+    private boolean                   running;
+
+    private final Thread              thread;
+
+    /**
+     * Constructor
+     *
+     * Creates the ThreadMessageLoop and starts its thread
+     *
+     * @param threadName The name of the thread
+     */
+    public ThreadMessageLoop(String threadName) {
+        posts   = new PriorityQueue<Post>();
+        running = true;
+        thread  = new Thread(new LoopRunnable(), threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        postDelayed(runnable, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delay) {
+        synchronized (posts) {
+            posts.add(new Post(System.nanoTime() + delay*1000000L, nextPostOrder++, runnable));
+            posts.notifyAll();
+        }
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        synchronized (posts) {
+            for (Iterator<Post> iterator=posts.iterator(); iterator.hasNext();)
+                if (iterator.next().runnable==runnable)
+                    iterator.remove();
+        }
+    }
+
+    @Override
+    public void removeAllCallbacks() {
+        synchronized (posts) {
+            posts.clear();
+        }
+    }
+
+    @Override
+    public void quit() {
+        synchronized (posts) {
+            running = false;
+            posts.notifyAll();
+        }
+    }
+
+    /**
+     * A Runnable posted to the loop
+     */
+    private static class Post implements Comparable<Post> {
+
+        private final long     time;
+        private final long     order;
+        private final Runnable runnable;
+
+        public Post(long time, long order, Runnable runnable) {
+            this.time     = time;
+            this.order    = order;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Post other) {
+            if (time!=other.time)
+                return time-other.time < 0 ? -1 : 1;
+            return order<other.order ? -1 : (order==other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * A Runnable that runs the posts on the thread of the loop as they become due
+     */
+    private class LoopRunnable implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Post post;
+                    synchronized (posts) {
+                        if (running==false)
+                            return;
+                        post = posts.peek();
+                        if (post==null) {
+                            posts.wait();
+                            continue;
+                        }
+                        long wait = post.time - System.nanoTime();
+                        if (wait>0) {
+                            posts.wait(wait/1000000L, (int)(wait%1000000L));
+                            continue;
+                        }
+                        posts.poll();
+                    }
+                    post.runnable.run();
+                }
+            } catch (InterruptedException e) {
+                synchronized (posts) {
+                    running = false;
+                }
+            }
+        }
+    }
+}